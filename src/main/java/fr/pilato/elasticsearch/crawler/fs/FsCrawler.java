@@ -72,6 +72,12 @@ public class FsCrawler {
         @Parameter(names = "--update_mapping", description = "Update elasticsearch mapping")
         private boolean updateMapping = false;
 
+        @Parameter(names = "--replay", description = "Index again the documents of the document store and exit")
+        private boolean replay = false;
+
+        @Parameter(names = "--index", description = "Index to use with --replay. Default to the job index.")
+        private String index = null;
+
         @Parameter(names = "--debug", description = "Debug mode")
         private boolean debug = false;
 
@@ -212,6 +218,17 @@ public class FsCrawler {
         logger.trace("settings used for this crawler: [{}]", FsSettingsParser.toJson(fsSettings));
         FsCrawlerImpl fsCrawler = new FsCrawlerImpl(configDir, fsSettings, commands.loop, commands.updateMapping);
         Runtime.getRuntime().addShutdownHook(new FSCrawlerShutdownHook(fsCrawler));
+        if (commands.replay) {
+            try {
+                fsCrawler.replay(commands.index);
+                System.exit(0);
+            } catch (Exception e) {
+                logger.fatal("Fatal error received while replaying the documents: [{}]", e.getMessage());
+                logger.debug("error caught", e);
+                System.exit(-1);
+            }
+        }
+
         try {
             fsCrawler.start();
             // We just have to wait until the process is stopped
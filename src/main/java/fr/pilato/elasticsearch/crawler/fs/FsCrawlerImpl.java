@@ -20,24 +20,42 @@
 package fr.pilato.elasticsearch.crawler.fs;
 
 import fr.pilato.elasticsearch.crawler.fs.client.BulkProcessor;
+import fr.pilato.elasticsearch.crawler.fs.client.BulkRequest;
+import fr.pilato.elasticsearch.crawler.fs.client.BulkResponse;
 import fr.pilato.elasticsearch.crawler.fs.client.DeleteRequest;
 import fr.pilato.elasticsearch.crawler.fs.client.ElasticsearchClient;
 import fr.pilato.elasticsearch.crawler.fs.client.IndexRequest;
+import fr.pilato.elasticsearch.crawler.fs.client.SingleBulkRequest;
 import fr.pilato.elasticsearch.crawler.fs.client.SearchResponse;
 import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractModel;
 import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractor;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractorArchive;
 import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractorFile;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractorS3;
 import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractorSSH;
 import fr.pilato.elasticsearch.crawler.fs.meta.doc.Attributes;
 import fr.pilato.elasticsearch.crawler.fs.meta.doc.Doc;
 import fr.pilato.elasticsearch.crawler.fs.meta.doc.DocParser;
 import fr.pilato.elasticsearch.crawler.fs.meta.doc.PathParser;
+import fr.pilato.elasticsearch.crawler.fs.meta.job.FsCheckpoint;
 import fr.pilato.elasticsearch.crawler.fs.meta.job.FsJob;
 import fr.pilato.elasticsearch.crawler.fs.meta.job.FsJobFileHandler;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettingsFileHandler;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import fr.pilato.elasticsearch.crawler.fs.pipeline.DebounceBuffer;
+import fr.pilato.elasticsearch.crawler.fs.pipeline.PipelineStage;
+import fr.pilato.elasticsearch.crawler.fs.state.CrawlFrontier;
+import fr.pilato.elasticsearch.crawler.fs.state.DirectoryQueue;
+import fr.pilato.elasticsearch.crawler.fs.state.DocumentStore;
+import fr.pilato.elasticsearch.crawler.fs.state.FileState;
+import fr.pilato.elasticsearch.crawler.fs.state.FileStateStore;
+import fr.pilato.elasticsearch.crawler.fs.tika.ExtractionCache;
+import fr.pilato.elasticsearch.crawler.fs.tika.ForkedParserPool;
+import fr.pilato.elasticsearch.crawler.fs.tika.ParseWatchdog;
 import fr.pilato.elasticsearch.crawler.fs.tika.XmlDocParser;
 import fr.pilato.elasticsearch.crawler.fs.util.FsCrawlerUtil;
+import fr.pilato.elasticsearch.crawler.fs.watcher.DirectoryWatcher;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -49,15 +67,35 @@ import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static fr.pilato.elasticsearch.crawler.fs.FsCrawlerValidator.validateSettings;
 import static fr.pilato.elasticsearch.crawler.fs.client.ElasticsearchClient.extractFromPath;
@@ -72,22 +110,43 @@ public class FsCrawlerImpl {
     public static final class PROTOCOL {
         public static final String LOCAL = "local";
         public static final String SSH = "ssh";
+        public static final String S3 = "s3";
         public static final int SSH_PORT = 22;
     }
 
+    public static final class LISTING {
+        public static final String SFTP = "sftp";
+        public static final String FIND = "find";
+    }
+
     private static final Logger logger = LogManager.getLogger(FsCrawlerImpl.class);
 
     private static final String PATH_ENCODED = FsCrawlerUtil.Doc.PATH + "." + FsCrawlerUtil.Doc.Path.ENCODED;
     private static final String FILE_FILENAME = FsCrawlerUtil.Doc.FILE + "." + FsCrawlerUtil.Doc.File.FILENAME;
 
+    // Number of documents waiting to be replayed per thread
+    private static final int REPLAY_QUEUE_SIZE = 100;
+    // Tells a replay thread there is nothing more to replay
+    private static final Path END_OF_REPLAY = Paths.get("");
+
     private final AtomicInteger runNumber = new AtomicInteger(0);
 
     public static final int REQUEST_SIZE = 10000;
+    // Number of directories the breadth first walker keeps in memory
+    public static final int DIRECTORY_QUEUE_SIZE = 10000;
     public static final int LOOP_INFINITE = -1;
 
     private volatile BulkProcessor bulkProcessor;
+    private volatile ForkJoinPool walkerPool;
+    private volatile FileStateStore fileStateStore;
+    private volatile DirectoryWatcher directoryWatcher;
+    private volatile ForkedParserPool parserProcesses;
+    private volatile ExtractionCache extractionCache;
+    private volatile DocumentStore documentStore;
 
     private volatile boolean closed = false;
+    // Set when we need a new scan as soon as possible
+    private volatile boolean rescan = false;
     private final Object semaphore = new Object();
 
     /**
@@ -100,9 +159,11 @@ public class FsCrawlerImpl {
     private final FsJobFileHandler fsJobFileHandler;
     private final Integer loop;
     private final boolean updateMapping;
-    private MessageDigest messageDigest = null;
+    // MessageDigest is not thread safe so each walker or extraction thread gets its own instance
+    private ThreadLocal<MessageDigest> messageDigest = null;
 
     private ElasticsearchClient client;
+    private FSParser fsParser;
     private Thread fsCrawlerThread;
 
     public FsCrawlerImpl(Path config, FsSettings settings) {
@@ -133,11 +194,14 @@ public class FsCrawlerImpl {
 
         // Create MessageDigest instance
         if (settings.getFs().getChecksum() != null) {
-            try {
-                messageDigest = MessageDigest.getInstance(settings.getFs().getChecksum());
-            } catch (NoSuchAlgorithmException e) {
-                throw new RuntimeException("This should never happen as we checked that previously");
-            }
+            final String algorithm = settings.getFs().getChecksum();
+            messageDigest = ThreadLocal.withInitial(() -> {
+                try {
+                    return MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new RuntimeException("This should never happen as we checked that previously");
+                }
+            });
         }
     }
 
@@ -147,6 +211,67 @@ public class FsCrawlerImpl {
             logger.info("FS crawler started in watch mode. It will run unless you stop it with CTRL+C.");
         }
 
+        connect(settings.getElasticsearch().getIndex());
+
+        if (loop == 0) {
+            closed = true;
+        }
+
+        if (closed) {
+            logger.info("Fs crawler is closed. Exiting");
+            return;
+        }
+
+        // Creating the pool of walker threads if we need to crawl directories in parallel
+        if (settings.getFs().getWalkerThreads() > 1) {
+            logger.debug("Using [{}] walker threads", settings.getFs().getWalkerThreads());
+            this.walkerPool = new ForkJoinPool(settings.getFs().getWalkerThreads(), pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("fs-walker-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+
+        // Opening the local state of the files we already indexed
+        if (settings.getFs().isFileState()) {
+            this.fileStateStore = FileStateStore.open(config.resolve(settings.getName()));
+        }
+
+        // Opening the cache of the text we already extracted
+        if (settings.getFs().isExtractionCache()) {
+            this.extractionCache = ExtractionCache.open(config.resolve(settings.getName()),
+                    settings.getFs().getExtractionCacheSize().bytes());
+        }
+
+        // Opening the local copy of the documents we send to elasticsearch
+        if (settings.getFs().isDocumentStore()) {
+            this.documentStore = DocumentStore.open(config.resolve(settings.getName()));
+        }
+
+        // Starting the pool of processes which extract the documents
+        if (settings.getFs().getParserProcesses() > 0) {
+            logger.debug("Using [{}] parser processes with [{}] of heap", settings.getFs().getParserProcesses(),
+                    settings.getFs().getParserProcessHeap());
+            this.parserProcesses = new ForkedParserPool(settings.getFs().getParserProcesses(),
+                    settings.getFs().getParserProcessHeap());
+        }
+
+        fsParser = new FSParser(settings);
+
+        // Creating bulk processor. The crawler needs to know what elasticsearch acknowledged.
+        this.bulkProcessor = BulkProcessor.simpleBulkProcessor(client, settings.getElasticsearch().getBulkSize(),
+                settings.getElasticsearch().getFlushInterval(), fsParser.new BulkListener());
+
+        // Start the crawler thread
+        fsCrawlerThread = new Thread(fsParser, "fs-crawler");
+        fsCrawlerThread.start();
+    }
+
+    /**
+     * Connect to elasticsearch and create the index and the mappings if needed
+     * @param index the index we are going to write into
+     */
+    private void connect(String index) throws Exception {
         String elasticsearchVersion;
 
         try {
@@ -157,7 +282,7 @@ public class FsCrawlerImpl {
             builder.setPassword(settings.getElasticsearch().getPassword());
             client = builder.build();
 
-            client.createIndex(settings.getElasticsearch().getIndex(), true);
+            client.createIndex(index, true);
 
             // Let's read the current version of elasticsearch cluster
             String version = client.findVersion();
@@ -165,7 +290,7 @@ public class FsCrawlerImpl {
 
             elasticsearchVersion = extractMajorVersionNumber(version);
         } catch (Exception e) {
-            logger.warn("failed to create index [{}], disabling crawler...", settings.getElasticsearch().getIndex());
+            logger.warn("failed to create index [{}], disabling crawler...", index);
             throw e;
         }
 
@@ -174,36 +299,144 @@ public class FsCrawlerImpl {
             Path jobMappingDir = config.resolve(settings.getName()).resolve("_mappings");
             // Read file mapping from resources
             String mapping = FsCrawlerUtil.readMapping(jobMappingDir, config, elasticsearchVersion, FsCrawlerUtil.INDEX_TYPE_DOC);
-            ElasticsearchClient.pushMapping(client, settings.getElasticsearch().getIndex(), settings.getElasticsearch().getType(),
+            ElasticsearchClient.pushMapping(client, index, settings.getElasticsearch().getType(),
                         mapping, updateMapping);
             // If needed, we create the new mapping for folders
             if (settings.getFs().isIndexFolders()) {
-                String mapping = FsCrawlerUtil.readMapping(jobMappingDir, config, elasticsearchVersion, FsCrawlerUtil.INDEX_TYPE_FOLDER);
-                ElasticsearchClient.pushMapping(client, settings.getElasticsearch().getIndex(), FsCrawlerUtil.INDEX_TYPE_FOLDER,
-                        mapping, updateMapping);
+                String folderMapping = FsCrawlerUtil.readMapping(jobMappingDir, config, elasticsearchVersion, FsCrawlerUtil.INDEX_TYPE_FOLDER);
+                ElasticsearchClient.pushMapping(client, index, FsCrawlerUtil.INDEX_TYPE_FOLDER,
+                        folderMapping, updateMapping);
             }
         } catch (Exception e) {
             logger.warn("failed to {} mapping for [{}/{}], disabling crawler...", updateMapping ? "update" : "create",
-                    settings.getElasticsearch().getIndex(), settings.getElasticsearch().getType());
+                    index, settings.getElasticsearch().getType());
             throw e;
         }
+    }
 
-        if (loop == 0) {
-            closed = true;
-        }
-
+    /**
+     * Send again to elasticsearch all the documents of the document store. We don't read the files
+     * nor extract their content, so this can be used to rebuild an index, for example after a mapping change.
+     * @param index the index to write into. If null, the index of the job.
+     * @return the number of documents elasticsearch indexed
+     */
+    public long replay(String index) throws Exception {
         if (closed) {
             logger.info("Fs crawler is closed. Exiting");
-            return;
+            return 0;
         }
 
-        // Creating bulk processor
-        this.bulkProcessor = BulkProcessor.simpleBulkProcessor(client, settings.getElasticsearch().getBulkSize(),
-                settings.getElasticsearch().getFlushInterval());
+        Path jobDir = config.resolve(settings.getName());
+        if (!Files.isDirectory(jobDir.resolve(DocumentStore.DIRNAME))) {
+            logger.warn("No document store found for job [{}]. Set fs.document_store and run the crawler first.",
+                    settings.getName());
+            return 0;
+        }
 
-        // Start the crawler thread
-        fsCrawlerThread = new Thread(new FSParser(settings), "fs-crawler");
-        fsCrawlerThread.start();
+        String target = index == null ? settings.getElasticsearch().getIndex() : index;
+        connect(target);
+
+        try (DocumentStore store = DocumentStore.open(jobDir)) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            logger.info("Replaying documents in [{}] with [{}] threads", target, threads);
+
+            // Documents are listed while they are replayed
+            BlockingQueue<Path> files = new ArrayBlockingQueue<>(threads * REPLAY_QUEUE_SIZE);
+            AtomicLong indexed = new AtomicLong();
+            AtomicLong failed = new AtomicLong();
+            BulkProcessor.Listener listener = new BulkProcessor.Listener() {
+                @Override
+                public void beforeBulk(long executionId, BulkRequest request) {
+                }
+
+                @Override
+                public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                    if (response.getItems() == null) {
+                        failed.addAndGet(request.numberOfActions());
+                        return;
+                    }
+                    for (BulkResponse.BulkItemTopLevelResponse item : response.getItems()) {
+                        if (item.getItemContent() == null || item.getItemContent().isFailed()) {
+                            failed.incrementAndGet();
+                        } else {
+                            indexed.incrementAndGet();
+                        }
+                    }
+                }
+
+                @Override
+                public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                    failed.addAndGet(request.numberOfActions());
+                }
+            };
+
+            AtomicInteger threadNumber = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(threads,
+                    runnable -> new Thread(runnable, "fs-replay-" + threadNumber.getAndIncrement()));
+            try {
+                List<Future<?>> workers = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    workers.add(executor.submit(() -> {
+                        // Each thread has its own bulk processor so we send bulk requests in parallel
+                        BulkProcessor processor = BulkProcessor.simpleBulkProcessor(client,
+                                settings.getElasticsearch().getBulkSize(), settings.getElasticsearch().getFlushInterval(),
+                                listener);
+                        try {
+                            Path file;
+                            while (!closed && (file = files.take()) != END_OF_REPLAY) {
+                                try {
+                                    DocumentStore.Document doc = store.read(file);
+                                    processor.add(new IndexRequest(target, doc.getType(), doc.getId()).source(doc.getJson()));
+                                } catch (IOException e) {
+                                    logger.warn("Can not read [{}] from the document store: {}", file, e.getMessage());
+                                    failed.incrementAndGet();
+                                }
+                            }
+                        } finally {
+                            processor.close();
+                        }
+                        return null;
+                    }));
+                }
+                try (Stream<Path> stored = store.list()) {
+                    for (Iterator<Path> it = stored.iterator(); it.hasNext() && !closed; ) {
+                        if (!offer(files, it.next(), workers)) {
+                            break;
+                        }
+                    }
+                } finally {
+                    for (int i = 0; i < threads; i++) {
+                        if (!offer(files, END_OF_REPLAY, workers)) {
+                            break;
+                        }
+                    }
+                }
+                for (Future<?> worker : workers) {
+                    worker.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            if (failed.get() > 0) {
+                logger.warn("[{}] documents have not been replayed in [{}]", failed.get(), target);
+            }
+            logger.info("[{}] documents replayed in [{}]", indexed.get(), target);
+            return indexed.get();
+        }
+    }
+
+    /**
+     * Give a document to the replay threads, unless they all stopped
+     * @return false if no thread is running anymore
+     */
+    private static boolean offer(BlockingQueue<Path> files, Path file, List<Future<?>> workers) throws InterruptedException {
+        while (!files.offer(file, 100, TimeUnit.MILLISECONDS)) {
+            if (workers.stream().allMatch(Future::isDone)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public void close() throws InterruptedException, IOException {
@@ -214,6 +447,14 @@ public class FsCrawlerImpl {
             semaphore.notify();
         }
 
+        if (this.directoryWatcher != null) {
+            this.directoryWatcher.close();
+        }
+
+        if (this.fsParser != null) {
+            this.fsParser.closePipeline();
+        }
+
         if (this.fsCrawlerThread != null) {
             while (fsCrawlerThread.isAlive()) {
                 // We check that the crawler has been closed effectively
@@ -223,10 +464,30 @@ public class FsCrawlerImpl {
             logger.debug("FS crawler thread is now stopped");
         }
 
+        if (this.walkerPool != null) {
+            this.walkerPool.shutdownNow();
+        }
+
+        if (this.parserProcesses != null) {
+            this.parserProcesses.close();
+        }
+
+        if (this.extractionCache != null) {
+            this.extractionCache.close();
+        }
+
         if (this.bulkProcessor != null) {
             this.bulkProcessor.close();
         }
 
+        if (this.fileStateStore != null) {
+            this.fileStateStore.close();
+        }
+
+        if (this.documentStore != null) {
+            this.documentStore.close();
+        }
+
         if (client != null) {
             client.shutdown();
         }
@@ -238,16 +499,165 @@ public class FsCrawlerImpl {
         return closed;
     }
 
+    /**
+     * A file going through the indexing steps: fetch, extract, serialize and bulk
+     */
+    private static class FileToIndex {
+        private final FileAbstractor path;
+        private final FileAbstractModel file;
+        private final String filepath;
+        // The directory this file belongs to in the crawl frontier. Null if we don't track it.
+        private String frontierDir;
+        private InputStream inputStream;
+        private String id;
+        private Doc doc;
+        private String json;
+
+        private FileToIndex(FileAbstractor path, FileAbstractModel file, String filepath) {
+            this.path = path;
+            this.file = file;
+            this.filepath = filepath;
+        }
+
+        @Override
+        public String toString() {
+            return file.fullpath;
+        }
+    }
+
+    /**
+     * What we need to remember about a file until elasticsearch acknowledged it
+     */
+    private static class IndexedFile {
+        private final String key;
+        private final String parent;
+        private final FileState state;
+        private final String frontierDir;
+
+        private IndexedFile(String key, String parent, FileState state, String frontierDir) {
+            this.key = key;
+            this.parent = parent;
+            this.state = state;
+            this.frontierDir = frontierDir;
+        }
+    }
+
+    /**
+     * A directory which has been fully crawled. Its state is stored at the end of the run.
+     */
+    private static class CrawledDirectory {
+        private final String path;
+        private final FileState state;
+        private final Collection<String> subdirs;
+
+        private CrawledDirectory(String path, FileState state, Collection<String> subdirs) {
+            this.path = path;
+            this.state = state;
+            this.subdirs = subdirs;
+        }
+    }
+
     private class FSParser implements Runnable {
         private final FsSettings fsSettings;
 
-        private ScanStatistic stats;
+        private volatile ScanStatistic stats;
+
+        // Directories crawled during the current run when prune_directories is enabled
+        private final Queue<CrawledDirectory> crawledDirectories = new ConcurrentLinkedQueue<>();
+
+        // Files sent to the bulk processor that elasticsearch did not acknowledge yet
+        private final Map<SingleBulkRequest, IndexedFile> unacknowledged = new ConcurrentHashMap<>();
+        // Number of actions elasticsearch failed to run because of a temporary error during the current run
+        private final AtomicLong rejected = new AtomicLong();
+        // Number of documents which took more than parse_timeout to extract during the current run
+        private final AtomicLong abandoned = new AtomicLong();
+
+        // What remains to do in the current run when checkpoint_interval is set
+        private final CrawlFrontier frontier;
+        private volatile long lastCheckpoint;
+        private volatile LocalDateTime runScanDate;
+        private volatile LocalDateTime runLastScanDate;
+        // Directories to crawl when breadth_first is set
+        private volatile DirectoryQueue directoryQueue;
+
+        // Indexing pipeline stages. They are null when the pipeline is disabled.
+        // When only parser_threads is set, extractStage is the pool of threads which index files.
+        private final PipelineStage<FileToIndex> fetchStage;
+        private final PipelineStage<FileToIndex> extractStage;
+        private final PipelineStage<FileToIndex> serializeStage;
+        private final PipelineStage<FileToIndex> bulkStage;
+        // Coalesce successive changes of the same file. Null when debounce is not set.
+        private final DebounceBuffer<String, FileToIndex> debounceBuffer;
+        // Compare checksums computed on the server before reading again files which only have a new date
+        private final boolean remoteChecksum;
 
         public FSParser(FsSettings fsSettings) {
             this.fsSettings = fsSettings;
+            this.remoteChecksum = fileStateStore != null && fsSettings.getServer() != null &&
+                    fsSettings.getServer().isRemoteChecksum();
             logger.debug("creating fs crawler thread [{}] for [{}] every [{}]", fsSettings.getName(),
                     fsSettings.getFs().getUrl(),
                     fsSettings.getFs().getUpdateRate());
+
+            if (fsSettings.getFs().isPipeline()) {
+                // Stages are created from the last one so each stage can feed the next one.
+                // A file which fails in a stage is done: it must not keep its directory checkpoint pending.
+                bulkStage = new PipelineStage<>("fs-bulk", 1, fsSettings.getFs().getBulkQueueSize(), this::bulk,
+                        this::fileDropped);
+                serializeStage = new PipelineStage<>("fs-serialize", fsSettings.getFs().getSerializeThreads(),
+                        fsSettings.getFs().getSerializeQueueSize(), file -> {
+                            try {
+                                serialize(file);
+                                submit(bulkStage, file);
+                            } catch (Exception e) {
+                                fileFailed(file, e);
+                            }
+                        }, this::fileDropped);
+                extractStage = new PipelineStage<>("fs-extract", fsSettings.getFs().getParserThreads(),
+                        fsSettings.getFs().getExtractQueueSize(), file -> {
+                            try {
+                                if (extract(file)) {
+                                    submit(serializeStage, file);
+                                } else {
+                                    fileDone(file);
+                                }
+                            } catch (Exception e) {
+                                fileFailed(file, e);
+                            }
+                        }, this::fileDropped);
+                fetchStage = new PipelineStage<>("fs-fetch", fsSettings.getFs().getFetchThreads(),
+                        fsSettings.getFs().getFetchQueueSize(), file -> {
+                            try {
+                                fetch(file);
+                                submit(extractStage, file);
+                            } catch (Exception e) {
+                                fileFailed(file, e);
+                            }
+                        }, this::fileDropped);
+            } else {
+                fetchStage = null;
+                serializeStage = null;
+                bulkStage = null;
+                if (fsSettings.getFs().getParserThreads() > 1) {
+                    // Each thread of the pool reads, parses and indexes a whole file
+                    extractStage = new PipelineStage<>("fs-extract", fsSettings.getFs().getParserThreads(),
+                            fsSettings.getFs().getExtractQueueSize(), this::indexFileNow, this::fileDropped);
+                } else {
+                    extractStage = null;
+                }
+            }
+
+            TimeValue checkpointInterval = fsSettings.getFs().getCheckpointInterval();
+            frontier = checkpointInterval != null && checkpointInterval.millis() > 0 ? new CrawlFrontier() : null;
+
+            TimeValue debounce = fsSettings.getFs().getDebounce();
+            // Only the changes notified by the watcher are debounced. Scans index what they find right away.
+            if (fsSettings.getFs().isWatch() && debounce != null && debounce.millis() > 0) {
+                debounceBuffer = new DebounceBuffer<>("fs-debounce", debounce.millis(),
+                        fsSettings.getFs().getDebounceMaxDelay().millis(), this::dispatchFile);
+            } else {
+                debounceBuffer = null;
+            }
         }
 
         @Override
@@ -263,6 +673,7 @@ public class FsCrawlerImpl {
 
                 int run = runNumber.incrementAndGet();
                 FileAbstractor path = null;
+                boolean resumable = false;
 
                 try {
                     logger.debug("Fs crawler thread [{}] is now running. Run #{}...", fsSettings.getName(), run);
@@ -278,8 +689,47 @@ public class FsCrawlerImpl {
                     String rootPathId = SignTool.sign(fsSettings.getFs().getUrl());
                     stats.setRootPathId(rootPathId);
 
+                    FsCheckpoint checkpoint = frontier != null ? getCheckpoint(fsSettings.getName()) : null;
+
+                    rejected.set(0);
+                    abandoned.set(0);
+
+                    if (fileStateStore != null) {
+                        // When we resume a run, what has already been crawled has been marked with its run number
+                        if (checkpoint == null) {
+                            fileStateStore.startRun();
+                        }
+                        crawledDirectories.clear();
+                    }
+
+                    // We start watching before the first scan so we don't miss any change
+                    if (fsSettings.getFs().isWatch() && directoryWatcher == null) {
+                        startWatcher();
+                    }
+
                     LocalDateTime scanDatenew = LocalDateTime.now();
                     LocalDateTime scanDate = getLastDateFromMeta(fsSettings.getName());
+                    Collection<String> roots = Collections.singletonList(fsSettings.getFs().getUrl());
+
+                    if (checkpoint != null) {
+                        logger.info("Resuming the last run of [{}]: [{}] directories already crawled, [{}] pending",
+                                fsSettings.getName(), checkpoint.getCompleted(), checkpoint.getPending().size());
+                        scanDatenew = checkpoint.getScanDate();
+                        scanDate = checkpoint.getLastrun();
+                        roots = CrawlFrontier.roots(checkpoint.getPending());
+                    }
+
+                    if (frontier != null) {
+                        runScanDate = scanDatenew;
+                        runLastScanDate = scanDate;
+                        frontier.clear();
+                        // The breadth first walker keeps the directories to crawl in its own queue
+                        if (!fsSettings.getFs().isBreadthFirst()) {
+                            roots.forEach(frontier::discovered);
+                        }
+                        lastCheckpoint = System.currentTimeMillis();
+                        resumable = true;
+                    }
 
                     // We only index the root directory once (first run)
                     // That means that we don't have a scanDate yet
@@ -287,12 +737,104 @@ public class FsCrawlerImpl {
                         indexRootDirectory(fsSettings.getFs().getUrl());
                     }
 
-                    addFilesRecursively(path, fsSettings.getFs().getUrl(), scanDate);
+                    if (fsSettings.getFs().isBreadthFirst()) {
+                        walkBreadthFirst(path, checkpoint, scanDate);
+                    } else {
+                        for (String root : roots) {
+                            if (walkerPool != null) {
+                                walkerPool.invoke(new DirectoryWalkerTask(path, root, scanDate));
+                            } else {
+                                addFilesRecursively(path, root, scanDate);
+                            }
+                        }
+                    }
+                    // Every directory of this run has been listed
+                    path.listingDone();
+
+                    // We wait for all the files of this run to be sent to the bulk processor
+                    awaitPipeline();
+
+                    if (closed && frontier != null) {
+                        // The run has been stopped. We will resume it next time.
+                        writeCheckpoint();
+                        logger.info("FS crawler has been stopped. The current run will be resumed on next start.");
+                        return;
+                    }
+
+                    // Nothing is committed for this run before elasticsearch acknowledged all the documents
+                    bulkProcessor.flush();
 
-                    updateFsJob(fsSettings.getName(), scanDatenew);
+                    if (extractionCache != null) {
+                        logger.debug("Extraction cache: [{}] hits, [{}] misses since start. [{}] entries using [{}] bytes.",
+                                extractionCache.getHits(), extractionCache.getMisses(), extractionCache.size(),
+                                extractionCache.getSize());
+                    }
+
+                    if (abandoned.get() > 0) {
+                        logger.warn("[{}] documents took more than [{}] to extract during this run and have been indexed " +
+                                "without their content. [{}] since start.", abandoned.get(), fsSettings.getFs().getParseTimeout(),
+                                parserProcesses == null ? ParseWatchdog.getTimeouts() : parserProcesses.getTimeouts());
+                    }
+                    if (parserProcesses == null && ParseWatchdog.getAbandonedWorkers() > 0) {
+                        logger.warn("[{}] abandoned Tika threads are still running. Consider using fs.parser_processes.",
+                                ParseWatchdog.getAbandonedWorkers());
+                    }
+
+                    if (fileStateStore != null) {
+                        // Directories can only be pruned once all their files have been indexed
+                        CrawledDirectory directory;
+                        while ((directory = crawledDirectories.poll()) != null) {
+                            if (rejected.get() == 0) {
+                                fileStateStore.putDirectory(directory.path, directory.state, directory.subdirs);
+                            }
+                        }
+                        if (fsSettings.getFs().isRemoveDeleted() && !closed) {
+                            removeDeletedFromState();
+                            bulkProcessor.flush();
+                        }
+                        fileStateStore.flush();
+                    }
+
+                    if (rejected.get() > 0) {
+                        logger.warn("[{}] documents could not be indexed because of a temporary error during this run. " +
+                                "Not updating the scan date so they will be indexed again on next run.", rejected.get());
+                        if (frontier != null) {
+                            // Directories with rejected files are still pending
+                            writeCheckpoint();
+                        }
+                    } else {
+                        updateFsJob(fsSettings.getName(), scanDatenew);
+
+                        if (frontier != null) {
+                            fsJobFileHandler.removeCheckpoint(fsSettings.getName());
+                            DirectoryQueue.removeSaved(config.resolve(fsSettings.getName()));
+                        }
+                    }
                 } catch (Exception e) {
                     logger.warn("Error while indexing content from {}", e, fsSettings.getFs().getUrl());
+                    // We will resume from here on next run
+                    if (resumable) {
+                        try {
+                            writeCheckpoint();
+                        } catch (IOException ioe) {
+                            logger.warn("Can not write checkpoint for [{}]: {}", fsSettings.getName(), ioe.getMessage());
+                        }
+                    }
                 } finally {
+                    // The pipeline might still need the file abstractor
+                    try {
+                        awaitPipeline();
+                    } catch (InterruptedException e) {
+                        logger.debug("Fs crawler thread has been interrupted: [{}]", e.getMessage());
+                    }
+                    if (directoryQueue != null) {
+                        try {
+                            directoryQueue.close();
+                        } catch (IOException e) {
+                            logger.warn("Error while closing the directory queue: {}", e.getMessage());
+                        }
+                        directoryQueue = null;
+                    }
                     if (path != null) {
                         try {
                             path.close();
@@ -315,7 +857,10 @@ public class FsCrawlerImpl {
                     // Which leads to Zombie threads in our tests
 
                     synchronized (semaphore) {
-                        semaphore.wait(fsSettings.getFs().getUpdateRate().millis());
+                        if (!rescan) {
+                            semaphore.wait(fsSettings.getFs().getUpdateRate().millis());
+                        }
+                        rescan = false;
                         logger.debug("Fs crawler is now waking up again...");
                     }
                 } catch (InterruptedException e) {
@@ -324,6 +869,196 @@ public class FsCrawlerImpl {
             }
         }
 
+        /**
+         * Start watching the local file system. The periodic scans still run to catch what we might miss.
+         */
+        private void startWatcher() throws IOException {
+            FileAbstractor watchAbstractor = new FileAbstractorFile(fsSettings);
+            directoryWatcher = new DirectoryWatcher(Paths.get(fsSettings.getFs().getUrl()),
+                    dir -> !FsCrawlerUtil.isExcluded(dir.getFileName().toString(), fsSettings.getFs().getExcludes()),
+                    new DirectoryWatcher.Listener() {
+                        @Override
+                        public void onFileChanged(Path file) throws Exception {
+                            if (!FsCrawlerUtil.isIndexable(file.getFileName().toString(),
+                                    fsSettings.getFs().getIncludes(), fsSettings.getFs().getExcludes())) {
+                                return;
+                            }
+                            FileAbstractModel model = watchAbstractor.getFile(file.toString());
+                            String filepath = toCrawlPath(file.getParent());
+                            if (model != null && model.file && isModified(model, filepath, null)) {
+                                logger.debug("[{}] has been modified", file);
+                                indexChangedFile(new FileToIndex(watchAbstractor, model, filepath));
+                                stats.addFile();
+                            }
+                        }
+
+                        @Override
+                        public void onDirectoryCreated(Path dir) throws Exception {
+                            logger.debug("[{}] has been created", dir);
+                            String dirpath = toCrawlPath(dir);
+                            if (frontier != null) {
+                                frontier.discovered(dirpath);
+                            }
+                            if (fsSettings.getFs().isIndexFolders()) {
+                                indexDirectory(stats, dir.getFileName().toString(), dirpath);
+                            }
+                            addFilesRecursively(watchAbstractor, dirpath, null);
+                        }
+
+                        @Override
+                        public void onDeleted(Path path, boolean directory) throws Exception {
+                            // No need to index a file which does not exist anymore
+                            if (debounceBuffer != null) {
+                                FileToIndex cancelled = debounceBuffer.cancel(path.toString());
+                                if (cancelled != null) {
+                                    fileDone(cancelled);
+                                }
+                            }
+                            if (!fsSettings.getFs().isRemoveDeleted()) {
+                                return;
+                            }
+                            if (directory) {
+                                // The next scan will find everything which has been removed
+                                logger.debug("[{}] has been removed. Asking for a new scan.", path);
+                                requestScan();
+                            } else if (FsCrawlerUtil.isIndexable(path.getFileName().toString(),
+                                    fsSettings.getFs().getIncludes(), fsSettings.getFs().getExcludes())) {
+                                logger.debug("[{}] has been removed", path);
+                                esDelete(fsSettings.getElasticsearch().getIndex(), fsSettings.getElasticsearch().getType(),
+                                        SignTool.sign(path.toString()));
+                                if (fileStateStore != null) {
+                                    fileStateStore.remove(path.toString());
+                                }
+                                stats.removeFile();
+                            }
+                        }
+
+                        @Override
+                        public void onOverflow() {
+                            logger.warn("Too many changes in [{}]. Asking for a new scan.", fsSettings.getFs().getUrl());
+                            requestScan();
+                        }
+                    });
+            directoryWatcher.start();
+        }
+
+        /**
+         * Generate the path of a directory like we do when we crawl it: the root directory is the url
+         * and subdirectories end with a separator
+         */
+        private String toCrawlPath(Path dir) {
+            if (dir.equals(Paths.get(fsSettings.getFs().getUrl()))) {
+                return fsSettings.getFs().getUrl();
+            }
+            return dir.toString().concat(File.separator);
+        }
+
+        /**
+         * Wake up the crawler thread so it runs a new scan
+         */
+        private void requestScan() {
+            synchronized (semaphore) {
+                rescan = true;
+                semaphore.notify();
+            }
+        }
+
+        /**
+         * Wait for every stage of the pipeline to be idle. Stages are checked in order as each stage
+         * only gives an item to the next one before marking it as processed.
+         */
+        private void awaitPipeline() throws InterruptedException {
+            if (debounceBuffer != null) {
+                debounceBuffer.flush();
+                logger.debug("[{}] changes received, [{}] collapsed, [{}] cancelled by the debounce buffer",
+                        debounceBuffer.getReceived(), debounceBuffer.getCollapsed(), debounceBuffer.getCancelled());
+            }
+            for (PipelineStage<FileToIndex> stage : Arrays.asList(fetchStage, extractStage, serializeStage, bulkStage)) {
+                if (stage != null) {
+                    stage.awaitIdle();
+                }
+            }
+        }
+
+        private void closePipeline() {
+            if (debounceBuffer != null) {
+                debounceBuffer.close();
+            }
+            for (PipelineStage<FileToIndex> stage : Arrays.asList(fetchStage, extractStage, serializeStage, bulkStage)) {
+                if (stage != null) {
+                    stage.close();
+                }
+            }
+        }
+
+        /**
+         * Read the checkpoint of a previous run which has not been completed
+         * @return null if there is no checkpoint or if we can not resume from it
+         */
+        private FsCheckpoint getCheckpoint(String jobName) throws IOException {
+            FsCheckpoint checkpoint;
+            try {
+                checkpoint = fsJobFileHandler.readCheckpoint(jobName);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+
+            if (!fsSettings.getFs().getUrl().equals(checkpoint.getUrl()) || checkpoint.getPending() == null
+                    || checkpoint.getScanDate() == null) {
+                logger.warn("Ignoring checkpoint for [{}] as it does not match the current settings", jobName);
+                return null;
+            }
+            // Files we crawled before have been marked as seen during the run of the checkpoint
+            if (fileStateStore != null && checkpoint.getStateRun() != fileStateStore.getRun()) {
+                logger.warn("Ignoring checkpoint for [{}] as it does not match the file state", jobName);
+                return null;
+            }
+            return checkpoint;
+        }
+
+        /**
+         * Write a checkpoint if the last one is too old
+         */
+        private void checkpointIfNeeded() {
+            long interval = fsSettings.getFs().getCheckpointInterval().millis();
+            if (System.currentTimeMillis() - lastCheckpoint < interval) {
+                return;
+            }
+            synchronized (frontier) {
+                if (System.currentTimeMillis() - lastCheckpoint < interval) {
+                    return;
+                }
+                lastCheckpoint = System.currentTimeMillis();
+                try {
+                    writeCheckpoint();
+                } catch (IOException e) {
+                    logger.warn("Can not write checkpoint for [{}]: {}", fsSettings.getName(), e.getMessage());
+                }
+            }
+        }
+
+        private void writeCheckpoint() throws IOException {
+            List<String> pending = frontier.getPending();
+            // Directories we did not crawl yet with the breadth first walker
+            DirectoryQueue queue = directoryQueue;
+            if (queue != null) {
+                queue.save();
+            }
+            // The file state must be at least as recent as the checkpoint
+            if (fileStateStore != null) {
+                fileStateStore.flush();
+            }
+            fsJobFileHandler.writeCheckpoint(fsSettings.getName(), FsCheckpoint.builder()
+                    .setUrl(fsSettings.getFs().getUrl())
+                    .setScanDate(runScanDate)
+                    .setLastrun(runLastScanDate)
+                    .setStateRun(fileStateStore != null ? fileStateStore.getRun() : 0)
+                    .setPending(pending)
+                    .setCompleted(frontier.getCompleted())
+                    .build());
+            logger.debug("Checkpoint written for [{}] with [{}] pending directories", fsSettings.getName(), pending.size());
+        }
+
         @SuppressWarnings("unchecked")
         private LocalDateTime getLastDateFromMeta(String jobName) throws IOException {
             try {
@@ -356,31 +1091,176 @@ public class FsCrawlerImpl {
         }
 
         private FileAbstractor buildFileAbstractor() throws Exception {
+            FileAbstractor<?> abstractor = null;
             // What is the protocol used?
             if (fsSettings.getServer() == null || PROTOCOL.LOCAL.equals(fsSettings.getServer().getProtocol())) {
                 // Local FS
-                return new FileAbstractorFile(fsSettings);
+                abstractor = new FileAbstractorFile(fsSettings);
             } else if (PROTOCOL.SSH.equals(fsSettings.getServer().getProtocol())) {
                 // Remote SSH FS
-                return new FileAbstractorSSH(fsSettings);
+                abstractor = new FileAbstractorSSH(fsSettings);
+            } else if (PROTOCOL.S3.equals(fsSettings.getServer().getProtocol())) {
+                // S3 compatible object store
+                abstractor = new FileAbstractorS3(fsSettings);
+            }
+
+            if (abstractor != null) {
+                // Archives are crawled like directories
+                return fsSettings.getFs().isExpandArchives() ? new FileAbstractorArchive(fsSettings, abstractor) : abstractor;
             }
 
             // Non supported protocol
             throw new RuntimeException(fsSettings.getServer().getProtocol() + " is not supported yet. Please use " +
-                    PROTOCOL.LOCAL + " or " + PROTOCOL.SSH);
+                    PROTOCOL.LOCAL + ", " + PROTOCOL.SSH + " or " + PROTOCOL.S3);
         }
 
         private void addFilesRecursively(FileAbstractor path, String filepath, LocalDateTime lastScanDate)
                 throws Exception {
+            for (String subdir : crawlAndTrack(path, filepath, lastScanDate)) {
+                addFilesRecursively(path, subdir, lastScanDate);
+            }
+        }
+
+        /**
+         * Crawl the tree level by level without recursion. Directories to crawl are kept in a queue which
+         * spills to the job directory, so the memory we use does not depend on the shape of the tree.
+         * @param checkpoint the checkpoint we resume from or null
+         */
+        private void walkBreadthFirst(FileAbstractor path, FsCheckpoint checkpoint, LocalDateTime lastScanDate)
+                throws Exception {
+            Path jobDir = config.resolve(fsSettings.getName());
+            boolean resume = checkpoint != null && DirectoryQueue.isSaved(jobDir);
+            directoryQueue = DirectoryQueue.open(jobDir, DIRECTORY_QUEUE_SIZE, resume);
+
+            if (resume) {
+                // Those directories have been crawled but not all their files have been indexed.
+                // Their subdirectories are already in the queue.
+                for (String dir : checkpoint.getPending()) {
+                    if (closed) {
+                        return;
+                    }
+                    frontier.discovered(dir);
+                    crawlDirectory(path, dir, lastScanDate);
+                    frontier.crawled(dir, Collections.emptyList());
+                }
+            } else if (checkpoint != null) {
+                // The checkpoint has been written by the recursive walker
+                for (String dir : CrawlFrontier.roots(checkpoint.getPending())) {
+                    directoryQueue.add(dir);
+                }
+            } else {
+                directoryQueue.add(fsSettings.getFs().getUrl());
+            }
+
+            String dir;
+            while (!closed && (dir = directoryQueue.peek()) != null) {
+                if (frontier != null) {
+                    frontier.discovered(dir);
+                }
+                for (String subdir : crawlDirectory(path, dir, lastScanDate)) {
+                    directoryQueue.add(subdir);
+                }
+                // We only remove the directory once its subdirectories are in the queue
+                directoryQueue.remove();
+                if (frontier != null) {
+                    frontier.crawled(dir, Collections.emptyList());
+                    checkpointIfNeeded();
+                }
+            }
+        }
+
+        /**
+         * Fork/Join task which crawls one directory and forks a new task per subdirectory.
+         * Idle walker threads steal pending directories from the busy ones.
+         */
+        private class DirectoryWalkerTask extends RecursiveAction {
+            private final FileAbstractor path;
+            private final String filepath;
+            private final LocalDateTime lastScanDate;
+
+            DirectoryWalkerTask(FileAbstractor path, String filepath, LocalDateTime lastScanDate) {
+                this.path = path;
+                this.filepath = filepath;
+                this.lastScanDate = lastScanDate;
+            }
+
+            @Override
+            protected void compute() {
+                if (closed) {
+                    return;
+                }
+
+                Collection<String> subdirs;
+                try {
+                    subdirs = crawlAndTrack(path, filepath, lastScanDate);
+                } catch (Exception e) {
+                    throw new RuntimeException("Error while crawling [" + filepath + "]", e);
+                }
+
+                List<DirectoryWalkerTask> tasks = new ArrayList<>(subdirs.size());
+                for (String subdir : subdirs) {
+                    tasks.add(new DirectoryWalkerTask(path, subdir, lastScanDate));
+                }
+                invokeAll(tasks);
+            }
+        }
+
+        /**
+         * Crawl a directory and keep track of what remains to do in the crawl frontier
+         */
+        private Collection<String> crawlAndTrack(FileAbstractor path, String filepath, LocalDateTime lastScanDate)
+                throws Exception {
+            Collection<String> subdirs = crawlDirectory(path, filepath, lastScanDate);
+            if (frontier != null) {
+                frontier.crawled(filepath, subdirs);
+                checkpointIfNeeded();
+            }
+            return subdirs;
+        }
+
+        /**
+         * Index the content of a single directory and remove from elasticsearch what has been deleted from it
+         * @return the subdirectories we still need to crawl
+         */
+        private Collection<String> crawlDirectory(FileAbstractor path, String filepath, LocalDateTime lastScanDate)
+                throws Exception {
+
+            // An archive is decompressed to be listed so we really want to skip it when it did not change
+            boolean archive = path instanceof FileAbstractorArchive && ((FileAbstractorArchive) path).isArchiveDirectory(filepath);
+            if (archive && fileStateStore == null && lastScanDate != null) {
+                FileAbstractModel file = path.getFile(filepath);
+                if (file != null && !file.lastModifiedDate.isAfter(lastScanDate)) {
+                    logger.debug("Archive [{}] has not changed since the last run. Skipping its entries.", filepath);
+                    return Collections.emptyList();
+                }
+            }
+
+            // When the directory has not changed since the last run, we don't need to read its content again
+            FileAbstractModel directory = null;
+            if (fileStateStore != null && (fsSettings.getFs().isPruneDirectories() || archive)) {
+                directory = path.getFile(filepath);
+                if (directory == null) {
+                    logger.debug("[{}] does not exist anymore", filepath);
+                    return Collections.emptyList();
+                }
+                Collection<String> subdirs = fileStateStore.prune(filepath, toMillis(directory.lastModifiedDate), directory.inode);
+                if (subdirs != null) {
+                    logger.debug("[{}] has not changed since the last run. Skipping its files.", filepath);
+                    return subdirs;
+                }
+            }
 
             logger.debug("indexing [{}] content", filepath);
 
-            final Collection<FileAbstractModel> children = path.getFiles(filepath);
             Collection<String> fsFiles = new ArrayList<>();
             Collection<String> fsFolders = new ArrayList<>();
+            Collection<String> subdirs = new ArrayList<>();
+            List<FileAbstractModel> checksumCandidates = new ArrayList<>();
 
-            if (children != null) {
-                for (FileAbstractModel child : children) {
+            // Children are read while we iterate so we never hold the whole directory in memory
+            try (Stream<FileAbstractModel> children = path.getFiles(filepath)) {
+                for (Iterator<FileAbstractModel> it = children.iterator(); it.hasNext(); ) {
+                    FileAbstractModel child = it.next();
                     String filename = child.name;
 
                     // https://github.com/dadoonet/fscrawler/issues/1 : Filter documents
@@ -397,11 +1277,14 @@ public class FsCrawlerImpl {
                         if (child.file) {
                             logger.debug("  - file: {}", filename);
                             fsFiles.add(filename);
-                            if (lastScanDate == null
-                                    || child.lastModifiedDate.isAfter(lastScanDate)
-                                    || (child.creationDate != null && child.creationDate.isAfter(lastScanDate))) {
-                                indexFile(child, stats, filepath, path.getInputStream(child), child.size);
-                                stats.addFile();
+                            if (isModified(child, filepath, lastScanDate)) {
+                                // The content of an archive entry can only be read while we list the archive
+                                if (remoteChecksum && !FileAbstractorArchive.isArchiveEntry(child)
+                                        && mayHaveSameContent(child, filepath)) {
+                                    checksumCandidates.add(child);
+                                } else {
+                                    submitFile(path, child, filepath);
+                                }
                             } else {
                                 logger.debug("    - not modified: creation date {} , file date {}, last scan date {}",
                                         child.creationDate, child.lastModifiedDate, lastScanDate);
@@ -412,7 +1295,12 @@ public class FsCrawlerImpl {
                                 fsFolders.add(filename);
                                 indexDirectory(stats, filename, child.fullpath.concat(File.separator));
                             }
-                            addFilesRecursively(path, child.fullpath.concat(File.separator), lastScanDate);
+                            // The directory state is only known once we have crawled its content
+                            if (fileStateStore != null && !fileStateStore.markSeen(child.fullpath.concat(File.separator))) {
+                                fileStateStore.put(child.fullpath.concat(File.separator), filepath,
+                                        new FileState(true, 0, 0, child.inode, 0));
+                            }
+                            subdirs.add(child.fullpath.concat(File.separator));
                         } else {
                             logger.debug("  - other: {}", filename);
                             logger.debug("Not a file nor a dir. Skipping {}", child.fullpath);
@@ -423,11 +1311,12 @@ public class FsCrawlerImpl {
                 }
             }
 
-            // TODO Optimize
-            // if (path.isDirectory() && path.lastModified() > lastScanDate
-            // && lastScanDate != 0) {
+            if (!checksumCandidates.isEmpty()) {
+                indexChangedContent(path, filepath, checksumCandidates);
+            }
 
-            if (fsSettings.getFs().isRemoveDeleted()) {
+            // When we have the file state, deleted files are removed at the end of the run
+            if (fsSettings.getFs().isRemoveDeleted() && fileStateStore == null) {
                 logger.debug("Looking for removed files in [{}]...", filepath);
                 Collection<String> esFiles = getFileDirectory(filepath);
 
@@ -462,6 +1351,109 @@ public class FsCrawlerImpl {
                     }
                 }
             }
+
+            if (directory != null) {
+                crawledDirectories.add(new CrawledDirectory(filepath, new FileState(true,
+                        toMillis(directory.lastModifiedDate), 0, directory.inode, 0),
+                        subdirs));
+            }
+
+            return subdirs;
+        }
+
+        private void submitFile(FileAbstractor path, FileAbstractModel child, String filepath) throws Exception {
+            FileToIndex file = new FileToIndex(path, child, filepath);
+            if (FileAbstractorArchive.isArchiveEntry(child)) {
+                // We must claim the entry before the listing moves to the next one. The listing then waits
+                // until the pipeline has read it.
+                file.inputStream = path.getInputStream(child);
+            }
+            if (frontier != null) {
+                frontier.fileSubmitted(filepath);
+                file.frontierDir = filepath;
+            }
+            dispatchFile(file);
+            stats.addFile();
+        }
+
+        /**
+         * A modified file which kept the same size might only have been touched. We can only tell by
+         * comparing its checksum with the one we indexed.
+         */
+        private boolean mayHaveSameContent(FileAbstractModel child, String filepath) {
+            FileState state = fileStateStore.get(new File(filepath, child.name).toString());
+            return state != null && state.getChecksum() != 0 && state.getSize() == child.size;
+        }
+
+        /**
+         * Compare the checksums computed where the files are stored with the ones we indexed. Files which
+         * did not change their content are not read again, we just remember their new state.
+         */
+        private void indexChangedContent(FileAbstractor path, String filepath, List<FileAbstractModel> files) throws Exception {
+            Map<String, String> checksums = null;
+            try {
+                checksums = path.getChecksums(files, fsSettings.getFs().getChecksum());
+            } catch (Exception e) {
+                logger.warn("Can not compute checksums of files in [{}]: {}", filepath, e.getMessage());
+                logger.debug("Full stack trace", e);
+            }
+
+            for (FileAbstractModel child : files) {
+                String fullpath = new File(filepath, child.name).toString();
+                String checksum = checksums == null ? null : checksums.get(child.fullpath);
+                FileState state = fileStateStore.get(fullpath);
+                if (checksum != null && state != null && state.getChecksum() == FileState.fingerprint(checksum)) {
+                    logger.debug("    - content not modified: {}", fullpath);
+                    fileStateStore.put(fullpath, filepath, new FileState(false, toMillis(child.lastModifiedDate),
+                            child.size, child.inode, state.getChecksum()));
+                } else {
+                    submitFile(path, child, filepath);
+                }
+            }
+        }
+
+        /**
+         * Check if a file changed since the last run. When the file state is enabled, we compare the
+         * modification date, the size and the file key with the ones we stored when we indexed the file.
+         * Otherwise we compare the file dates with the last scan date.
+         */
+        private boolean isModified(FileAbstractModel child, String filepath, LocalDateTime lastScanDate) {
+            if (fileStateStore != null) {
+                String fullpath = new File(filepath, child.name).toString();
+                FileState state = fileStateStore.get(fullpath);
+                if (state == null) {
+                    return true;
+                }
+                // The file still exists even if we fail to index it again
+                fileStateStore.markSeen(fullpath);
+                return state.isModified(toMillis(child.lastModifiedDate), child.size, child.inode);
+            }
+
+            return lastScanDate == null
+                    || child.lastModifiedDate.isAfter(lastScanDate)
+                    || (child.creationDate != null && child.creationDate.isAfter(lastScanDate));
+        }
+
+        /**
+         * Remove from elasticsearch every file and directory we did not see during this run.
+         * This must only be called when the whole tree has been crawled successfully.
+         */
+        private void removeDeletedFromState() throws IOException {
+            logger.debug("Looking for removed files in the file state...");
+            long removed = fileStateStore.removeUnseen((key, state) -> {
+                String id = SignTool.toHex(key);
+                if (state.isDirectory()) {
+                    if (fsSettings.getFs().isIndexFolders()) {
+                        logger.trace("Removing directory [{}] in elasticsearch", id);
+                        esDelete(fsSettings.getElasticsearch().getIndex(), FsCrawlerUtil.INDEX_TYPE_FOLDER, id);
+                    }
+                } else {
+                    logger.trace("Removing file [{}] in elasticsearch", id);
+                    esDelete(fsSettings.getElasticsearch().getIndex(), fsSettings.getElasticsearch().getType(), id);
+                    stats.removeFile();
+                }
+            });
+            logger.debug("[{}] files and directories removed", removed);
         }
 
         // TODO Optimize it. We can probably use a search for a big array of filenames instead of
@@ -548,45 +1540,124 @@ public class FsCrawlerImpl {
         }
 
         /**
-         * Index a file
+         * Index a file the watcher told us about. When debounce is set, we wait for the file to stop changing first.
+         */
+        private void indexChangedFile(FileToIndex file) throws Exception {
+            if (debounceBuffer != null) {
+                FileToIndex replaced = debounceBuffer.submit(new File(file.filepath, file.file.name).toString(), file);
+                if (replaced != null) {
+                    fileDone(replaced);
+                }
+            } else {
+                dispatchFile(file);
+            }
+        }
+
+        /**
+         * Index a file, either directly or by sending it to the indexing pipeline
+         */
+        private void dispatchFile(FileToIndex file) throws Exception {
+            if (fetchStage != null) {
+                submit(fetchStage, file);
+            } else if (extractStage != null) {
+                submit(extractStage, file);
+            } else {
+                indexFileNow(file);
+            }
+        }
+
+        /**
+         * Send a file to a stage of the pipeline. If the stage does not take it, we are done with the file.
+         * When interrupted, the thread keeps its interrupted status.
+         */
+        private void submit(PipelineStage<FileToIndex> stage, FileToIndex file) {
+            boolean submitted = false;
+            try {
+                submitted = stage.submit(file);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.debug("Indexing of [{}] has been interrupted", file);
+            }
+            if (!submitted) {
+                closeInputStream(file);
+                fileDone(file);
+            }
+        }
+
+        /**
+         * Read, parse and index a file in the current thread
+         */
+        private void indexFileNow(FileToIndex file) {
+            try {
+                fetch(file);
+                if (extract(file)) {
+                    serialize(file);
+                    bulk(file);
+                } else {
+                    fileDone(file);
+                }
+            } catch (Exception e) {
+                fileFailed(file, e);
+            }
+        }
+
+        /**
+         * A file could not be indexed. We release its content and we are done with it.
+         */
+        private void fileFailed(FileToIndex file, Exception e) {
+            logger.warn("Error while indexing [{}]: {}", file, e.getMessage());
+            logger.debug("Full stack trace", e);
+            closeInputStream(file);
+            fileDone(file);
+        }
+
+        /**
+         * A file waiting in the pipeline when it has been closed
+         */
+        private void fileDropped(FileToIndex file) {
+            logger.debug("[{}] has not been indexed as the crawler is closing", file);
+            closeInputStream(file);
+            fileDone(file);
+        }
+
+        private void closeInputStream(FileToIndex file) {
+            if (file.inputStream != null) {
+                try {
+                    file.inputStream.close();
+                } catch (IOException e) {
+                    logger.debug("Can not close [{}]: {}", file, e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Open the file content
          */
-        private void indexFile(FileAbstractModel fileAbstractModel, ScanStatistic stats, String filepath, InputStream inputStream,
-                               long filesize) throws Exception {
+        private void fetch(FileToIndex file) throws Exception {
+            if (file.inputStream != null) {
+                // Already opened while listing
+                return;
+            }
+            logger.debug("fetching content from [{}],[{}]", file.filepath, file.file.name);
+            file.inputStream = file.path.getInputStream(file.file);
+        }
+
+        /**
+         * Generate the document from the file content and its metadata
+         * @return false if the document could not be generated
+         */
+        private boolean extract(FileToIndex file) throws Exception {
+            final FileAbstractModel fileAbstractModel = file.file;
+            final String filepath = file.filepath;
+            final InputStream inputStream = file.inputStream;
             final String filename = fileAbstractModel.name;
             final LocalDateTime lastmodified = fileAbstractModel.lastModifiedDate;
             final long size = fileAbstractModel.size;
 
-            logger.debug("fetching content from [{}],[{}]", filepath, filename);
-
             try {
                 // Create the Doc object
                 Doc doc = new Doc();
 
-/*
-                if (fsSettings.getFs().isIndexContent()) {
-                    if (fsSettings.getFs().isJsonSupport()) {
-                        // https://github.com/dadoonet/fscrawler/issues/5 : Support JSon files
-                        Gson gson = new Gson();
-                        JsonObject json = gson.fromJson(read(inputStream), JsonObject.class);
-                        JsonObject path = new JsonObject();
-
-                        path.addProperty("root", stats.getRootPathId());
-                        path.addProperty("real",(new File(filepath, filename)).toString());
-                        path.addProperty("encoded",SignTool.sign(filepath));
-                        json.add("path",path);
-
-                        JsonObject file = new JsonObject();
-                        file.addProperty("filename", filename);
-                        file.addProperty("last_modified", lastmodified.toString());
-                        file.addProperty("indexing_date",Instant.now().toString());
-                        file.addProperty("url","file://" + (new File(filepath, filename)).toString());
-                        if (fsSettings.getFs().isAddFilesize()) {
-                            file.addProperty("filesize",size);
-                        }
-
-                        json.add("file",file);
-
-*/
                 String id = SignTool.sign((new File(filepath, filename)).toString());
                 if (fsSettings.getFs().isIndexContent()) {
                     if (fsSettings.getFs().isJsonSupport()) {
@@ -602,7 +1673,12 @@ public class FsCrawlerImpl {
 
                     } else {
                         // Extracting content with Tika
-                        generate(fsSettings, inputStream, filename, doc, messageDigest, filesize);
+                        if (!generate(fsSettings, inputStream, filename, doc,
+                                messageDigest == null ? null : messageDigest.get(), size, parserProcesses, extractionCache)) {
+                            abandoned.incrementAndGet();
+                            logger.warn("Extraction of [{}] took more than [{}]. Indexing it without its content.",
+                                    new File(filepath, filename), fsSettings.getFs().getParseTimeout());
+                        }
 
                     }
                 }
@@ -631,23 +1707,132 @@ public class FsCrawlerImpl {
                 }
                 // Attributes
 
+                file.id = id;
+                file.doc = doc;
+                return true;
+            } catch (Exception e) {
+                logger.warn("Error while extracting content from [{}]: {}", file, e.getMessage());
+                logger.debug("Full stack trace", e);
+                return false;
+            } finally {
+                // Let's close the stream
+                inputStream.close();
+            }
+        }
+
+        /**
+         * Generate the JSon document
+         */
+        private void serialize(FileToIndex file) throws Exception {
+            file.json = DocParser.toJson(file.doc);
+        }
 
-                // We index
-                esIndex(fsSettings.getElasticsearch().getIndex(),
-                        fsSettings.getElasticsearch().getType(),
-                        id,
-                        doc);
+        /**
+         * Send the JSon document to the bulk processor. The file is done once elasticsearch acknowledged it.
+         */
+        private void bulk(FileToIndex file) {
+            FileState state = null;
+            if (fileStateStore != null) {
+                state = new FileState(false, toMillis(file.file.lastModifiedDate), file.file.size, file.file.inode,
+                        FileState.fingerprint(file.doc.getFile().getChecksum()));
+            }
+            IndexedFile indexed = new IndexedFile(new File(file.filepath, file.file.name).toString(), file.filepath,
+                    state, file.frontierDir);
+
+            IndexRequest request = new IndexRequest(fsSettings.getElasticsearch().getIndex(),
+                    fsSettings.getElasticsearch().getType(), file.id).source(file.json);
+            unacknowledged.put(request, indexed);
+            if (!esIndex(request)) {
+                unacknowledged.remove(request);
+            }
+        }
 
+        /**
+         * Elasticsearch answered for a document we sent
+         * @param request the document
+         * @param indexed true if it has been indexed or removed
+         * @param retry true if it failed because of a temporary error so it must be sent again on next run
+         */
+        private void acknowledged(SingleBulkRequest request, boolean indexed, boolean retry) {
+            if (retry) {
+                rejected.incrementAndGet();
+            } else if (indexed && documentStore != null) {
+                // We only keep what elasticsearch has
+                if (request instanceof IndexRequest) {
+                    documentStore.put(request.getType(), request.getId(), ((IndexRequest) request).content());
+                } else if (request instanceof DeleteRequest) {
+                    documentStore.remove(request.getType(), request.getId());
+                }
             }
-            catch (Exception e){
-                System.out.println(e.getStackTrace().toString());
+            IndexedFile file = unacknowledged.remove(request);
+            // We don't commit anything for a file we have to send again. A file elasticsearch will never accept
+            // is committed so it is only sent again once it changes.
+            if (file == null || retry) {
+                return;
             }
-            finally {
-                // Let's close the stream
-                inputStream.close();
+            if (file.state != null) {
+                try {
+                    fileStateStore.put(file.key, file.parent, file.state);
+                } catch (IOException e) {
+                    logger.warn("Can not update the file state for [{}]: {}", file.key, e.getMessage());
+                }
+            }
+            if (frontier != null && file.frontierDir != null) {
+                frontier.fileDone(file.frontierDir);
+            }
+        }
+
+        /**
+         * Keep track of what elasticsearch acknowledged
+         */
+        class BulkListener implements BulkProcessor.Listener {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                // Items are in the same order as the requests
+                BulkResponse.BulkItemTopLevelResponse[] items = response.getItems();
+                List<SingleBulkRequest> requests = request.getRequests();
+                for (int i = 0; i < requests.size(); i++) {
+                    BulkResponse.BulkItemResponse item = items == null || i >= items.length ? null :
+                            items[i].getItemContent();
+                    if (item == null) {
+                        // No answer for this document: we will try again
+                        acknowledged(requests.get(i), false, true);
+                    } else if (item.isFailed() && !item.isRetryable()) {
+                        logger.warn("Elasticsearch rejected [{}] with status [{}]: {}. It won't be sent again until it changes.",
+                                requests.get(i).getId(), item.getStatus(), item.getFailureMessage());
+                        acknowledged(requests.get(i), false, false);
+                    } else {
+                        acknowledged(requests.get(i), !item.isFailed(), item.isFailed());
+                    }
+                }
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                // Elasticsearch is not reachable: we will try again
+                for (SingleBulkRequest single : request.getRequests()) {
+                    acknowledged(single, false, true);
+                }
             }
         }
 
+        /**
+         * We are done with a file, whether it has been indexed or not
+         */
+        private void fileDone(FileToIndex file) {
+            if (frontier != null && file.frontierDir != null) {
+                frontier.fileDone(file.frontierDir);
+            }
+        }
+
+        private long toMillis(LocalDateTime date) {
+            return date.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+
         private String generateIdFromFilename(String filename, String filepath) throws NoSuchAlgorithmException {
             String id;
             if (fsSettings.getFs().isFilenameAsId()) {
@@ -735,14 +1920,6 @@ public class FsCrawlerImpl {
 
         }
 
-        /**
-         * Add to bulk an IndexRequest
-         */
-        private void esIndex(String index, String type, String id,
-                             Doc doc) throws Exception {
-            esIndex(index, type, id, DocParser.toJson(doc));
-        }
-
         private void esIndex(String index, String type, String id, fr.pilato.elasticsearch.crawler.fs.meta.doc.Path path)
                 throws Exception {
             esIndex(index, type, id, PathParser.toJson(path));
@@ -752,14 +1929,24 @@ public class FsCrawlerImpl {
          * Add to bulk an IndexRequest in JSon format
          */
         private void esIndex(String index, String type, String id, String json) {
-            logger.debug("Indexing in ES " + index + ", " + type + ", " + id);
-            logger.trace("JSon indexed : {}", json);
+            esIndex(new IndexRequest(index, type, id).source(json));
+        }
+
+        /**
+         * Add to bulk an IndexRequest
+         * @return false if the request has been ignored
+         */
+        private boolean esIndex(IndexRequest request) {
+            logger.debug("Indexing in ES " + request.getIndex() + ", " + request.getType() + ", " + request.getId());
+            logger.trace("JSon indexed : {}", request.content());
 
             if (!closed) {
-                bulkProcessor.add(new IndexRequest(index, type, id).source(json));
-            } else {
-                logger.warn("trying to add new file while closing crawler. Document [{}]/[{}]/[{}] has been ignored", index, type, id);
+                bulkProcessor.add(request);
+                return true;
             }
+            logger.warn("trying to add new file while closing crawler. Document [{}]/[{}]/[{}] has been ignored",
+                    request.getIndex(), request.getType(), request.getId());
+            return false;
         }
 
         /**
@@ -19,7 +19,9 @@
 
 package fr.pilato.elasticsearch.crawler.fs;
 
+import fr.pilato.elasticsearch.crawler.fs.FsCrawlerImpl.LISTING;
 import fr.pilato.elasticsearch.crawler.fs.FsCrawlerImpl.PROTOCOL;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.RemoteChecksum;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Elasticsearch;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
@@ -28,6 +30,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
 
 import static fr.pilato.elasticsearch.crawler.fs.FsCrawlerImpl.hasText;
 
@@ -60,10 +63,18 @@ public class FsCrawlerValidator {
         // Checking protocol
         if (settings.getServer() != null) {
             if (!PROTOCOL.LOCAL.equals(settings.getServer().getProtocol()) &&
-                    !PROTOCOL.SSH.equals(settings.getServer().getProtocol())) {
+                    !PROTOCOL.SSH.equals(settings.getServer().getProtocol()) &&
+                    !PROTOCOL.S3.equals(settings.getServer().getProtocol())) {
                 // Non supported protocol
                 logger.error(settings.getServer().getProtocol() + " is not supported yet. Please use " +
-                        PROTOCOL.LOCAL + " or " + PROTOCOL.SSH + ". Disabling crawler");
+                        PROTOCOL.LOCAL + ", " + PROTOCOL.SSH + " or " + PROTOCOL.S3 + ". Disabling crawler");
+                return true;
+            }
+
+            // With S3, the url is /bucket/prefix
+            if (PROTOCOL.S3.equals(settings.getServer().getProtocol()) &&
+                    !settings.getFs().getUrl().replace('\\', '/').matches("/+[^/]+.*")) {
+                logger.error("When using S3, url must start with the bucket name like /bucket/prefix. Disabling crawler");
                 return true;
             }
 
@@ -74,6 +85,57 @@ public class FsCrawlerValidator {
                 logger.error("When using SSH, you need to set a username and probably a password or a pem file. Disabling crawler");
                 return true;
             }
+
+            // Settings written before max_channels existed don't have it
+            if (settings.getServer().getMaxChannels() < 1) {
+                logger.debug("max_channels is not set. Using [1].");
+                settings.getServer().setMaxChannels(1);
+            }
+
+            if (settings.getServer().getListing() == null) {
+                settings.getServer().setListing(LISTING.SFTP);
+            } else if (!LISTING.SFTP.equals(settings.getServer().getListing()) &&
+                    !LISTING.FIND.equals(settings.getServer().getListing())) {
+                logger.warn("listing [{}] is not supported. Please use [{}] or [{}]. Falling back to [{}].",
+                        settings.getServer().getListing(), LISTING.SFTP, LISTING.FIND, LISTING.SFTP);
+                settings.getServer().setListing(LISTING.SFTP);
+            }
+
+            if (settings.getServer().isRemoteChecksum()) {
+                if (!PROTOCOL.SSH.equals(settings.getServer().getProtocol())) {
+                    logger.warn("remote_checksum is only supported when using SSH. Falling back to [false].");
+                    settings.getServer().setRemoteChecksum(false);
+                } else if (RemoteChecksum.program(settings.getFs().getChecksum()) == null) {
+                    logger.warn("remote_checksum can not compute [{}] checksums. Falling back to [false].",
+                            settings.getFs().getChecksum());
+                    settings.getServer().setRemoteChecksum(false);
+                } else if (!settings.getFs().isFileState()) {
+                    // We need to remember the checksum of the files we indexed
+                    logger.warn("remote_checksum requires file_state. Enabling file_state.");
+                    settings.getFs().setFileState(true);
+                }
+            }
+
+            // Each walker thread needs its own SSH channel
+            if (PROTOCOL.SSH.equals(settings.getServer().getProtocol()) &&
+                    settings.getFs().getWalkerThreads() > settings.getServer().getMaxChannels()) {
+                logger.warn("walker_threads can not be greater than max_channels when using SSH. Falling back to [{}].",
+                        settings.getServer().getMaxChannels());
+                settings.getFs().setWalkerThreads(settings.getServer().getMaxChannels());
+            }
+
+            // We can only watch local file systems
+            if (!PROTOCOL.LOCAL.equals(settings.getServer().getProtocol()) && settings.getFs().isWatch()) {
+                logger.warn("watch is not supported when using {}. Falling back to [false].",
+                        settings.getServer().getProtocol().toUpperCase(Locale.ROOT));
+                settings.getFs().setWatch(false);
+            }
+        }
+
+        // The watcher would index a changed archive as a single document while scans index its entries
+        if (settings.getFs().isWatch() && settings.getFs().isExpandArchives()) {
+            logger.warn("watch is not supported with expand_archives. Falling back to [false].");
+            settings.getFs().setWatch(false);
         }
 
         // Checking Checksum Algorithm
@@ -93,6 +155,97 @@ public class FsCrawlerValidator {
             return true;
         }
 
+        // The breadth first walker uses a single thread
+        if (settings.getFs().isBreadthFirst() && settings.getFs().getWalkerThreads() > 1) {
+            logger.warn("walker_threads is not supported with breadth_first. Falling back to [1].");
+            settings.getFs().setWalkerThreads(1);
+        }
+
+        // Directories can only be pruned if we remember their state
+        if (settings.getFs().isPruneDirectories() && !settings.getFs().isFileState()) {
+            logger.warn("prune_directories requires file_state. Enabling file_state.");
+            settings.getFs().setFileState(true);
+        }
+
+        // Checking debounce settings
+        if (settings.getFs().getDebounce() != null && settings.getFs().getDebounceMaxDelay() == null) {
+            settings.getFs().setDebounceMaxDelay(Fs.DEFAULT_DEBOUNCE_MAX_DELAY);
+        }
+
+        // Checking extraction timeout
+        if (settings.getFs().getParseTimeout() != null && settings.getFs().getParseTimeout().millis() <= 0) {
+            logger.warn("parse_timeout must be positive. Disabling it.");
+            settings.getFs().setParseTimeout(null);
+        }
+
+        // Checking parser processes
+        if (settings.getFs().getParserProcesses() < 0) {
+            logger.warn("parser_processes can not be negative. Parsing documents in the crawler process.");
+            settings.getFs().setParserProcesses(0);
+        }
+        if (settings.getFs().getParserProcesses() > 0) {
+            if (settings.getFs().getParserProcessHeap() == null ||
+                    !settings.getFs().getParserProcessHeap().matches("\\d+[kKmMgG]?")) {
+                logger.warn("parser_process_heap [{}] is not a valid heap size. Falling back to default: [{}].",
+                        settings.getFs().getParserProcessHeap(), Fs.DEFAULT_PARSER_PROCESS_HEAP);
+                settings.getFs().setParserProcessHeap(Fs.DEFAULT_PARSER_PROCESS_HEAP);
+            }
+            // Each parser thread uses one process at a time
+            if (settings.getFs().getParserThreads() < settings.getFs().getParserProcesses()) {
+                logger.debug("Using [{}] parser threads for [{}] parser processes", settings.getFs().getParserProcesses(),
+                        settings.getFs().getParserProcesses());
+                settings.getFs().setParserThreads(settings.getFs().getParserProcesses());
+            }
+        }
+
+        // Checking extraction cache
+        if (settings.getFs().isExtractionCache()) {
+            if (settings.getFs().getChecksum() == null) {
+                logger.warn("extraction_cache requires checksum. Using [SHA-256].");
+                settings.getFs().setChecksum("SHA-256");
+            }
+            if (settings.getFs().getExtractionCacheSize() == null || settings.getFs().getExtractionCacheSize().bytes() <= 0) {
+                logger.warn("extraction_cache_size must be positive. Falling back to default: [{}].",
+                        Fs.DEFAULT_EXTRACTION_CACHE_SIZE);
+                settings.getFs().setExtractionCacheSize(Fs.DEFAULT_EXTRACTION_CACHE_SIZE);
+            }
+        }
+
+        // Checking pipeline settings
+        if (settings.getFs().getParserThreads() <= 0) {
+            logger.warn("parser_threads must be positive. Falling back to [1].");
+            settings.getFs().setParserThreads(1);
+        }
+        if (settings.getFs().isPipeline() || settings.getFs().getParserThreads() > 1) {
+            if (settings.getFs().getQueueSize() <= 0) {
+                logger.warn("queue_size must be positive. Falling back to default: [{}].", Fs.DEFAULT_QUEUE_SIZE);
+                settings.getFs().setQueueSize(Fs.DEFAULT_QUEUE_SIZE);
+            }
+            // Stages without their own queue size use queue_size
+            if (settings.getFs().getExtractQueueSize() <= 0) {
+                settings.getFs().setExtractQueueSize(settings.getFs().getQueueSize());
+            }
+        }
+        if (settings.getFs().isPipeline()) {
+            if (settings.getFs().getFetchThreads() <= 0) {
+                logger.warn("fetch_threads must be positive. Falling back to [1].");
+                settings.getFs().setFetchThreads(1);
+            }
+            if (settings.getFs().getSerializeThreads() <= 0) {
+                logger.warn("serialize_threads must be positive. Falling back to [1].");
+                settings.getFs().setSerializeThreads(1);
+            }
+            if (settings.getFs().getFetchQueueSize() <= 0) {
+                settings.getFs().setFetchQueueSize(settings.getFs().getQueueSize());
+            }
+            if (settings.getFs().getSerializeQueueSize() <= 0) {
+                settings.getFs().setSerializeQueueSize(settings.getFs().getQueueSize());
+            }
+            if (settings.getFs().getBulkQueueSize() <= 0) {
+                settings.getFs().setBulkQueueSize(settings.getFs().getQueueSize());
+            }
+        }
+
         // We just warn the user if he is running on windows but want to get attributes
         if (OsValidator.windows && settings.getFs().isAttributesSupport()) {
             logger.info("attributes_support is set to true but getting group is not available on [{}].", OsValidator.OS);
@@ -34,9 +34,15 @@ public class SignTool {
         MessageDigest md = MessageDigest.getInstance("MD5");
         md.update(toSign.getBytes());
 
+        return toHex(md.digest());
+    }
+
+    /**
+     * Generate the signature from an already computed MD5 digest
+     */
+    public static String toHex(byte[] digest) {
         String key = "";
-        byte b[] = md.digest();
-        for (byte aB : b) {
+        for (byte aB : digest) {
             long t = aB < 0 ? 256 + aB : aB;
             key += Long.toHexString(t);
         }
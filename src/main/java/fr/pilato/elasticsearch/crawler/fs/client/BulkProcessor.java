@@ -118,13 +118,21 @@ public class BulkProcessor {
         }
     }
 
-    private void executeWhenNeeded() {
+    private synchronized void executeWhenNeeded() {
         ensureOpen();
         if (bulkRequest.numberOfActions() > 0) {
             execute();
         }
     }
 
+    /**
+     * Execute the pending actions now. When this method returns, the listener has been
+     * called for every action added before.
+     */
+    public void flush() {
+        executeWhenNeeded();
+    }
+
     private void execute() {
         final BulkRequest bulkRequest = this.bulkRequest;
         this.bulkRequest = new BulkRequest();
@@ -195,10 +203,26 @@ public class BulkProcessor {
      * @return a bulk processor
      */
     public static BulkProcessor simpleBulkProcessor(ElasticsearchClient client, int bulkSize, TimeValue flushInterval) {
+        return simpleBulkProcessor(client, bulkSize, flushInterval, null);
+    }
+
+    /**
+     * Build an simple elasticsearch bulk processor
+     * @param client elasticsearch client
+     * @param bulkSize bulk size
+     * @param flushInterval flush interval in milliseconds
+     * @param listener listener called after each bulk, once it has been logged. Can be null.
+     * @return a bulk processor
+     */
+    public static BulkProcessor simpleBulkProcessor(ElasticsearchClient client, int bulkSize, TimeValue flushInterval,
+                                                    Listener listener) {
         return builder(client, new Listener() {
             @Override
             public void beforeBulk(long executionId, BulkRequest request) {
                 logger.debug("Going to execute new bulk composed of {} actions", request.numberOfActions());
+                if (listener != null) {
+                    listener.beforeBulk(executionId, request);
+                }
             }
 
             @Override
@@ -216,11 +240,17 @@ public class BulkProcessor {
                         }
                     }
                 }
+                if (listener != null) {
+                    listener.afterBulk(executionId, request, response);
+                }
             }
 
             @Override
             public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
                 logger.warn("Error executing bulk", failure);
+                if (listener != null) {
+                    listener.afterBulk(executionId, request, failure);
+                }
             }
         })
                 .setBulkActions(bulkSize)
@@ -24,6 +24,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.Arrays;
+import java.util.Map;
 
 public class BulkResponse {
 
@@ -110,11 +111,20 @@ public class BulkResponse {
         private String id;
         private String opType;
         private String failureMessage;
+        private int status;
 
         public boolean isFailed() {
             return failed;
         }
 
+        /**
+         * A failed action can be sent again when elasticsearch was too busy (429) or had an internal error (5xx).
+         * Other failures, like a mapping conflict, will fail again until the document changes.
+         */
+        public boolean isRetryable() {
+            return failed && (status == 429 || status >= 500);
+        }
+
         public String getIndex() {
             return index;
         }
@@ -135,6 +145,10 @@ public class BulkResponse {
             return failureMessage;
         }
 
+        public int getStatus() {
+            return status;
+        }
+
         public void setFailed(boolean failed) {
             this.failed = failed;
         }
@@ -159,6 +173,19 @@ public class BulkResponse {
             this.failureMessage = failureMessage;
         }
 
+        public void setStatus(int status) {
+            this.status = status;
+        }
+
+        /**
+         * Elasticsearch sends an error object when an action failed
+         */
+        @JsonProperty("error")
+        public void setError(Map<String, Object> error) {
+            this.failed = error != null;
+            this.failureMessage = error == null ? null : error.get("type") + ": " + error.get("reason");
+        }
+
         @Override
         public String toString() {
             final StringBuilder sb = new StringBuilder("BulkItemResponse{");
@@ -167,6 +194,7 @@ public class BulkResponse {
             sb.append(", type='").append(type).append('\'');
             sb.append(", id='").append(id).append('\'');
             sb.append(", opType=").append(opType);
+            sb.append(", status=").append(status);
             sb.append(", failureMessage='").append(failureMessage).append('\'');
             sb.append('}');
             return sb.toString();
@@ -50,6 +50,7 @@ public class FileAbstractModel {
     public String path;
     public String fullpath;
     public long size;
+    public long inode;
     public String owner;
     public String group;
 
@@ -66,6 +67,7 @@ public class FileAbstractModel {
         sb.append(", group='").append(group).append('\'');
         sb.append(", fullpath='").append(fullpath).append('\'');
         sb.append(", size=").append(size);
+        sb.append(", inode=").append(inode);
         sb.append('}');
         return sb.toString();
     }
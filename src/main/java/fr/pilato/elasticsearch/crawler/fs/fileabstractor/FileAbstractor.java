@@ -25,6 +25,8 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.Map;
+import java.util.stream.Stream;
 
 public abstract class FileAbstractor<T> {
     protected static final Logger logger = LogManager.getLogger(FileAbstractor.class);
@@ -35,10 +37,38 @@ public abstract class FileAbstractor<T> {
 
     public abstract InputStream getInputStream(FileAbstractModel file) throws Exception;
 
-    public abstract Collection<FileAbstractModel> getFiles(String dir) throws Exception;
+    /**
+     * List the content of a directory. Entries are read while the stream is consumed when the
+     * implementation allows it, so a huge directory does not need to fit in memory.
+     * The stream must be closed once consumed.
+     */
+    public abstract Stream<FileAbstractModel> getFiles(String dir) throws Exception;
+
+    /**
+     * Read the metadata of a single file or directory
+     * @return null if it does not exist
+     */
+    public abstract FileAbstractModel getFile(String path) throws Exception;
 
     public abstract boolean exists(String dir) throws Exception;
 
+    /**
+     * Compute the checksum of some files where they are stored, so we don't need to read their content.
+     * @param algorithm the {@link java.security.MessageDigest} algorithm
+     * @return the hexadecimal checksums by file full path or null if this is not supported.
+     * Files we could not compute the checksum of are missing.
+     */
+    public Map<String, String> getChecksums(Collection<FileAbstractModel> files, String algorithm) throws Exception {
+        return null;
+    }
+
+    /**
+     * The crawler will not list any other directory in this run. What has been kept to list the
+     * remaining directories faster can be released.
+     */
+    public void listingDone() throws Exception {
+    }
+
     public abstract void open() throws Exception;
 
     public abstract void close() throws Exception;
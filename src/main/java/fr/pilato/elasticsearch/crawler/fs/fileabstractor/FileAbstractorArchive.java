@@ -0,0 +1,432 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
+
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Exposes zip, tar, tar.gz and gz files read by another abstractor as directories containing their entries.
+ * Archives are read sequentially while their content is listed and nothing is kept in memory. Archives read
+ * from a server are first copied to a local temporary file so no connection stays busy while the listing
+ * waits for the entries to be read. The content of an entry must be opened with
+ * {@link #getInputStream(FileAbstractModel)} before
+ * the next entry is listed, and the listing waits until it has been closed. Entries which have not been
+ * opened when the next one is listed are skipped.
+ * Entries get the modification date of their archive so they are only indexed again when the archive changed.
+ */
+public class FileAbstractorArchive extends FileAbstractor<FileAbstractModel> {
+
+    private final FileAbstractor<?> delegate;
+
+    public FileAbstractorArchive(FsSettings fsSettings, FileAbstractor<?> delegate) {
+        super(fsSettings);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public FileAbstractModel toFileAbstractModel(String path, FileAbstractModel file) {
+        return file;
+    }
+
+    @Override
+    public InputStream getInputStream(FileAbstractModel file) throws Exception {
+        if (file instanceof ArchiveEntryModel) {
+            return ((ArchiveEntryModel) file).content.open();
+        }
+        return delegate.getInputStream(file);
+    }
+
+    @Override
+    public Stream<FileAbstractModel> getFiles(String dir) throws Exception {
+        String path = stripSeparator(dir);
+        if (isArchive(path)) {
+            FileAbstractModel archive = delegate.getFile(path);
+            if (archive != null && archive.file) {
+                return listArchive(archive);
+            }
+        }
+        return delegate.getFiles(dir).map(FileAbstractorArchive::asDirectory);
+    }
+
+    @Override
+    public FileAbstractModel getFile(String path) throws Exception {
+        FileAbstractModel file = delegate.getFile(path);
+        return file == null ? null : asDirectory(file);
+    }
+
+    @Override
+    public boolean exists(String dir) throws Exception {
+        return delegate.exists(dir);
+    }
+
+    @Override
+    public void listingDone() throws Exception {
+        delegate.listingDone();
+    }
+
+    @Override
+    public void open() throws Exception {
+        delegate.open();
+    }
+
+    @Override
+    public void close() throws Exception {
+        delegate.close();
+    }
+
+    /**
+     * Archives are seen as directories so the crawler goes through their content
+     */
+    private static FileAbstractModel asDirectory(FileAbstractModel file) {
+        if (file.file && isArchive(file.name)) {
+            file.file = false;
+            file.directory = true;
+        }
+        return file;
+    }
+
+    public static boolean isArchive(String name) {
+        return format(name) != null;
+    }
+
+    /**
+     * @return true if this directory given by the crawler is an archive
+     */
+    public boolean isArchiveDirectory(String dir) throws Exception {
+        String path = stripSeparator(dir);
+        if (!isArchive(path)) {
+            return false;
+        }
+        FileAbstractModel archive = delegate.getFile(path);
+        return archive != null && archive.file;
+    }
+
+    /**
+     * @return true if this file is an archive entry. Its content has to be opened while the archive is listed.
+     */
+    public static boolean isArchiveEntry(FileAbstractModel file) {
+        return file instanceof ArchiveEntryModel;
+    }
+
+    private enum Format { ZIP, TAR, TAR_GZ, GZ }
+
+    private static Format format(String name) {
+        String lowercase = name.toLowerCase(Locale.ROOT);
+        if (lowercase.endsWith(".zip")) return Format.ZIP;
+        if (lowercase.endsWith(".tar")) return Format.TAR;
+        if (lowercase.endsWith(".tar.gz") || lowercase.endsWith(".tgz")) return Format.TAR_GZ;
+        if (lowercase.endsWith(".gz")) return Format.GZ;
+        return null;
+    }
+
+    private static String stripSeparator(String dir) {
+        if (dir.length() > 1 && (dir.endsWith("/") || dir.endsWith(File.separator))) {
+            return dir.substring(0, dir.length() - 1);
+        }
+        return dir;
+    }
+
+    /**
+     * Read the entries of an archive while the stream is consumed
+     */
+    private Stream<FileAbstractModel> listArchive(FileAbstractModel archive) throws Exception {
+        logger.debug("Listing entries of archive {}", archive.fullpath);
+        InputStream raw = openArchive(archive);
+        ArchiveIterator entries;
+        try {
+            InputStream buffered = new BufferedInputStream(raw);
+            switch (format(archive.name)) {
+                case ZIP:
+                    entries = new ArchiveIterator(archive, new ZipArchiveInputStream(buffered));
+                    break;
+                case TAR:
+                    entries = new ArchiveIterator(archive, new TarArchiveInputStream(buffered));
+                    break;
+                case TAR_GZ:
+                    entries = new ArchiveIterator(archive, new TarArchiveInputStream(new GzipCompressorInputStream(buffered, true)));
+                    break;
+                default:
+                    // A gzip file only contains one file named like the archive without the extension
+                    entries = new ArchiveIterator(archive, new GzipCompressorInputStream(buffered, true),
+                            archive.name.substring(0, archive.name.length() - ".gz".length()));
+            }
+        } catch (IOException e) {
+            raw.close();
+            logger.warn("Can not read archive [{}]: {}", archive.fullpath, e.getMessage());
+            return Stream.empty();
+        }
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries, Spliterator.ORDERED), false)
+                .map(entry -> (FileAbstractModel) entry)
+                .onClose(entries::close);
+    }
+
+    /**
+     * The listing waits for each entry to be read by the other threads of the crawler. For an archive read from
+     * a server, those threads might need the connection we would hold, so we read from a local copy instead.
+     */
+    private InputStream openArchive(FileAbstractModel archive) throws Exception {
+        if (delegate instanceof FileAbstractorFile) {
+            return delegate.getInputStream(archive);
+        }
+        Path copy = Files.createTempFile("fscrawler-archive", ".tmp");
+        try (InputStream is = delegate.getInputStream(archive)) {
+            Files.copy(is, copy, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+        return Files.newInputStream(copy, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * Reads the next file entry of an archive when asked for it, once the previous one has been read.
+     * A corrupted archive ends the listing.
+     */
+    private static class ArchiveIterator implements Iterator<ArchiveEntryModel> {
+        private final FileAbstractModel archive;
+        private final InputStream input;
+        // Null for a gzip file which only contains one entry
+        private final ArchiveInputStream archiveInput;
+        private String gzipEntry;
+        // The last entry we gave
+        private ArchiveEntryModel current;
+        private ArchiveEntryModel next;
+        private boolean done = false;
+
+        private ArchiveIterator(FileAbstractModel archive, ArchiveInputStream input) {
+            this.archive = archive;
+            this.input = input;
+            this.archiveInput = input;
+        }
+
+        private ArchiveIterator(FileAbstractModel archive, InputStream input, String name) {
+            this.archive = archive;
+            this.input = input;
+            this.archiveInput = null;
+            this.gzipEntry = name;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !done) {
+                if (!releaseCurrent()) {
+                    done = true;
+                    break;
+                }
+                try {
+                    if (archiveInput == null) {
+                        if (gzipEntry == null) {
+                            done = true;
+                        } else {
+                            next = newEntry(gzipEntry, -1);
+                            gzipEntry = null;
+                        }
+                    } else {
+                        ArchiveEntry entry = archiveInput.getNextEntry();
+                        if (entry == null) {
+                            done = true;
+                        } else if (!entry.isDirectory() && archiveInput.canReadEntryData(entry)) {
+                            next = newEntry(entryName(entry), entry.getSize());
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.warn("Error while reading archive [{}]: {}", archive.fullpath, e.getMessage());
+                    logger.debug("Full stack trace", e);
+                    done = true;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public ArchiveEntryModel next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = null;
+            return current;
+        }
+
+        /**
+         * Wait until the content of the last entry we gave has been read
+         * @return false if we have been interrupted
+         */
+        private boolean releaseCurrent() {
+            if (current != null) {
+                try {
+                    current.content.release();
+                } catch (InterruptedException e) {
+                    logger.debug("Listing of archive [{}] has been interrupted", archive.fullpath);
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                current = null;
+            }
+            return true;
+        }
+
+        private void close() {
+            releaseCurrent();
+            try {
+                input.close();
+            } catch (IOException e) {
+                logger.debug("Can not close archive [{}]: {}", archive.fullpath, e.getMessage());
+            }
+        }
+
+        private ArchiveEntryModel newEntry(String name, long size) {
+            ArchiveEntryModel model = new ArchiveEntryModel(new EntryContent(archive.fullpath.concat("/").concat(name), input));
+            model.name = name;
+            model.file = true;
+            model.directory = false;
+            // Entries change when their archive changes
+            model.lastModifiedDate = archive.lastModifiedDate;
+            model.creationDate = archive.creationDate;
+            model.inode = archive.inode;
+            model.owner = archive.owner;
+            model.group = archive.group;
+            model.path = archive.fullpath;
+            model.fullpath = archive.fullpath.concat("/").concat(name);
+            // The size of the entries of a gzip file and of some zip entries is only known once they have been read
+            model.size = Math.max(size, 0);
+            return model;
+        }
+
+        private static String entryName(ArchiveEntry entry) {
+            String name = entry.getName();
+            while (name.startsWith("./") || name.startsWith("/")) {
+                name = name.substring(name.startsWith("/") ? 1 : 2);
+            }
+            return name;
+        }
+    }
+
+    /**
+     * The content of the current entry of an archive. It can be opened once, before the next entry is listed.
+     */
+    private static class EntryContent extends FilterInputStream {
+        private final String fullpath;
+        private boolean opened = false;
+        private boolean released = false;
+
+        private EntryContent(String fullpath, InputStream archive) {
+            super(archive);
+            this.fullpath = fullpath;
+        }
+
+        private synchronized InputStream open() throws IOException {
+            if (opened || released) {
+                throw new IOException("Entry [" + fullpath + "] can only be read once, while its archive is listed");
+            }
+            opened = true;
+            return this;
+        }
+
+        /**
+         * Wait until the entry has been read, or skip it if it has not been opened
+         */
+        private synchronized void release() throws InterruptedException {
+            while (opened && !released) {
+                wait();
+            }
+            released = true;
+        }
+
+        private void ensureReadable() throws IOException {
+            if (released) {
+                throw new IOException("Entry [" + fullpath + "] has been closed");
+            }
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            ensureReadable();
+            return super.read();
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            ensureReadable();
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public synchronized long skip(long n) throws IOException {
+            ensureReadable();
+            return super.skip(n);
+        }
+
+        @Override
+        public synchronized int available() throws IOException {
+            ensureReadable();
+            return super.available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * The archive itself stays open so the listing can go on with the next entry
+         */
+        @Override
+        public synchronized void close() {
+            released = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * An archive entry with its content
+     */
+    private static class ArchiveEntryModel extends FileAbstractModel {
+        private final EntryContent content;
+
+        private ArchiveEntryModel(EntryContent content) {
+            this.content = content;
+        }
+    }
+}
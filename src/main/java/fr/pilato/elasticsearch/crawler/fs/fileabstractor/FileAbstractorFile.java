@@ -20,66 +20,161 @@
 package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
 
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
-import fr.pilato.elasticsearch.crawler.fs.util.FsCrawlerUtil;
+import fr.pilato.elasticsearch.crawler.fs.state.FileState;
+import org.apache.tika.io.TikaInputStream;
 
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class FileAbstractorFile extends FileAbstractor<Path> {
+
+    // All the attributes we need are read with a single call. uid and gid are only available with the unix view,
+    // which is specific to OpenJDK based JVMs: other JVMs fall back to the basic view.
+    private static final String BASIC_ATTRIBUTES = "basic:isRegularFile,size,lastModifiedTime,creationTime,fileKey";
+    private static final String UNIX_ATTRIBUTES = "unix:isRegularFile,size,lastModifiedTime,creationTime,fileKey,uid,gid";
+
+    private final boolean unixView;
+
+    // Owner and group names by uid and gid
+    private final Map<Integer, String> owners = new ConcurrentHashMap<>();
+    private final Map<Integer, String> groups = new ConcurrentHashMap<>();
 
-public class FileAbstractorFile extends FileAbstractor<File> {
     public FileAbstractorFile(FsSettings fsSettings) {
         super(fsSettings);
+        this.unixView = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
     }
 
     @Override
-    public FileAbstractModel toFileAbstractModel(String path, File file) {
+    public FileAbstractModel toFileAbstractModel(String path, Path file) {
+        try {
+            return readFile(path, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private FileAbstractModel readFile(String path, Path file) throws IOException {
+        Map<String, Object> attributes = Files.readAttributes(file, unixView ? UNIX_ATTRIBUTES : BASIC_ATTRIBUTES);
+
         FileAbstractModel model = new FileAbstractModel();
-        model.name = file.getName();
-        model.file = file.isFile();
+        model.name = file.getFileName().toString();
+        model.file = (Boolean) attributes.get("isRegularFile");
         model.directory = !model.file;
-        model.lastModifiedDate = LocalDateTime.ofInstant(Instant.ofEpochMilli(file.lastModified()), ZoneId.systemDefault());
-        model.creationDate = FsCrawlerUtil.getCreationTime(file);
+        model.lastModifiedDate = LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(((FileTime) attributes.get("lastModifiedTime")).toMillis()), ZoneId.systemDefault());
+        model.creationDate = LocalDateTime.ofInstant(((FileTime) attributes.get("creationTime")).toInstant(),
+                ZoneId.systemDefault());
         model.path = path;
-        model.fullpath = file.getAbsolutePath();
-        model.size = file.length();
-        model.owner = FsCrawlerUtil.getOwnerName(file);
-        model.group = FsCrawlerUtil.getGroupName(file);
+        model.fullpath = file.toAbsolutePath().toString();
+        model.size = (Long) attributes.get("size");
+        Object fileKey = attributes.get("fileKey");
+        model.inode = fileKey != null ? FileState.fingerprint(fileKey.toString()) : 0;
+
+        if (fsSettings.getFs().isAttributesSupport()) {
+            if (unixView) {
+                model.owner = owners.computeIfAbsent((Integer) attributes.get("uid"), uid -> getOwnerName(file));
+                model.group = groups.computeIfAbsent((Integer) attributes.get("gid"), gid -> getGroupName(file));
+            } else {
+                model.owner = getOwnerName(file);
+            }
+        }
 
         return model;
     }
 
+    /**
+     * Determines the 'owner' of the file. With the unix view, it is only called once per uid.
+     */
+    protected String getOwnerName(Path file) {
+        try {
+            return Files.getOwner(file).getName();
+        } catch (Exception e) {
+            logger.warn("Failed to determine 'owner' of {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Determines the 'group' of the file. With the unix view, it is only called once per gid.
+     */
+    protected String getGroupName(Path file) {
+        try {
+            return Files.readAttributes(file, PosixFileAttributes.class).group().getName();
+        } catch (Exception e) {
+            logger.warn("Failed to determine 'group' of {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The stream knows the file it comes from, so Tika can read the file directly when it needs random access
+     */
     @Override
     public InputStream getInputStream(FileAbstractModel file) throws Exception {
-        return new FileInputStream(new File(file.fullpath));
+        return TikaInputStream.get(Paths.get(file.fullpath));
     }
 
     @Override
-    public Collection<FileAbstractModel> getFiles(String dir) {
+    public Stream<FileAbstractModel> getFiles(String dir) {
         logger.debug("Listing local files from {}", dir);
-        File[] files = new File(dir).listFiles();
-        Collection<FileAbstractModel> result;
+        DirectoryStream<Path> files;
+        try {
+            files = Files.newDirectoryStream(Paths.get(dir));
+        } catch (IOException e) {
+            logger.debug("Can not list files from [{}]: {}. Skipping", dir, e.getMessage());
+            return Stream.empty();
+        }
 
-        if (files != null) {
-            result = new ArrayList<>(files.length);
+        // Entries are read from the disk and their attributes loaded while the stream is consumed
+        return StreamSupport.stream(files.spliterator(), false)
+                .map(file -> readFileIfExists(dir, file))
+                .filter(Objects::nonNull)
+                .onClose(() -> {
+                    try {
+                        files.close();
+                    } catch (IOException e) {
+                        logger.debug("Can not close the listing of [{}]: {}", dir, e.getMessage());
+                    }
+                });
+    }
 
-            // Iterate other files
-            for (File file : files) {
-                result.add(toFileAbstractModel(dir, file));
-            }
-        } else {
-            logger.debug("Symlink on windows gives null for listFiles(). Skipping [{}]", dir);
-            result = Collections.EMPTY_LIST;
+    private FileAbstractModel readFileIfExists(String dir, Path file) {
+        try {
+            return readFile(dir, file);
+        } catch (NoSuchFileException e) {
+            logger.debug("[{}] has been removed while listing [{}]", file, dir);
+        } catch (IOException e) {
+            logger.warn("Can not read attributes of [{}]: {}", file, e.getMessage());
         }
+        return null;
+    }
 
-
-        logger.debug("{} local files found", result.size());
-        return result;
+    @Override
+    public FileAbstractModel getFile(String path) throws IOException {
+        Path file = Paths.get(path);
+        try {
+            return readFile(file.getParent() == null ? null : file.getParent().toString(), file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
     }
 
     @Override
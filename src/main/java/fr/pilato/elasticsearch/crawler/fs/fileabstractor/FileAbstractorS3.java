@@ -0,0 +1,415 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
+
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Server;
+import fr.pilato.elasticsearch.crawler.fs.state.FileState;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads objects from a S3 compatible object store. The fs url is {@code /bucket/prefix} and the key prefixes
+ * separated by a slash are seen as directories.
+ * Objects are identified by their ETag so a changed object is detected even if its date did not change.
+ */
+public class FileAbstractorS3 extends FileAbstractor<S3ListingParser.S3Object> {
+
+    // Objects bigger than this are downloaded with parallel ranged requests
+    static final int RANGE_SIZE = 8 * 1024 * 1024;
+    private static final int TIMEOUT_MS = 60000;
+
+    private String endpoint;
+    private S3Signer signer;
+    private int maxConnections;
+    private ExecutorService rangePool;
+
+    public FileAbstractorS3(FsSettings fsSettings) {
+        super(fsSettings);
+    }
+
+    @Override
+    public FileAbstractModel toFileAbstractModel(String path, S3ListingParser.S3Object object) {
+        FileAbstractModel model = new FileAbstractModel();
+        model.name = object.key.substring(object.key.lastIndexOf('/') + 1);
+        model.file = true;
+        model.directory = false;
+        // We are using here the local TimeZone as a reference like the other file systems
+        model.lastModifiedDate = LocalDateTime.ofInstant(object.lastModified, ZoneId.systemDefault());
+        model.path = path;
+        model.fullpath = path.concat("/").concat(model.name);
+        model.size = object.size;
+        // The ETag changes when the content changes
+        model.inode = FileState.fingerprint(object.etag);
+        return model;
+    }
+
+    private static FileAbstractModel toDirectoryModel(String path, String name) {
+        FileAbstractModel model = new FileAbstractModel();
+        model.name = name;
+        model.file = false;
+        model.directory = true;
+        // Prefixes have no date so we always consider them as modified
+        model.lastModifiedDate = LocalDateTime.now();
+        model.path = path;
+        model.fullpath = path.concat("/").concat(name);
+        return model;
+    }
+
+    @Override
+    public InputStream getInputStream(FileAbstractModel file) throws Exception {
+        String[] location = location(file.fullpath);
+        if (rangePool == null || file.size <= RANGE_SIZE) {
+            HttpURLConnection connection = request("GET", location[0], location[1], Collections.emptyMap(), null);
+            check(connection, location[1]);
+            return connection.getInputStream();
+        }
+        return new RangedInputStream(location[0], location[1], file.size);
+    }
+
+    @Override
+    public Stream<FileAbstractModel> getFiles(String dir) throws Exception {
+        logger.debug("Listing objects from {}", dir);
+        String[] location = location(dir);
+        String prefix = location[1].isEmpty() ? "" : location[1] + "/";
+        String path = "/" + location[0] + (location[1].isEmpty() ? "" : "/" + location[1]);
+
+        // The first page is read now so we fail early if the bucket can not be read
+        ListingIterator iterator = new ListingIterator(location[0], prefix, path);
+        iterator.fetch();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+
+    @Override
+    public FileAbstractModel getFile(String path) throws Exception {
+        String[] location = location(path);
+        int pos = path.replace('\\', '/').replaceAll("/+$", "").lastIndexOf('/');
+        String parent = pos > 0 ? path.substring(0, pos) : "/";
+        String name = location[1].isEmpty() ? location[0] : location[1].substring(location[1].lastIndexOf('/') + 1);
+
+        if (!location[1].isEmpty()) {
+            HttpURLConnection connection = request("HEAD", location[0], location[1], Collections.emptyMap(), null);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+                check(connection, location[1]);
+                S3ListingParser.S3Object object = new S3ListingParser.S3Object();
+                object.key = location[1];
+                object.size = connection.getContentLengthLong();
+                object.lastModified = Instant.ofEpochMilli(connection.getLastModified());
+                object.etag = connection.getHeaderField("ETag");
+                return toFileAbstractModel(parent, object);
+            }
+        }
+        return exists(path) ? toDirectoryModel(parent, name) : null;
+    }
+
+    @Override
+    public boolean exists(String dir) throws Exception {
+        String[] location = location(dir);
+        if (location[1].isEmpty()) {
+            HttpURLConnection connection = request("HEAD", location[0], "", Collections.emptyMap(), null);
+            return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+        }
+        S3ListingParser.Page page = list(location[0], location[1] + "/", null, 1);
+        return !page.objects.isEmpty() || !page.prefixes.isEmpty();
+    }
+
+    @Override
+    public void open() throws Exception {
+        Server server = fsSettings.getServer();
+        String region = server.getRegion() == null ? "us-east-1" : server.getRegion();
+        endpoint = server.getEndpoint() == null ? "https://s3." + region + ".amazonaws.com" : server.getEndpoint();
+        if (endpoint.endsWith("/")) {
+            endpoint = endpoint.substring(0, endpoint.length() - 1);
+        }
+        // Without credentials, we can only read public buckets
+        signer = server.getUsername() == null ? null : new S3Signer(server.getUsername(), server.getPassword(), region);
+
+        maxConnections = server.getMaxChannels() < 1 ? 1 : server.getMaxChannels();
+        if (maxConnections > 1) {
+            AtomicInteger threads = new AtomicInteger();
+            rangePool = Executors.newFixedThreadPool(maxConnections, runnable -> {
+                Thread thread = new Thread(runnable, "fs-s3-range-" + threads.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        logger.debug("Using S3 endpoint [{}] with up to [{}] connections per object", endpoint, maxConnections);
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (rangePool != null) {
+            rangePool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the bucket and the key (without any leading or trailing slash) of a path
+     */
+    private static String[] location(String path) {
+        String normalized = path.replace('\\', '/').replaceAll("^/+", "").replaceAll("/+$", "");
+        int pos = normalized.indexOf('/');
+        return pos < 0 ? new String[] { normalized, "" } : new String[] { normalized.substring(0, pos), normalized.substring(pos + 1) };
+    }
+
+    private S3ListingParser.Page list(String bucket, String prefix, String continuationToken, int maxKeys)
+            throws IOException, XMLStreamException {
+        Map<String, String> query = new LinkedHashMap<>();
+        query.put("list-type", "2");
+        query.put("delimiter", "/");
+        query.put("prefix", prefix);
+        query.put("max-keys", Integer.toString(maxKeys));
+        if (continuationToken != null) {
+            query.put("continuation-token", continuationToken);
+        }
+        HttpURLConnection connection = request("GET", bucket, "", query, null);
+        check(connection, prefix);
+        try (InputStream response = connection.getInputStream()) {
+            return S3ListingParser.parse(response);
+        }
+    }
+
+    private HttpURLConnection request(String method, String bucket, String key, Map<String, String> query, String range)
+            throws IOException {
+        String path = "/" + bucket + (key.isEmpty() ? "" : "/" + key);
+        URL url = new URL(endpoint + S3Signer.encode(path, false) + (query.isEmpty() ? "" : "?" + S3Signer.canonicalQuery(query)));
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("host", url.getPort() == -1 || url.getPort() == url.getDefaultPort() ?
+                url.getHost() : url.getHost() + ":" + url.getPort());
+        headers.put("x-amz-date", S3Signer.amzDate(ZonedDateTime.now()));
+        headers.put("x-amz-content-sha256", S3Signer.EMPTY_PAYLOAD_SHA256);
+        if (range != null) {
+            headers.put("range", range);
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        headers.forEach((name, value) -> {
+            // The host header is set by the connection itself
+            if (!"host".equals(name)) {
+                connection.setRequestProperty(name, value);
+            }
+        });
+        if (signer != null) {
+            connection.setRequestProperty("Authorization", signer.authorization(method, path, query, headers));
+        }
+        return connection;
+    }
+
+    private static void check(HttpURLConnection connection, String key) throws IOException {
+        int status = connection.getResponseCode();
+        if (status >= 300) {
+            String body = "";
+            try (InputStream error = connection.getErrorStream()) {
+                if (error != null) {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[1024];
+                    int read;
+                    while ((read = error.read(buffer)) != -1) {
+                        baos.write(buffer, 0, read);
+                    }
+                    body = new String(baos.toByteArray(), StandardCharsets.UTF_8);
+                }
+            }
+            throw new IOException("S3 request for [" + key + "] failed with status [" + status + "]: " + body);
+        }
+    }
+
+    /**
+     * Reads the listing pages when the previous one has been consumed
+     */
+    private class ListingIterator implements Iterator<FileAbstractModel> {
+        private final String bucket;
+        private final String prefix;
+        private final String path;
+        private final Deque<FileAbstractModel> current = new ArrayDeque<>();
+        private String continuationToken = null;
+        private boolean lastPage = false;
+
+        private ListingIterator(String bucket, String prefix, String path) {
+            this.bucket = bucket;
+            this.prefix = prefix;
+            this.path = path;
+        }
+
+        private void fetch() throws IOException, XMLStreamException {
+            S3ListingParser.Page page = list(bucket, prefix, continuationToken, 1000);
+            for (String subdir : page.prefixes) {
+                current.add(toDirectoryModel(path, subdir.substring(prefix.length(), subdir.length() - 1)));
+            }
+            for (S3ListingParser.S3Object object : page.objects) {
+                // Some tools create an empty object to represent the directory itself
+                if (!object.key.equals(prefix)) {
+                    current.add(toFileAbstractModel(path, object));
+                }
+            }
+            continuationToken = page.nextContinuationToken;
+            lastPage = !page.truncated || continuationToken == null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current.isEmpty() && !lastPage) {
+                try {
+                    fetch();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (XMLStreamException e) {
+                    throw new UncheckedIOException(new IOException(e));
+                }
+            }
+            return !current.isEmpty();
+        }
+
+        @Override
+        public FileAbstractModel next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.poll();
+        }
+    }
+
+    /**
+     * Downloads an object by ranges, keeping up to max_channels requests running ahead of what has been read
+     */
+    private class RangedInputStream extends InputStream {
+        private final String bucket;
+        private final String key;
+        private final long size;
+        private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        private long submitted = 0;
+        private byte[] buffer = new byte[0];
+        private int position = 0;
+
+        private RangedInputStream(String bucket, String key, long size) {
+            this.bucket = bucket;
+            this.key = key;
+            this.size = size;
+            while (pending.size() < maxConnections && submitted < size) {
+                submitNext();
+            }
+        }
+
+        private void submitNext() {
+            final long start = submitted;
+            final long end = Math.min(size, start + RANGE_SIZE) - 1;
+            submitted = end + 1;
+            pending.add(rangePool.submit(() -> {
+                HttpURLConnection connection = request("GET", bucket, key, Collections.emptyMap(),
+                        "bytes=" + start + "-" + end);
+                check(connection, key);
+                byte[] range = new byte[(int) (end - start + 1)];
+                try (InputStream is = connection.getInputStream()) {
+                    int offset = 0;
+                    int read;
+                    while (offset < range.length && (read = is.read(range, offset, range.length - offset)) != -1) {
+                        offset += read;
+                    }
+                    if (offset != range.length) {
+                        throw new IOException("Object [" + key + "] changed while being downloaded");
+                    }
+                }
+                return range;
+            }));
+        }
+
+        private boolean fill() throws IOException {
+            while (position == buffer.length) {
+                Future<byte[]> next = pending.poll();
+                if (next == null) {
+                    return false;
+                }
+                if (submitted < size) {
+                    submitNext();
+                }
+                try {
+                    buffer = next.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while downloading [" + key + "]", e);
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? buffer[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.length - position);
+            System.arraycopy(buffer, position, b, off, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+        }
+    }
+}
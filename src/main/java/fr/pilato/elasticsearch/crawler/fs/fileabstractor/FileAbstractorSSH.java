@@ -19,75 +19,265 @@
 
 package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
 
-import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import fr.pilato.elasticsearch.crawler.fs.FsCrawlerImpl.LISTING;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Server;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Vector;
-import java.util.stream.Collectors;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 public class FileAbstractorSSH extends FileAbstractor<ChannelSftp.LsEntry> {
 
-    private ChannelSftp sftp;
+    // Number of files we compute the checksum of with a single command
+    private static final int CHECKSUM_BATCH_SIZE = 100;
+
+    private SftpChannelPool pool;
+    private final LongAdder transfers = new LongAdder();
+    private final LongAdder transferredBytes = new LongAdder();
+    private final LongAdder transferNanos = new LongAdder();
+    // When listing with find, content of the directories listed but not crawled yet
+    private FindListingSpill tree;
+    private volatile boolean findListing = false;
 
     public FileAbstractorSSH(FsSettings fsSettings) {
         super(fsSettings);
+        findListing = LISTING.FIND.equals(fsSettings.getServer().getListing());
     }
 
     @Override
     public FileAbstractModel toFileAbstractModel(String path, ChannelSftp.LsEntry file) {
+        return toFileAbstractModel(path, file.getFilename(), file.getAttrs());
+    }
+
+    private FileAbstractModel toFileAbstractModel(String path, String name, SftpATTRS attrs) {
         FileAbstractModel model = new FileAbstractModel();
-        model.name = file.getFilename();
-        model.directory = file.getAttrs().isDir();
+        model.name = name;
+        model.directory = attrs.isDir();
         model.file = !model.directory;
         // We are using here the local TimeZone as a reference. If the remote system is under another TZ, this might cause issues
-        model.lastModifiedDate = LocalDateTime.ofInstant(Instant.ofEpochMilli(file.getAttrs().getMTime()), ZoneId.systemDefault());
+        model.lastModifiedDate = LocalDateTime.ofInstant(Instant.ofEpochMilli(attrs.getMTime()), ZoneId.systemDefault());
         model.path = path;
         model.fullpath = model.path.concat("/").concat(model.name);
-        model.size = file.getAttrs().getSize();
-        model.owner = Integer.toString(file.getAttrs().getUId());
-        model.group = Integer.toString(file.getAttrs().getGId());
+        model.size = attrs.getSize();
+        model.owner = Integer.toString(attrs.getUId());
+        model.group = Integer.toString(attrs.getGId());
         return model;
     }
 
     @Override
     public InputStream getInputStream(FileAbstractModel file) throws Exception {
-        return sftp.get(file.fullpath);
+        // The channel stays busy until the content has been read, so we give it back when the stream is closed
+        ChannelSftp sftp = pool.acquire();
+        InputStream stream;
+        try {
+            stream = sftp.get(file.fullpath);
+        } catch (Exception e) {
+            pool.release(sftp);
+            throw e;
+        }
+        return new TransferInputStream(stream, sftp, file.fullpath);
     }
 
     @Override
-    public Collection<FileAbstractModel> getFiles(String dir) throws Exception {
+    public Stream<FileAbstractModel> getFiles(String dir) throws Exception {
         logger.debug("Listing local files from {}", dir);
-        Vector<ChannelSftp.LsEntry> ls;
 
-        ls = sftp.ls(dir);
-        if (ls == null) return null;
+        if (findListing) {
+            List<FileAbstractModel> listed = listFromTree(dir);
+            if (listed != null) {
+                logger.debug("{} local files found", listed.size());
+                return listed.stream();
+            }
+        }
 
-        Collection<FileAbstractModel> result = new ArrayList<>(ls.size());
-        // Iterate other files
-        // We ignore here all files like . and ..
-        result.addAll(ls.stream().filter(file -> !".".equals(file.getFilename()) &&
-                !"..".equals(file.getFilename()))
-                .map(file -> toFileAbstractModel(dir, file))
-                .collect(Collectors.toList()));
+        // JSch reads the whole directory before giving back the control. We build the models while it
+        // reads the entries so we don't keep every LsEntry in memory as well.
+        List<FileAbstractModel> result = pool.execute(sftp -> {
+            List<FileAbstractModel> models = new ArrayList<>();
+            sftp.ls(dir, file -> {
+                // We ignore here all files like . and ..
+                if (!".".equals(file.getFilename()) && !"..".equals(file.getFilename())) {
+                    models.add(toFileAbstractModel(dir, file));
+                }
+                return ChannelSftp.LsEntrySelector.CONTINUE;
+            });
+            return models;
+        });
 
         logger.debug("{} local files found", result.size());
-        return result;
+        return result.stream();
+    }
+
+    /**
+     * Give the content of a directory from the tree listed with find. If the directory has not
+     * been listed yet, we list its whole subtree.
+     * @return null if find can not be used on this server
+     */
+    private synchronized List<FileAbstractModel> listFromTree(String dir) throws Exception {
+        if (tree == null) {
+            tree = FindListingSpill.create();
+        }
+        // The crawler gives directories with a trailing slash, find lists them without
+        String root = dir.length() > 1 && dir.endsWith("/") ? dir.substring(0, dir.length() - 1) : dir;
+        // Each directory is only crawled once per run so we don't need to keep its content
+        List<FileAbstractModel> children = tree.remove(root);
+        if (children == null && listTree(root)) {
+            children = tree.remove(root);
+        }
+        return children;
+    }
+
+    @Override
+    public synchronized void listingDone() throws Exception {
+        // The directories which have been pruned or excluded are still in the tree
+        if (tree != null) {
+            tree.clear();
+        }
+    }
+
+    /**
+     * List a whole subtree with find. The entries are written on disk while they are read: only the
+     * directories are kept in memory.
+     */
+    private boolean listTree(String dir) throws Exception {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        long[] entries = new long[1];
+        boolean listed;
+        try {
+            int status = exec(FindListingParser.command(dir), errors, output -> {
+                tree.removeTree(dir);
+                tree.addDirectory(dir);
+                entries[0] = FindListingParser.parse(dir, output, model -> {
+                    try {
+                        tree.add(model);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            });
+            // find exits with 1 when some directories can not be read but the others have been listed
+            listed = status == 0 || entries[0] > 0;
+        } catch (IllegalArgumentException e) {
+            logger.debug("Can not read find output: {}", e.getMessage());
+            listed = false;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (!listed) {
+            tree.removeTree(dir);
+            logger.warn("Can not list [{}] with find: [{}]. Falling back to sftp listing.", dir,
+                    errors.toString(StandardCharsets.UTF_8.name()).trim());
+            findListing = false;
+            return false;
+        }
+        if (errors.size() > 0) {
+            logger.debug("find reported errors while listing [{}]: {}", dir, errors.toString(StandardCharsets.UTF_8.name()));
+        }
+        logger.debug("[{}] entries listed with find from [{}]. [{}] directories waiting to be crawled.", entries[0], dir,
+                tree.directories());
+        return true;
+    }
+
+    @Override
+    public Map<String, String> getChecksums(Collection<FileAbstractModel> files, String algorithm) throws Exception {
+        if (!fsSettings.getServer().isRemoteChecksum() || RemoteChecksum.program(algorithm) == null) {
+            return null;
+        }
+
+        Map<String, String> checksums = new HashMap<>();
+        List<String> batch = new ArrayList<>(CHECKSUM_BATCH_SIZE);
+        Iterator<FileAbstractModel> it = files.iterator();
+        while (it.hasNext()) {
+            batch.add(it.next().fullpath);
+            if (batch.size() == CHECKSUM_BATCH_SIZE || !it.hasNext()) {
+                ByteArrayOutputStream errors = new ByteArrayOutputStream();
+                int status = exec(RemoteChecksum.command(algorithm, batch), errors,
+                        output -> RemoteChecksum.parse(output, checksums::put));
+                if (status != 0) {
+                    logger.debug("Can not compute some checksums: {}", errors.toString(StandardCharsets.UTF_8.name()));
+                }
+                batch.clear();
+            }
+        }
+        logger.debug("[{}] checksums computed remotely for [{}] files", checksums.size(), files.size());
+        return checksums;
+    }
+
+    /**
+     * Run a command on the server and read its output while it is streamed back
+     * @param errors where the error output is written
+     * @param reader reads the output. It can be called again if the connection has been lost.
+     * @return the exit status of the command
+     */
+    protected int exec(String command, ByteArrayOutputStream errors, OutputReader reader) throws Exception {
+        return pool.execute(sftp -> {
+            errors.reset();
+            ChannelExec exec = (ChannelExec) sftp.getSession().openChannel("exec");
+            try {
+                exec.setCommand(command);
+                exec.setErrStream(errors);
+                InputStream output = exec.getInputStream();
+                exec.connect();
+                reader.read(output);
+                // The exit status is known once the channel is closed
+                while (!exec.isClosed()) {
+                    Thread.sleep(10);
+                }
+                return exec.getExitStatus();
+            } finally {
+                exec.disconnect();
+            }
+        });
+    }
+
+    @FunctionalInterface
+    protected interface OutputReader {
+        void read(InputStream output) throws IOException;
+    }
+
+    @Override
+    public FileAbstractModel getFile(String path) throws Exception {
+        SftpATTRS attrs;
+        try {
+            attrs = pool.execute(sftp -> sftp.stat(path));
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return null;
+            }
+            throw e;
+        }
+        // We remove any trailing slash to find the parent directory and the name
+        String fullpath = path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        int pos = fullpath.lastIndexOf('/');
+        return toFileAbstractModel(pos > 0 ? fullpath.substring(0, pos) : "/", fullpath.substring(pos + 1), attrs);
     }
 
     @Override
     public boolean exists(String dir) throws Exception {
         try {
-            sftp.ls(dir);
+            pool.execute(sftp -> sftp.ls(dir));
         } catch (Exception e) {
             return false;
         }
@@ -96,42 +286,92 @@ public class FileAbstractorSSH extends FileAbstractor<ChannelSftp.LsEntry> {
 
     @Override
     public void open() throws Exception {
-        sftp = openSSHConnection(fsSettings.getServer());
+        pool = new SftpChannelPool(fsSettings.getServer(), fsSettings.getServer().getMaxChannels());
+        logger.debug("Using up to [{}] SFTP channels", pool.getMaxChannels());
+        // We open a first channel right now so we fail early if the server can not be reached
+        pool.release(pool.acquire());
     }
 
     @Override
     public void close() throws Exception {
-        sftp.getSession().disconnect();
-        sftp.disconnect();
+        synchronized (this) {
+            if (tree != null) {
+                tree.close();
+                tree = null;
+            }
+        }
+        if (pool != null) {
+            pool.close();
+            if (transfers.sum() > 0) {
+                logger.debug("[{}] files downloaded, [{}] bytes at [{}] kb/s", transfers.sum(), transferredBytes.sum(),
+                        throughput(transferredBytes.sum(), transferNanos.sum()));
+            }
+        }
     }
 
-    public ChannelSftp openSSHConnection(Server server) throws Exception {
-        logger.debug("Opening SSH connection to {}@{}", server.getUsername(), server.getHostname());
+    private static long throughput(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes * TimeUnit.SECONDS.toNanos(1) / nanos / 1024;
+    }
 
-        JSch jsch = new JSch();
-        Session session = jsch.getSession(server.getUsername(), server.getHostname(), server.getPort());
-        java.util.Properties config = new java.util.Properties();
-        config.put("StrictHostKeyChecking", "no");
-        if (server.getPemPath() != null) {
-            jsch.addIdentity(server.getPemPath());
+    /**
+     * Reads the remote content through a buffer, counts what has been transferred and gives the
+     * channel back to the pool once closed.
+     */
+    private class TransferInputStream extends FilterInputStream {
+        private final ChannelSftp sftp;
+        private final String path;
+        private final long start = System.nanoTime();
+        private long bytes = 0;
+        private boolean released = false;
+
+        private TransferInputStream(InputStream stream, ChannelSftp sftp, String path) {
+            super(new BufferedInputStream(stream, fsSettings.getServer().getBufferSize() < 1 ?
+                    Server.DEFAULT_BUFFER_SIZE : fsSettings.getServer().getBufferSize()));
+            this.sftp = sftp;
+            this.path = path;
         }
-        session.setConfig(config);
-        if (server.getPassword() != null) {
-            session.setPassword(server.getPassword());
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytes++;
+            }
+            return b;
         }
-        session.connect();
 
-        //Open a new session for SFTP.
-        Channel channel = session.openChannel("sftp");
-        channel.connect();
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                bytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            bytes += skipped;
+            return skipped;
+        }
 
-        //checking SSH client connection.
-        if (!channel.isConnected()) {
-            logger.warn("Cannot connect with SSH to {}@{}", server.getUsername(),
-                    server.getHostname());
-            throw new RuntimeException("Can not connect to " + server.getUsername() + "@" + server.getHostname());
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    pool.release(sftp);
+                    long nanos = System.nanoTime() - start;
+                    transfers.increment();
+                    transferredBytes.add(bytes);
+                    transferNanos.add(nanos);
+                    logger.debug("[{}] bytes downloaded from [{}] in [{}] ms, [{}] kb/s", bytes, path,
+                            TimeUnit.NANOSECONDS.toMillis(nanos), throughput(bytes, nanos));
+                }
+            }
         }
-        logger.debug("SSH connection successful");
-        return (ChannelSftp) channel;
     }
 }
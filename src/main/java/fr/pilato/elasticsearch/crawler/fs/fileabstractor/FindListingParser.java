@@ -0,0 +1,104 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.function.Consumer;
+
+/**
+ * Lists a whole remote tree with a single GNU find command and reads its output.
+ * Each entry is written as {@code type TAB size TAB mtime TAB uid TAB gid TAB relative path NUL}
+ * so names containing tabs or new lines are read correctly.
+ */
+public class FindListingParser {
+
+    private static final String FORMAT = "%y\\t%s\\t%T@\\t%U\\t%G\\t%P\\0";
+
+    /**
+     * Build the shell command which lists everything below a directory
+     */
+    public static String command(String dir) {
+        return "find " + quote(dir) + " -mindepth 1 -printf '" + FORMAT + "'";
+    }
+
+    /**
+     * Read the find output and send each entry to the consumer while it is read
+     * @param dir the directory find has been started from
+     * @return the number of entries read
+     */
+    public static long parse(String dir, InputStream output, Consumer<FileAbstractModel> consumer) throws IOException {
+        long entries = 0;
+        ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        int b;
+        while ((b = output.read()) != -1) {
+            if (b == 0) {
+                consumer.accept(toFileAbstractModel(dir, new String(record.toByteArray(), StandardCharsets.UTF_8)));
+                record.reset();
+                entries++;
+            } else {
+                record.write(b);
+            }
+        }
+        return entries;
+    }
+
+    static FileAbstractModel toFileAbstractModel(String dir, String record) {
+        String[] fields = record.split("\t", 6);
+        if (fields.length != 6) {
+            throw new IllegalArgumentException("Unexpected find output [" + record + "]");
+        }
+        String relative = fields[5];
+        int pos = relative.lastIndexOf('/');
+
+        FileAbstractModel model = new FileAbstractModel();
+        model.name = pos < 0 ? relative : relative.substring(pos + 1);
+        // Like with SFTP, everything which is not a directory is considered as a file
+        model.directory = "d".equals(fields[0]);
+        model.file = !model.directory;
+        model.size = Long.parseLong(fields[1]);
+        // We are using here the local TimeZone as a reference. If the remote system is under another TZ, this might cause issues
+        model.lastModifiedDate = LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(new BigDecimal(fields[2]).movePointRight(3).longValue()), ZoneId.systemDefault());
+        model.owner = fields[3];
+        model.group = fields[4];
+        model.path = pos < 0 ? dir : join(dir, relative.substring(0, pos));
+        model.fullpath = join(model.path, model.name);
+        return model;
+    }
+
+    /**
+     * Build the path of an entry of a directory, whether the directory ends with a slash or not
+     */
+    static String join(String dir, String name) {
+        return dir.endsWith("/") ? dir.concat(name) : dir.concat("/").concat(name);
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+}
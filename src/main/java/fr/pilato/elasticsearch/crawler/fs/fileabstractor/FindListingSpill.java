@@ -0,0 +1,200 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the entries listed by find in a local file until their directory is crawled.
+ * Entries are appended in the order find gives them and each entry points to the previous entry of the
+ * same directory, so only the position of the last entry of each directory is kept in memory.
+ * Directories are known by their path without any trailing slash, like {@code /data/subdir}, but they
+ * can be given with one, like the crawler does.
+ * <p>
+ * This class is not thread safe.
+ */
+public class FindListingSpill implements Closeable {
+
+    // A directory we listed which has no entry
+    private static final long EMPTY = -1;
+
+    private final FileChannel channel;
+    private final OutputStream out;
+    private final Map<String, Long> lastEntries = new HashMap<>();
+    private long size = 0;
+
+    private FindListingSpill(FileChannel channel) {
+        this.channel = channel;
+        this.out = new BufferedOutputStream(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Create a spill in a temporary file which is removed when closed
+     */
+    public static FindListingSpill create() throws IOException {
+        Path file = Files.createTempFile("fscrawler-find", ".spill");
+        return new FindListingSpill(FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE));
+    }
+
+    /**
+     * Declare a directory which has been listed, even if it has no entry
+     */
+    public void addDirectory(String dir) {
+        lastEntries.putIfAbsent(key(dir), EMPTY);
+    }
+
+    /**
+     * Add an entry of a listed directory
+     */
+    public void add(FileAbstractModel model) throws IOException {
+        if (model.directory) {
+            addDirectory(model.fullpath);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeInt(0);
+        String dir = key(model.path);
+        record.writeLong(lastEntries.getOrDefault(dir, EMPTY));
+        record.writeBoolean(model.directory);
+        record.writeLong(model.size);
+        record.writeLong(model.lastModifiedDate.toEpochSecond(ZoneOffset.UTC));
+        record.writeInt(model.lastModifiedDate.getNano());
+        record.writeUTF(model.owner);
+        record.writeUTF(model.group);
+        record.writeUTF(model.name);
+        record.flush();
+
+        byte[] array = bytes.toByteArray();
+        ByteBuffer.wrap(array).putInt(0, array.length);
+        out.write(array);
+        lastEntries.put(dir, size);
+        size += array.length;
+    }
+
+    /**
+     * Read the entries of a directory and forget them
+     * @return the entries in the order find gave them or null if the directory has not been listed
+     */
+    public List<FileAbstractModel> remove(String dir) throws IOException {
+        dir = key(dir);
+        Long last = lastEntries.remove(dir);
+        if (last == null) {
+            return null;
+        }
+        out.flush();
+
+        List<FileAbstractModel> entries = new ArrayList<>();
+        ByteBuffer length = ByteBuffer.allocate(4);
+        for (long position = last; position != EMPTY; ) {
+            length.clear();
+            readFully(length, position);
+            ByteBuffer record = ByteBuffer.allocate(length.getInt(0) - 4);
+            readFully(record, position + 4);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.array()));
+
+            position = in.readLong();
+            FileAbstractModel model = new FileAbstractModel();
+            model.directory = in.readBoolean();
+            model.file = !model.directory;
+            model.size = in.readLong();
+            model.lastModifiedDate = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            model.owner = in.readUTF();
+            model.group = in.readUTF();
+            model.name = in.readUTF();
+            model.path = dir;
+            model.fullpath = FindListingParser.join(dir, model.name);
+            entries.add(model);
+        }
+        Collections.reverse(entries);
+
+        if (lastEntries.isEmpty()) {
+            // Every listed directory has been read. We can start again with an empty file.
+            clear();
+        }
+        return entries;
+    }
+
+    /**
+     * Forget what has been listed in a directory and its subdirectories
+     */
+    public void removeTree(String dir) {
+        String root = key(dir);
+        String prefix = FindListingParser.join(root, "");
+        lastEntries.keySet().removeIf(key -> key.equals(root) || key.startsWith(prefix));
+    }
+
+    /**
+     * Forget everything which has been listed, like the directories which have been pruned or excluded
+     * and will never be read, and start again with an empty file
+     */
+    public void clear() throws IOException {
+        lastEntries.clear();
+        out.flush();
+        channel.truncate(0);
+        size = 0;
+    }
+
+    /**
+     * @return the number of directories which have been listed and not read yet
+     */
+    public int directories() {
+        return lastEntries.size();
+    }
+
+    private static String key(String dir) {
+        return dir.length() > 1 && dir.endsWith("/") ? dir.substring(0, dir.length() - 1) : dir;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the find listing spill file");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lastEntries.clear();
+        channel.close();
+    }
+}
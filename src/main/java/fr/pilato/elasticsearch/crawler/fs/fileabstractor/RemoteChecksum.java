@@ -0,0 +1,105 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.function.BiConsumer;
+
+/**
+ * Computes checksums on a remote server with the coreutils commands (like sha256sum) and reads their output
+ */
+public class RemoteChecksum {
+
+    /**
+     * Find the command which computes the checksum with the same algorithm as {@link java.security.MessageDigest}
+     * @param algorithm the algorithm name, like MD5 or SHA-256
+     * @return the command or null if there is no such command
+     */
+    public static String program(String algorithm) {
+        if (algorithm == null) {
+            return null;
+        }
+        switch (algorithm.toUpperCase(Locale.ROOT).replace("-", "")) {
+            case "MD5": return "md5sum";
+            case "SHA":
+            case "SHA1": return "sha1sum";
+            case "SHA224": return "sha224sum";
+            case "SHA256": return "sha256sum";
+            case "SHA384": return "sha384sum";
+            case "SHA512": return "sha512sum";
+            default: return null;
+        }
+    }
+
+    /**
+     * Build the shell command which computes the checksum of some files
+     */
+    public static String command(String algorithm, Collection<String> paths) {
+        StringBuilder command = new StringBuilder(program(algorithm)).append(" --");
+        for (String path : paths) {
+            command.append(" '").append(path.replace("'", "'\\''")).append("'");
+        }
+        return command.toString();
+    }
+
+    /**
+     * Read the command output and send each path and its checksum to the consumer.
+     * Files which could not be read are reported on the error output so they are just missing here.
+     */
+    public static void parse(InputStream output, BiConsumer<String, String> consumer) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(output, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Names containing a new line or a backslash are escaped and the line starts with a backslash
+            boolean escaped = line.startsWith("\\");
+            if (escaped) {
+                line = line.substring(1);
+            }
+            int pos = line.indexOf(' ');
+            // The checksum is followed by a space and by a space or a star (binary mode) before the name
+            if (pos < 1 || line.length() < pos + 2) {
+                throw new IllegalArgumentException("Unexpected checksum output [" + line + "]");
+            }
+            String path = line.substring(pos + 2);
+            consumer.accept(escaped ? unescape(path) : path, line.substring(0, pos));
+        }
+    }
+
+    private static String unescape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
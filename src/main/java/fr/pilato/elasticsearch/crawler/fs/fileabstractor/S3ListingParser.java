@@ -0,0 +1,114 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a ListObjectsV2 response
+ * See http://docs.aws.amazon.com/AmazonS3/latest/API/v2-RESTBucketGET.html
+ */
+public class S3ListingParser {
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        // We never need external entities
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    public static class S3Object {
+        public String key;
+        public Instant lastModified;
+        public String etag;
+        public long size;
+    }
+
+    public static class Page {
+        public final List<S3Object> objects = new ArrayList<>();
+        public final List<String> prefixes = new ArrayList<>();
+        public boolean truncated;
+        public String nextContinuationToken;
+    }
+
+    public static Page parse(InputStream response) throws XMLStreamException {
+        Page page = new Page();
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(response);
+        try {
+            S3Object object = null;
+            boolean inPrefixes = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamReader.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "Contents":
+                            object = new S3Object();
+                            break;
+                        case "CommonPrefixes":
+                            inPrefixes = true;
+                            break;
+                        case "Key":
+                            if (object != null) object.key = reader.getElementText();
+                            break;
+                        case "LastModified":
+                            if (object != null) object.lastModified = Instant.parse(reader.getElementText());
+                            break;
+                        case "ETag":
+                            if (object != null) object.etag = reader.getElementText();
+                            break;
+                        case "Size":
+                            if (object != null) object.size = Long.parseLong(reader.getElementText());
+                            break;
+                        case "Prefix":
+                            // The bucket result also has a Prefix which is the one we asked for
+                            if (inPrefixes) page.prefixes.add(reader.getElementText());
+                            break;
+                        case "IsTruncated":
+                            page.truncated = Boolean.parseBoolean(reader.getElementText());
+                            break;
+                        case "NextContinuationToken":
+                            page.nextContinuationToken = reader.getElementText();
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XMLStreamReader.END_ELEMENT) {
+                    if ("Contents".equals(reader.getLocalName())) {
+                        page.objects.add(object);
+                        object = null;
+                    } else if ("CommonPrefixes".equals(reader.getLocalName())) {
+                        inPrefixes = false;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return page;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Signs S3 requests with AWS Signature Version 4
+ * See http://docs.aws.amazon.com/AmazonS3/latest/API/sig-v4-header-based-auth.html
+ */
+public class S3Signer {
+
+    public static final String EMPTY_PAYLOAD_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'", Locale.ROOT);
+
+    private final String accessKey;
+    private final String secretKey;
+    private final String region;
+
+    public S3Signer(String accessKey, String secretKey, String region) {
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.region = region;
+    }
+
+    public static String amzDate(ZonedDateTime date) {
+        return AMZ_DATE.format(date.withZoneSameInstant(ZoneOffset.UTC));
+    }
+
+    /**
+     * Compute the Authorization header of a request without body
+     * @param method  the HTTP method
+     * @param path    the path, not encoded yet
+     * @param query   the query parameters, not encoded yet
+     * @param headers the headers to sign, including host, x-amz-date and x-amz-content-sha256
+     * @return the Authorization header value
+     */
+    public String authorization(String method, String path, Map<String, String> query, Map<String, String> headers) {
+        Map<String, String> sortedHeaders = new TreeMap<>();
+        headers.forEach((name, value) -> sortedHeaders.put(name.toLowerCase(Locale.ROOT), value.trim()));
+        String amzDate = sortedHeaders.get("x-amz-date");
+        String scope = amzDate.substring(0, 8) + "/" + region + "/s3/aws4_request";
+
+        StringBuilder canonicalHeaders = new StringBuilder();
+        StringBuilder signedHeaders = new StringBuilder();
+        sortedHeaders.forEach((name, value) -> {
+            canonicalHeaders.append(name).append(':').append(value).append('\n');
+            if (signedHeaders.length() > 0) {
+                signedHeaders.append(';');
+            }
+            signedHeaders.append(name);
+        });
+
+        String canonicalRequest = method + "\n" +
+                encode(path, false) + "\n" +
+                canonicalQuery(query) + "\n" +
+                canonicalHeaders + "\n" +
+                signedHeaders + "\n" +
+                sortedHeaders.getOrDefault("x-amz-content-sha256", EMPTY_PAYLOAD_SHA256);
+
+        String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n" + hex(sha256(canonicalRequest));
+
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), amzDate.substring(0, 8));
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        String signature = hex(hmac(key, stringToSign));
+
+        return ALGORITHM + " Credential=" + accessKey + "/" + scope + ",SignedHeaders=" + signedHeaders +
+                ",Signature=" + signature;
+    }
+
+    /**
+     * Build the query string with sorted and encoded parameters
+     */
+    public static String canonicalQuery(Map<String, String> query) {
+        StringBuilder sb = new StringBuilder();
+        new TreeMap<>(query).forEach((name, value) -> {
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(encode(name, true)).append('=').append(encode(value == null ? "" : value, true));
+        });
+        return sb.toString();
+    }
+
+    /**
+     * URI encode a value like AWS expects it: only unreserved characters are kept as is
+     * @param slash true to encode the slashes as well
+     */
+    public static String encode(String value, boolean slash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') ||
+                    c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !slash)) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(String.format(Locale.ROOT, "%02X", b & 0xff));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String value) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
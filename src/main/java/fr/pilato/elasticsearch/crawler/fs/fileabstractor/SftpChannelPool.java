@@ -0,0 +1,217 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Server;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A pool of SFTP channels opened against the same server. Each channel runs on its own SSH session
+ * so listings and downloads don't share the same TCP window.
+ * Channels are opened lazily, checked before being given back to a caller and reopened when they are broken.
+ */
+public class SftpChannelPool implements Closeable {
+    private static final Logger logger = LogManager.getLogger(SftpChannelPool.class);
+
+    @FunctionalInterface
+    public interface SftpAction<T> {
+        T apply(ChannelSftp channel) throws Exception;
+    }
+
+    private final Server server;
+    private final int maxChannels;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<ChannelSftp> idle = new ConcurrentLinkedDeque<>();
+    private volatile boolean closed = false;
+
+    public SftpChannelPool(Server server, int maxChannels) {
+        this.server = server;
+        this.maxChannels = maxChannels < 1 ? 1 : maxChannels;
+        this.permits = new Semaphore(this.maxChannels, true);
+    }
+
+    public int getMaxChannels() {
+        return maxChannels;
+    }
+
+    /**
+     * Get a connected channel, waiting for one to be released if all of them are in use.
+     * The channel must be given back with {@link #release(ChannelSftp)}.
+     */
+    public ChannelSftp acquire() throws Exception {
+        if (closed) {
+            throw new IllegalStateException("SFTP channel pool is closed");
+        }
+        permits.acquire();
+        try {
+            ChannelSftp channel;
+            while ((channel = idle.pollFirst()) != null) {
+                if (isHealthy(channel)) {
+                    return channel;
+                }
+                logger.debug("SFTP channel to {}@{} is broken. Reconnecting.", server.getUsername(), server.getHostname());
+                disconnect(channel);
+            }
+            return open();
+        } catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give back a channel to the pool. A broken channel is dropped and will be reopened when needed.
+     */
+    public void release(ChannelSftp channel) {
+        if (!closed && isHealthy(channel)) {
+            idle.offerFirst(channel);
+        } else {
+            disconnect(channel);
+        }
+        permits.release();
+    }
+
+    /**
+     * Drop a channel we don't trust anymore
+     */
+    public void invalidate(ChannelSftp channel) {
+        disconnect(channel);
+        permits.release();
+    }
+
+    /**
+     * Run an action with a channel from the pool. If the connection was lost while running it,
+     * the action is run once again on a fresh channel.
+     */
+    public <T> T execute(SftpAction<T> action) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            ChannelSftp channel = acquire();
+            try {
+                T result = action.apply(channel);
+                release(channel);
+                return result;
+            } catch (Exception e) {
+                if (isConnectionError(e) || !isHealthy(channel)) {
+                    invalidate(channel);
+                    if (attempt < 2 && !closed) {
+                        logger.debug("SFTP connection to {}@{} lost: {}. Retrying.", server.getUsername(),
+                                server.getHostname(), e.getMessage());
+                        continue;
+                    }
+                } else {
+                    release(channel);
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        ChannelSftp channel;
+        while ((channel = idle.pollFirst()) != null) {
+            disconnect(channel);
+        }
+    }
+
+    private ChannelSftp open() throws Exception {
+        logger.debug("Opening SSH connection to {}@{}", server.getUsername(), server.getHostname());
+
+        JSch jsch = new JSch();
+        Session session = jsch.getSession(server.getUsername(), server.getHostname(), server.getPort());
+        Properties config = new Properties();
+        config.put("StrictHostKeyChecking", "no");
+        if (server.isCompression()) {
+            // We fall back to no compression if the server does not support it
+            config.put("compression.s2c", "zlib@openssh.com,zlib,none");
+            config.put("compression.c2s", "zlib@openssh.com,zlib,none");
+        }
+        if (server.getPemPath() != null) {
+            jsch.addIdentity(server.getPemPath());
+        }
+        session.setConfig(config);
+        if (server.getPassword() != null) {
+            session.setPassword(server.getPassword());
+        }
+        session.connect();
+
+        //Open a new session for SFTP.
+        ChannelSftp channel;
+        try {
+            channel = (ChannelSftp) session.openChannel("sftp");
+            channel.connect();
+            // Number of read requests sent ahead of the data we are consuming
+            channel.setBulkRequests(server.getReadAhead() < 1 ? Server.DEFAULT_READ_AHEAD : server.getReadAhead());
+        } catch (Exception e) {
+            session.disconnect();
+            throw e;
+        }
+
+        //checking SSH client connection.
+        if (!channel.isConnected()) {
+            logger.warn("Cannot connect with SSH to {}@{}", server.getUsername(),
+                    server.getHostname());
+            session.disconnect();
+            throw new RuntimeException("Can not connect to " + server.getUsername() + "@" + server.getHostname());
+        }
+        logger.debug("SSH connection successful");
+        return channel;
+    }
+
+    private static boolean isHealthy(ChannelSftp channel) {
+        try {
+            return channel.isConnected() && !channel.isClosed() && channel.getSession().isConnected();
+        } catch (JSchException e) {
+            return false;
+        }
+    }
+
+    private static boolean isConnectionError(Exception e) {
+        if (e instanceof SftpException) {
+            int id = ((SftpException) e).id;
+            return id == ChannelSftp.SSH_FX_NO_CONNECTION || id == ChannelSftp.SSH_FX_CONNECTION_LOST;
+        }
+        return e instanceof JSchException || e instanceof IOException;
+    }
+
+    private static void disconnect(ChannelSftp channel) {
+        try {
+            Session session = channel.getSession();
+            channel.disconnect();
+            session.disconnect();
+        } catch (JSchException e) {
+            channel.disconnect();
+        }
+    }
+}
@@ -21,10 +21,14 @@ package fr.pilato.elasticsearch.crawler.fs.meta;
 
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Provides utility methods to read and write metadata and settings files
@@ -66,7 +70,9 @@ public class MetaFileHandler {
     }
 
     /**
-     * Write a file in ~/.fscrawler/{subdir} dir
+     * Write a file in ~/.fscrawler/{subdir} dir.
+     * The content is written to a temporary file which then replaces the existing file, so
+     * we never leave a partially written file behind us.
      * @param subdir subdir where we can read the file (null if we read in the root dir)
      * @param filename filename
      * @param content The String UTF-8 content to write
@@ -82,6 +88,37 @@ public class MetaFileHandler {
                 Files.createDirectory(dir);
             }
         }
-        Files.write(dir.resolve(filename), content.getBytes(Charset.forName("UTF-8")));
+
+        Path tmp = dir.resolve(filename + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(Charset.forName("UTF-8")));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(filename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Make sure the rename itself is on the disk. This is not supported on Windows.
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Remove a file from ~/.fscrawler/{subdir} dir
+     * @param subdir subdir where we can read the file (null if we read in the root dir)
+     * @param filename filename
+     * @throws IOException in case of error while removing
+     */
+    public void removeFile(String subdir, String filename) throws IOException {
+        Path dir = root;
+        if (subdir != null) {
+            dir = dir.resolve(subdir);
+        }
+        Files.deleteIfExists(dir.resolve(filename));
     }
 }
@@ -27,6 +27,9 @@ import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.ByteSizeValue;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.ByteSizeValueDeserializer;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.ByteSizeValueSerializer;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Percentage;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.PercentageDeserializer;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.PercentageSerializer;
@@ -49,6 +52,8 @@ public class MetaParser {
         fscrawler.addDeserializer(TimeValue.class, new TimeValueDeserializer());
         fscrawler.addSerializer(new PercentageSerializer());
         fscrawler.addDeserializer(Percentage.class, new PercentageDeserializer());
+        fscrawler.addSerializer(new ByteSizeValueSerializer());
+        fscrawler.addDeserializer(ByteSizeValue.class, new ByteSizeValueDeserializer());
 
         mapper = new ObjectMapper();
         mapper.registerModule(new JavaTimeModule());
@@ -0,0 +1,182 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.meta.job;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Define where a running FS Job is, so we can resume it if it has been stopped
+ */
+public class FsCheckpoint {
+
+    private String url;
+    private LocalDateTime scanDate;
+    private LocalDateTime lastrun;
+    private int stateRun;
+    private List<String> pending;
+    private long completed;
+
+    public static class Builder {
+        private String url;
+        private LocalDateTime scanDate;
+        private LocalDateTime lastrun;
+        private int stateRun = 0;
+        private List<String> pending = new ArrayList<>();
+        private long completed = 0;
+
+        public Builder setUrl(String url) {
+            this.url = url;
+            return this;
+        }
+
+        public Builder setScanDate(LocalDateTime scanDate) {
+            this.scanDate = scanDate;
+            return this;
+        }
+
+        public Builder setLastrun(LocalDateTime lastrun) {
+            this.lastrun = lastrun;
+            return this;
+        }
+
+        public Builder setStateRun(int stateRun) {
+            this.stateRun = stateRun;
+            return this;
+        }
+
+        public Builder setPending(List<String> pending) {
+            this.pending = pending;
+            return this;
+        }
+
+        public Builder setCompleted(long completed) {
+            this.completed = completed;
+            return this;
+        }
+
+        public FsCheckpoint build() {
+            return new FsCheckpoint(url, scanDate, lastrun, stateRun, pending, completed);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public FsCheckpoint() {
+
+    }
+
+    /**
+     * @param url       the crawled directory
+     * @param scanDate  the date the interrupted run started
+     * @param lastrun   the date of the previous successful run (used to find modified files)
+     * @param stateRun  the file state run number of the interrupted run
+     * @param pending   the directories which still need to be crawled
+     * @param completed the number of directories already crawled
+     */
+    public FsCheckpoint(String url, LocalDateTime scanDate, LocalDateTime lastrun, int stateRun, List<String> pending,
+                        long completed) {
+        this.url = url;
+        this.scanDate = scanDate;
+        this.lastrun = lastrun;
+        this.stateRun = stateRun;
+        this.pending = pending;
+        this.completed = completed;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public LocalDateTime getScanDate() {
+        return scanDate;
+    }
+
+    public void setScanDate(LocalDateTime scanDate) {
+        this.scanDate = scanDate;
+    }
+
+    public LocalDateTime getLastrun() {
+        return lastrun;
+    }
+
+    public void setLastrun(LocalDateTime lastrun) {
+        this.lastrun = lastrun;
+    }
+
+    public int getStateRun() {
+        return stateRun;
+    }
+
+    public void setStateRun(int stateRun) {
+        this.stateRun = stateRun;
+    }
+
+    public List<String> getPending() {
+        return pending;
+    }
+
+    public void setPending(List<String> pending) {
+        this.pending = pending;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(long completed) {
+        this.completed = completed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        FsCheckpoint that = (FsCheckpoint) o;
+
+        if (stateRun != that.stateRun) return false;
+        if (completed != that.completed) return false;
+        if (url != null ? !url.equals(that.url) : that.url != null) return false;
+        if (scanDate != null ? !scanDate.equals(that.scanDate) : that.scanDate != null) return false;
+        if (lastrun != null ? !lastrun.equals(that.lastrun) : that.lastrun != null) return false;
+        return pending != null ? pending.equals(that.pending) : that.pending == null;
+
+    }
+
+    @Override
+    public int hashCode() {
+        int result = url != null ? url.hashCode() : 0;
+        result = 31 * result + (scanDate != null ? scanDate.hashCode() : 0);
+        result = 31 * result + (lastrun != null ? lastrun.hashCode() : 0);
+        result = 31 * result + stateRun;
+        result = 31 * result + (pending != null ? pending.hashCode() : 0);
+        result = 31 * result + (int) (completed ^ (completed >>> 32));
+        return result;
+    }
+}
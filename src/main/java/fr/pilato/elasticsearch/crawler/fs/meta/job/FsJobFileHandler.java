@@ -25,13 +25,14 @@ import java.io.IOException;
 import java.nio.file.Path;
 
 /**
- * Provides utility methods to read and write job status files (_status.json)
+ * Provides utility methods to read and write job status files (_status.json) and checkpoints (_checkpoint.json)
  */
 public class FsJobFileHandler extends MetaFileHandler {
 
     @Deprecated
     public static final String LEGACY_EXTENSION = "_status.json";
     public static final String FILENAME = "_status.json";
+    public static final String CHECKPOINT_FILENAME = "_checkpoint.json";
 
     public FsJobFileHandler(Path root) {
         super(root);
@@ -56,4 +57,33 @@ public class FsJobFileHandler extends MetaFileHandler {
     public void write(String jobname, FsJob job) throws IOException {
         writeFile(jobname, FILENAME, FsJobParser.toJson(job));
     }
+
+    /**
+     * We read the checkpoint in ~/.fscrawler/{job_name}/_checkpoint.json
+     * @param jobname is the job_name
+     * @return the checkpoint
+     * @throws IOException in case of error while reading
+     */
+    public FsCheckpoint readCheckpoint(String jobname) throws IOException {
+        return FsCheckpointParser.fromJson(readFile(jobname, CHECKPOINT_FILENAME));
+    }
+
+    /**
+     * We write the checkpoint to ~/.fscrawler/{job_name}/_checkpoint.json
+     * @param jobname is the job_name
+     * @param checkpoint the checkpoint to write
+     * @throws IOException in case of error while writing
+     */
+    public void writeCheckpoint(String jobname, FsCheckpoint checkpoint) throws IOException {
+        writeFile(jobname, CHECKPOINT_FILENAME, FsCheckpointParser.toJson(checkpoint));
+    }
+
+    /**
+     * We remove the checkpoint from ~/.fscrawler/{job_name}/_checkpoint.json
+     * @param jobname is the job_name
+     * @throws IOException in case of error while removing
+     */
+    public void removeCheckpoint(String jobname) throws IOException {
+        removeFile(jobname, CHECKPOINT_FILENAME);
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.meta.settings;
+
+import java.util.Locale;
+
+/**
+ * A size in bytes, like 512mb or 1gb
+ */
+public class ByteSizeValue {
+
+    private static final long KB = 1024;
+    private static final long MB = KB * 1024;
+    private static final long GB = MB * 1024;
+    private static final long TB = GB * 1024;
+
+    private long bytes;
+
+    public ByteSizeValue() {
+        this(0);
+    }
+
+    public ByteSizeValue(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public static ByteSizeValue ofMb(long mb) {
+        return new ByteSizeValue(mb * MB);
+    }
+
+    public static ByteSizeValue ofGb(long gb) {
+        return new ByteSizeValue(gb * GB);
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public void bytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public String format() {
+        if (bytes != 0 && bytes % TB == 0) {
+            return bytes / TB + "tb";
+        }
+        if (bytes != 0 && bytes % GB == 0) {
+            return bytes / GB + "gb";
+        }
+        if (bytes != 0 && bytes % MB == 0) {
+            return bytes / MB + "mb";
+        }
+        if (bytes != 0 && bytes % KB == 0) {
+            return bytes / KB + "kb";
+        }
+        return bytes + "b";
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+
+    public static ByteSizeValue parse(String sValue, ByteSizeValue defaultValue) {
+        if (sValue == null) {
+            return defaultValue;
+        }
+        try {
+            String lowerSValue = sValue.toLowerCase(Locale.ROOT).trim();
+            long multiplier = 1;
+            String number = lowerSValue;
+            if (lowerSValue.endsWith("tb")) {
+                multiplier = TB;
+            } else if (lowerSValue.endsWith("gb")) {
+                multiplier = GB;
+            } else if (lowerSValue.endsWith("mb")) {
+                multiplier = MB;
+            } else if (lowerSValue.endsWith("kb")) {
+                multiplier = KB;
+            } else if (lowerSValue.endsWith("b")) {
+                number = lowerSValue.substring(0, lowerSValue.length() - 1);
+            }
+            if (multiplier > 1) {
+                number = lowerSValue.substring(0, lowerSValue.length() - 2);
+            }
+            return new ByteSizeValue(Long.parseLong(number.trim()) * multiplier);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Failed to parse byte size [" + sValue + "].");
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ByteSizeValue that = (ByteSizeValue) o;
+
+        return bytes == that.bytes;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (bytes ^ (bytes >>> 32));
+    }
+}
@@ -39,12 +39,41 @@ public class Fs {
     private boolean xmlSupport;
     private String checksum;
     private boolean indexFolders;
+    private int walkerThreads;
+    private boolean pipeline;
+    private int queueSize;
+    private int fetchThreads;
+    private int serializeThreads;
+    private int parserThreads;
+    private boolean fileState;
+    private boolean pruneDirectories;
+    private boolean watch;
+    private TimeValue debounce;
+    private TimeValue debounceMaxDelay;
+    private TimeValue checkpointInterval;
+    private boolean breadthFirst;
+    private boolean expandArchives;
+    private TimeValue parseTimeout;
+    private int parserProcesses;
+    private String parserProcessHeap;
+    private boolean extractionCache;
+    private ByteSizeValue extractionCacheSize;
+    private boolean documentStore;
+    private boolean fastTextExtraction;
+    private int fetchQueueSize;
+    private int extractQueueSize;
+    private int serializeQueueSize;
+    private int bulkQueueSize;
 
     public static Builder builder() {
         return new Builder();
     }
 
     public static final String DEFAULT_DIR = "/tmp/es";
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+    public static final TimeValue DEFAULT_DEBOUNCE_MAX_DELAY = TimeValue.timeValueSeconds(30);
+    public static final String DEFAULT_PARSER_PROCESS_HEAP = "512m";
+    public static final ByteSizeValue DEFAULT_EXTRACTION_CACHE_SIZE = ByteSizeValue.ofGb(1);
     public static final Fs DEFAULT = Fs.builder().setUrl(DEFAULT_DIR).build();
 
     public static class Builder {
@@ -64,6 +93,31 @@ public class Fs {
         private String checksum = null;
         private boolean xmlSupport = false;
         private boolean indexFolders = true;
+        private int walkerThreads = 1;
+        private boolean pipeline = false;
+        private int queueSize = DEFAULT_QUEUE_SIZE;
+        private int fetchThreads = 1;
+        private int serializeThreads = 1;
+        private int parserThreads = 1;
+        private boolean fileState = false;
+        private boolean pruneDirectories = false;
+        private boolean watch = false;
+        private TimeValue debounce = null;
+        private TimeValue debounceMaxDelay = DEFAULT_DEBOUNCE_MAX_DELAY;
+        private TimeValue checkpointInterval = null;
+        private boolean breadthFirst = false;
+        private boolean expandArchives = false;
+        private TimeValue parseTimeout = null;
+        private int parserProcesses = 0;
+        private String parserProcessHeap = DEFAULT_PARSER_PROCESS_HEAP;
+        private boolean extractionCache = false;
+        private ByteSizeValue extractionCacheSize = DEFAULT_EXTRACTION_CACHE_SIZE;
+        private boolean documentStore = false;
+        private boolean fastTextExtraction = false;
+        private int fetchQueueSize = 0;
+        private int extractQueueSize = 0;
+        private int serializeQueueSize = 0;
+        private int bulkQueueSize = 0;
 
         public Builder setUrl(String url) {
             this.url = url;
@@ -171,10 +225,135 @@ public class Fs {
             return this;
         }
 
+        public Builder setWalkerThreads(int walkerThreads) {
+            this.walkerThreads = walkerThreads;
+            return this;
+        }
+
+        public Builder setPipeline(boolean pipeline) {
+            this.pipeline = pipeline;
+            return this;
+        }
+
+        public Builder setQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        public Builder setFetchThreads(int fetchThreads) {
+            this.fetchThreads = fetchThreads;
+            return this;
+        }
+
+        public Builder setSerializeThreads(int serializeThreads) {
+            this.serializeThreads = serializeThreads;
+            return this;
+        }
+
+        public Builder setParserThreads(int parserThreads) {
+            this.parserThreads = parserThreads;
+            return this;
+        }
+
+        public Builder setFileState(boolean fileState) {
+            this.fileState = fileState;
+            return this;
+        }
+
+        public Builder setPruneDirectories(boolean pruneDirectories) {
+            this.pruneDirectories = pruneDirectories;
+            return this;
+        }
+
+        public Builder setWatch(boolean watch) {
+            this.watch = watch;
+            return this;
+        }
+
+        public Builder setDebounce(TimeValue debounce) {
+            this.debounce = debounce;
+            return this;
+        }
+
+        public Builder setDebounceMaxDelay(TimeValue debounceMaxDelay) {
+            this.debounceMaxDelay = debounceMaxDelay;
+            return this;
+        }
+
+        public Builder setCheckpointInterval(TimeValue checkpointInterval) {
+            this.checkpointInterval = checkpointInterval;
+            return this;
+        }
+
+        public Builder setBreadthFirst(boolean breadthFirst) {
+            this.breadthFirst = breadthFirst;
+            return this;
+        }
+
+        public Builder setExpandArchives(boolean expandArchives) {
+            this.expandArchives = expandArchives;
+            return this;
+        }
+
+        public Builder setParseTimeout(TimeValue parseTimeout) {
+            this.parseTimeout = parseTimeout;
+            return this;
+        }
+
+        public Builder setParserProcesses(int parserProcesses) {
+            this.parserProcesses = parserProcesses;
+            return this;
+        }
+
+        public Builder setParserProcessHeap(String parserProcessHeap) {
+            this.parserProcessHeap = parserProcessHeap;
+            return this;
+        }
+
+        public Builder setExtractionCache(boolean extractionCache) {
+            this.extractionCache = extractionCache;
+            return this;
+        }
+
+        public Builder setExtractionCacheSize(ByteSizeValue extractionCacheSize) {
+            this.extractionCacheSize = extractionCacheSize;
+            return this;
+        }
+
+        public Builder setDocumentStore(boolean documentStore) {
+            this.documentStore = documentStore;
+            return this;
+        }
+
+        public Builder setFastTextExtraction(boolean fastTextExtraction) {
+            this.fastTextExtraction = fastTextExtraction;
+            return this;
+        }
+
+        public Builder setFetchQueueSize(int fetchQueueSize) {
+            this.fetchQueueSize = fetchQueueSize;
+            return this;
+        }
+
+        public Builder setExtractQueueSize(int extractQueueSize) {
+            this.extractQueueSize = extractQueueSize;
+            return this;
+        }
+
+        public Builder setSerializeQueueSize(int serializeQueueSize) {
+            this.serializeQueueSize = serializeQueueSize;
+            return this;
+        }
+
+        public Builder setBulkQueueSize(int bulkQueueSize) {
+            this.bulkQueueSize = bulkQueueSize;
+            return this;
+        }
+
         public Fs build() {
             return new Fs(url, updateRate, includes, excludes, jsonSupport, filenameAsId, addFilesize,
                     removeDeleted, storeSource, indexedChars, indexContent, attributesSupport, rawMetadata,
-                    checksum, xmlSupport, indexFolders);
+                    checksum, xmlSupport, indexFolders, walkerThreads, pipeline, queueSize, fetchThreads, serializeThreads, parserThreads, fileState, pruneDirectories, watch, debounce, debounceMaxDelay, checkpointInterval, breadthFirst, expandArchives, parseTimeout, parserProcesses, parserProcessHeap, extractionCache, extractionCacheSize, documentStore, fastTextExtraction, fetchQueueSize, extractQueueSize, serializeQueueSize, bulkQueueSize);
         }
     }
 
@@ -185,7 +364,7 @@ public class Fs {
     Fs(String url, TimeValue updateRate, List<String> includes, List<String> excludes, boolean jsonSupport,
        boolean filenameAsId, boolean addFilesize, boolean removeDeleted, boolean storeSource, Percentage indexedChars,
        boolean indexContent, boolean attributesSupport, boolean rawMetadata, String checksum, boolean xmlSupport,
-       boolean indexFolders) {
+       boolean indexFolders, int walkerThreads, boolean pipeline, int queueSize, int fetchThreads, int serializeThreads, int parserThreads, boolean fileState, boolean pruneDirectories, boolean watch, TimeValue debounce, TimeValue debounceMaxDelay, TimeValue checkpointInterval, boolean breadthFirst, boolean expandArchives, TimeValue parseTimeout, int parserProcesses, String parserProcessHeap, boolean extractionCache, ByteSizeValue extractionCacheSize, boolean documentStore, boolean fastTextExtraction, int fetchQueueSize, int extractQueueSize, int serializeQueueSize, int bulkQueueSize) {
         this.url = url;
         this.updateRate = updateRate;
         this.includes = includes;
@@ -202,6 +381,31 @@ public class Fs {
         this.checksum = checksum;
         this.xmlSupport = xmlSupport;
         this.indexFolders = indexFolders;
+        this.walkerThreads = walkerThreads;
+        this.pipeline = pipeline;
+        this.queueSize = queueSize;
+        this.fetchThreads = fetchThreads;
+        this.serializeThreads = serializeThreads;
+        this.parserThreads = parserThreads;
+        this.fileState = fileState;
+        this.pruneDirectories = pruneDirectories;
+        this.watch = watch;
+        this.debounce = debounce;
+        this.debounceMaxDelay = debounceMaxDelay;
+        this.checkpointInterval = checkpointInterval;
+        this.breadthFirst = breadthFirst;
+        this.expandArchives = expandArchives;
+        this.parseTimeout = parseTimeout;
+        this.parserProcesses = parserProcesses;
+        this.parserProcessHeap = parserProcessHeap;
+        this.extractionCache = extractionCache;
+        this.extractionCacheSize = extractionCacheSize;
+        this.documentStore = documentStore;
+        this.fastTextExtraction = fastTextExtraction;
+        this.fetchQueueSize = fetchQueueSize;
+        this.extractQueueSize = extractQueueSize;
+        this.serializeQueueSize = serializeQueueSize;
+        this.bulkQueueSize = bulkQueueSize;
     }
 
     public String getUrl() {
@@ -332,6 +536,206 @@ public class Fs {
         this.indexFolders = indexFolders;
     }
 
+    public int getWalkerThreads() {
+        return walkerThreads;
+    }
+
+    public void setWalkerThreads(int walkerThreads) {
+        this.walkerThreads = walkerThreads;
+    }
+
+    public boolean isPipeline() {
+        return pipeline;
+    }
+
+    public void setPipeline(boolean pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getFetchThreads() {
+        return fetchThreads;
+    }
+
+    public void setFetchThreads(int fetchThreads) {
+        this.fetchThreads = fetchThreads;
+    }
+
+    public int getSerializeThreads() {
+        return serializeThreads;
+    }
+
+    public void setSerializeThreads(int serializeThreads) {
+        this.serializeThreads = serializeThreads;
+    }
+
+    public int getParserThreads() {
+        return parserThreads;
+    }
+
+    public void setParserThreads(int parserThreads) {
+        this.parserThreads = parserThreads;
+    }
+
+    public boolean isFileState() {
+        return fileState;
+    }
+
+    public void setFileState(boolean fileState) {
+        this.fileState = fileState;
+    }
+
+    public boolean isPruneDirectories() {
+        return pruneDirectories;
+    }
+
+    public void setPruneDirectories(boolean pruneDirectories) {
+        this.pruneDirectories = pruneDirectories;
+    }
+
+    public boolean isWatch() {
+        return watch;
+    }
+
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+
+    public TimeValue getDebounce() {
+        return debounce;
+    }
+
+    public void setDebounce(TimeValue debounce) {
+        this.debounce = debounce;
+    }
+
+    public TimeValue getDebounceMaxDelay() {
+        return debounceMaxDelay;
+    }
+
+    public void setDebounceMaxDelay(TimeValue debounceMaxDelay) {
+        this.debounceMaxDelay = debounceMaxDelay;
+    }
+
+    public TimeValue getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public void setCheckpointInterval(TimeValue checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public boolean isBreadthFirst() {
+        return breadthFirst;
+    }
+
+    public void setBreadthFirst(boolean breadthFirst) {
+        this.breadthFirst = breadthFirst;
+    }
+
+    public boolean isExpandArchives() {
+        return expandArchives;
+    }
+
+    public void setExpandArchives(boolean expandArchives) {
+        this.expandArchives = expandArchives;
+    }
+
+    public TimeValue getParseTimeout() {
+        return parseTimeout;
+    }
+
+    public void setParseTimeout(TimeValue parseTimeout) {
+        this.parseTimeout = parseTimeout;
+    }
+
+    public int getParserProcesses() {
+        return parserProcesses;
+    }
+
+    public void setParserProcesses(int parserProcesses) {
+        this.parserProcesses = parserProcesses;
+    }
+
+    public String getParserProcessHeap() {
+        return parserProcessHeap;
+    }
+
+    public void setParserProcessHeap(String parserProcessHeap) {
+        this.parserProcessHeap = parserProcessHeap;
+    }
+
+    public boolean isExtractionCache() {
+        return extractionCache;
+    }
+
+    public void setExtractionCache(boolean extractionCache) {
+        this.extractionCache = extractionCache;
+    }
+
+    public ByteSizeValue getExtractionCacheSize() {
+        return extractionCacheSize;
+    }
+
+    public void setExtractionCacheSize(ByteSizeValue extractionCacheSize) {
+        this.extractionCacheSize = extractionCacheSize;
+    }
+
+    public boolean isDocumentStore() {
+        return documentStore;
+    }
+
+    public void setDocumentStore(boolean documentStore) {
+        this.documentStore = documentStore;
+    }
+
+    public boolean isFastTextExtraction() {
+        return fastTextExtraction;
+    }
+
+    public void setFastTextExtraction(boolean fastTextExtraction) {
+        this.fastTextExtraction = fastTextExtraction;
+    }
+
+    public int getFetchQueueSize() {
+        return fetchQueueSize;
+    }
+
+    public void setFetchQueueSize(int fetchQueueSize) {
+        this.fetchQueueSize = fetchQueueSize;
+    }
+
+    public int getExtractQueueSize() {
+        return extractQueueSize;
+    }
+
+    public void setExtractQueueSize(int extractQueueSize) {
+        this.extractQueueSize = extractQueueSize;
+    }
+
+    public int getSerializeQueueSize() {
+        return serializeQueueSize;
+    }
+
+    public void setSerializeQueueSize(int serializeQueueSize) {
+        this.serializeQueueSize = serializeQueueSize;
+    }
+
+    public int getBulkQueueSize() {
+        return bulkQueueSize;
+    }
+
+    public void setBulkQueueSize(int bulkQueueSize) {
+        this.bulkQueueSize = bulkQueueSize;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -354,6 +758,31 @@ public class Fs {
         if (includes != null ? !includes.equals(fs.includes) : fs.includes != null) return false;
         if (excludes != null ? !excludes.equals(fs.excludes) : fs.excludes != null) return false;
         if (indexedChars != null ? !indexedChars.equals(fs.indexedChars) : fs.indexedChars != null) return false;
+        if (walkerThreads != fs.walkerThreads) return false;
+        if (pipeline != fs.pipeline) return false;
+        if (queueSize != fs.queueSize) return false;
+        if (fetchThreads != fs.fetchThreads) return false;
+        if (serializeThreads != fs.serializeThreads) return false;
+        if (parserThreads != fs.parserThreads) return false;
+        if (fileState != fs.fileState) return false;
+        if (pruneDirectories != fs.pruneDirectories) return false;
+        if (watch != fs.watch) return false;
+        if (debounce != null ? !debounce.equals(fs.debounce) : fs.debounce != null) return false;
+        if (debounceMaxDelay != null ? !debounceMaxDelay.equals(fs.debounceMaxDelay) : fs.debounceMaxDelay != null) return false;
+        if (checkpointInterval != null ? !checkpointInterval.equals(fs.checkpointInterval) : fs.checkpointInterval != null) return false;
+        if (breadthFirst != fs.breadthFirst) return false;
+        if (expandArchives != fs.expandArchives) return false;
+        if (parseTimeout != null ? !parseTimeout.equals(fs.parseTimeout) : fs.parseTimeout != null) return false;
+        if (parserProcesses != fs.parserProcesses) return false;
+        if (parserProcessHeap != null ? !parserProcessHeap.equals(fs.parserProcessHeap) : fs.parserProcessHeap != null) return false;
+        if (extractionCache != fs.extractionCache) return false;
+        if (extractionCacheSize != null ? !extractionCacheSize.equals(fs.extractionCacheSize) : fs.extractionCacheSize != null) return false;
+        if (documentStore != fs.documentStore) return false;
+        if (fastTextExtraction != fs.fastTextExtraction) return false;
+        if (fetchQueueSize != fs.fetchQueueSize) return false;
+        if (extractQueueSize != fs.extractQueueSize) return false;
+        if (serializeQueueSize != fs.serializeQueueSize) return false;
+        if (bulkQueueSize != fs.bulkQueueSize) return false;
         return checksum != null ? checksum.equals(fs.checksum) : fs.checksum == null;
 
     }
@@ -376,6 +805,31 @@ public class Fs {
         result = 31 * result + (attributesSupport ? 1 : 0);
         result = 31 * result + (rawMetadata ? 1 : 0);
         result = 31 * result + (checksum != null ? checksum.hashCode() : 0);
+        result = 31 * result + walkerThreads;
+        result = 31 * result + (pipeline ? 1 : 0);
+        result = 31 * result + queueSize;
+        result = 31 * result + fetchThreads;
+        result = 31 * result + serializeThreads;
+        result = 31 * result + parserThreads;
+        result = 31 * result + (fileState ? 1 : 0);
+        result = 31 * result + (pruneDirectories ? 1 : 0);
+        result = 31 * result + (watch ? 1 : 0);
+        result = 31 * result + (debounce != null ? debounce.hashCode() : 0);
+        result = 31 * result + (debounceMaxDelay != null ? debounceMaxDelay.hashCode() : 0);
+        result = 31 * result + (checkpointInterval != null ? checkpointInterval.hashCode() : 0);
+        result = 31 * result + (breadthFirst ? 1 : 0);
+        result = 31 * result + (expandArchives ? 1 : 0);
+        result = 31 * result + (parseTimeout != null ? parseTimeout.hashCode() : 0);
+        result = 31 * result + parserProcesses;
+        result = 31 * result + (parserProcessHeap != null ? parserProcessHeap.hashCode() : 0);
+        result = 31 * result + (extractionCache ? 1 : 0);
+        result = 31 * result + (extractionCacheSize != null ? extractionCacheSize.hashCode() : 0);
+        result = 31 * result + (documentStore ? 1 : 0);
+        result = 31 * result + (fastTextExtraction ? 1 : 0);
+        result = 31 * result + fetchQueueSize;
+        result = 31 * result + extractQueueSize;
+        result = 31 * result + serializeQueueSize;
+        result = 31 * result + bulkQueueSize;
         return result;
     }
 }
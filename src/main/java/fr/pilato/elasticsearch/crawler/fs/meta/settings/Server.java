@@ -19,21 +19,33 @@
 
 package fr.pilato.elasticsearch.crawler.fs.meta.settings;
 
+import fr.pilato.elasticsearch.crawler.fs.FsCrawlerImpl.LISTING;
 import fr.pilato.elasticsearch.crawler.fs.FsCrawlerImpl.PROTOCOL;
 
 public class Server {
 
+    public static final int DEFAULT_READ_AHEAD = 16;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
     public Server() {
 
     }
 
-    private Server(String hostname, int port, String username, String password, String protocol, String pemPath) {
+    private Server(String hostname, int port, String username, String password, String protocol, String pemPath, int maxChannels, int readAhead, int bufferSize, boolean compression, String listing, boolean remoteChecksum, String endpoint, String region) {
         this.hostname = hostname;
         this.port = port;
         this.username = username;
         this.password = password;
         this.protocol = protocol;
         this.pemPath = pemPath;
+        this.maxChannels = maxChannels;
+        this.readAhead = readAhead;
+        this.bufferSize = bufferSize;
+        this.compression = compression;
+        this.listing = listing;
+        this.remoteChecksum = remoteChecksum;
+        this.endpoint = endpoint;
+        this.region = region;
     }
 
     private String hostname;
@@ -42,6 +54,14 @@ public class Server {
     private String password;
     private String protocol;
     private String pemPath;
+    private int maxChannels;
+    private int readAhead;
+    private int bufferSize;
+    private boolean compression;
+    private String listing;
+    private boolean remoteChecksum;
+    private String endpoint;
+    private String region;
 
     public String getHostname() {
         return hostname;
@@ -91,6 +111,70 @@ public class Server {
         this.pemPath = pemPath;
     }
 
+    public int getMaxChannels() {
+        return maxChannels;
+    }
+
+    public void setMaxChannels(int maxChannels) {
+        this.maxChannels = maxChannels;
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    public void setReadAhead(int readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public String getListing() {
+        return listing;
+    }
+
+    public void setListing(String listing) {
+        this.listing = listing;
+    }
+
+    public boolean isRemoteChecksum() {
+        return remoteChecksum;
+    }
+
+    public void setRemoteChecksum(boolean remoteChecksum) {
+        this.remoteChecksum = remoteChecksum;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -102,6 +186,14 @@ public class Server {
         private String password = null;
         private String protocol = PROTOCOL.LOCAL;
         private String pemPath = null;
+        private int maxChannels = 1;
+        private int readAhead = DEFAULT_READ_AHEAD;
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private boolean compression = false;
+        private String listing = LISTING.SFTP;
+        private boolean remoteChecksum = false;
+        private String endpoint = null;
+        private String region = "us-east-1";
 
         public Builder setHostname(String hostname) {
             this.hostname = hostname;
@@ -133,8 +225,48 @@ public class Server {
             return this;
         }
 
+        public Builder setMaxChannels(int maxChannels) {
+            this.maxChannels = maxChannels;
+            return this;
+        }
+
+        public Builder setReadAhead(int readAhead) {
+            this.readAhead = readAhead;
+            return this;
+        }
+
+        public Builder setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public Builder setCompression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        public Builder setListing(String listing) {
+            this.listing = listing;
+            return this;
+        }
+
+        public Builder setRemoteChecksum(boolean remoteChecksum) {
+            this.remoteChecksum = remoteChecksum;
+            return this;
+        }
+
+        public Builder setEndpoint(String endpoint) {
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        public Builder setRegion(String region) {
+            this.region = region;
+            return this;
+        }
+
         public Server build() {
-            return new Server(hostname, port, username, password, protocol, pemPath);
+            return new Server(hostname, port, username, password, protocol, pemPath, maxChannels, readAhead, bufferSize, compression, listing, remoteChecksum, endpoint, region);
         }
     }
 
@@ -150,6 +282,14 @@ public class Server {
         if (username != null ? !username.equals(server.username) : server.username != null) return false;
         if (password != null ? !password.equals(server.password) : server.password != null) return false;
         if (protocol != null ? !protocol.equals(server.protocol) : server.protocol != null) return false;
+        if (maxChannels != server.maxChannels) return false;
+        if (readAhead != server.readAhead) return false;
+        if (bufferSize != server.bufferSize) return false;
+        if (compression != server.compression) return false;
+        if (listing != null ? !listing.equals(server.listing) : server.listing != null) return false;
+        if (remoteChecksum != server.remoteChecksum) return false;
+        if (endpoint != null ? !endpoint.equals(server.endpoint) : server.endpoint != null) return false;
+        if (region != null ? !region.equals(server.region) : server.region != null) return false;
         return !(pemPath != null ? !pemPath.equals(server.pemPath) : server.pemPath != null);
 
     }
@@ -162,6 +302,14 @@ public class Server {
         result = 31 * result + (password != null ? password.hashCode() : 0);
         result = 31 * result + (protocol != null ? protocol.hashCode() : 0);
         result = 31 * result + (pemPath != null ? pemPath.hashCode() : 0);
+        result = 31 * result + maxChannels;
+        result = 31 * result + readAhead;
+        result = 31 * result + bufferSize;
+        result = 31 * result + (compression ? 1 : 0);
+        result = 31 * result + (listing != null ? listing.hashCode() : 0);
+        result = 31 * result + (remoteChecksum ? 1 : 0);
+        result = 31 * result + (endpoint != null ? endpoint.hashCode() : 0);
+        result = 31 * result + (region != null ? region.hashCode() : 0);
         return result;
     }
 }
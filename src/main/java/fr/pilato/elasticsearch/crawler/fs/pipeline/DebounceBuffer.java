@@ -0,0 +1,283 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.pipeline;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesce the changes of the same key. A value is only given to the handler when its key has not changed
+ * for a quiet period, or at most after a max delay since its first change, so only the last value of
+ * a burst of changes is processed.
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class DebounceBuffer<K, V> {
+
+    private static final Logger logger = LogManager.getLogger(DebounceBuffer.class);
+
+    private static class Pending<V> {
+        private V value;
+        private final long firstChange;
+        private long lastChange;
+
+        private Pending(V value, long now) {
+            this.value = value;
+            this.firstChange = now;
+            this.lastChange = now;
+        }
+    }
+
+    private final String name;
+    private final long quietPeriod;
+    private final long maxDelay;
+    private final PipelineStage.Handler<V> handler;
+    private final Thread thread;
+
+    // Ordered by last change as we move a key to the end when it changes again
+    private final LinkedHashMap<K, Pending<V>> pending = new LinkedHashMap<>();
+    // Keys ordered by first change, to find the ones which reached the max delay
+    private final Deque<Map.Entry<K, Long>> firstChanges = new ArrayDeque<>();
+    // Values which have been taken from the buffer but not given to the handler yet
+    private int releasing = 0;
+    private volatile boolean closed = false;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+
+    /**
+     * @param name        name of the thread releasing values
+     * @param quietPeriod time in milliseconds without any change before we release a value
+     * @param maxDelay    max time in milliseconds we can wait for a value after its first change
+     * @param handler     called for each released value
+     */
+    public DebounceBuffer(String name, long quietPeriod, long maxDelay, PipelineStage.Handler<V> handler) {
+        this.name = name;
+        this.quietPeriod = quietPeriod;
+        this.maxDelay = Math.max(quietPeriod, maxDelay);
+        this.handler = handler;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Add a value. If a value is already waiting for the same key, it is replaced.
+     * @return the value which has been replaced, if any. It will never be given to the handler.
+     */
+    public synchronized V submit(K key, V value) {
+        received.incrementAndGet();
+        long now = System.currentTimeMillis();
+        V replaced = null;
+        Pending<V> existing = pending.remove(key);
+        if (existing != null) {
+            collapsed.incrementAndGet();
+            replaced = existing.value;
+            existing.value = value;
+            existing.lastChange = now;
+            pending.put(key, existing);
+        } else {
+            pending.put(key, new Pending<>(value, now));
+            firstChanges.add(new AbstractMap.SimpleImmutableEntry<>(key, now));
+        }
+        notifyAll();
+        return replaced;
+    }
+
+    /**
+     * Remove the value waiting for a key, if any
+     * @return the value which has been removed or null. It will never be given to the handler.
+     */
+    public synchronized V cancel(K key) {
+        Pending<V> removed = pending.remove(key);
+        if (removed != null) {
+            cancelled.incrementAndGet();
+            return removed.value;
+        }
+        return null;
+    }
+
+    /**
+     * Give all the waiting values to the handler now and wait for the values being released
+     */
+    public void flush() throws InterruptedException {
+        List<V> values;
+        synchronized (this) {
+            values = new ArrayList<>(pending.size());
+            for (Pending<V> p : pending.values()) {
+                values.add(p.value);
+            }
+            pending.clear();
+            firstChanges.clear();
+            releasing += values.size();
+        }
+        release(values);
+        synchronized (this) {
+            while (releasing > 0) {
+                wait();
+            }
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            List<V> values;
+            try {
+                values = takeReady();
+            } catch (InterruptedException e) {
+                return;
+            }
+            release(values);
+        }
+    }
+
+    /**
+     * Wait for values which are ready to be released and remove them from the buffer
+     */
+    private synchronized List<V> takeReady() throws InterruptedException {
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            List<V> values = new ArrayList<>();
+
+            // Keys which did not change during the quiet period
+            Iterator<Pending<V>> iterator = pending.values().iterator();
+            while (iterator.hasNext()) {
+                Pending<V> p = iterator.next();
+                if (p.lastChange + quietPeriod > now) {
+                    break;
+                }
+                values.add(p.value);
+                iterator.remove();
+            }
+
+            // Keys which keep changing for too long
+            while (!firstChanges.isEmpty()) {
+                Map.Entry<K, Long> first = firstChanges.peek();
+                Pending<V> p = pending.get(first.getKey());
+                if (p == null || p.firstChange != first.getValue()) {
+                    // Already released
+                    firstChanges.poll();
+                } else if (p.firstChange + maxDelay <= now) {
+                    values.add(p.value);
+                    pending.remove(first.getKey());
+                    firstChanges.poll();
+                } else {
+                    break;
+                }
+            }
+
+            if (!values.isEmpty()) {
+                releasing += values.size();
+                return values;
+            }
+
+            // Let's wait for the next value to be ready
+            long next = Long.MAX_VALUE;
+            if (!pending.isEmpty()) {
+                next = pending.values().iterator().next().lastChange + quietPeriod;
+            }
+            if (!firstChanges.isEmpty()) {
+                next = Math.min(next, firstChanges.peek().getValue() + maxDelay);
+            }
+            if (next == Long.MAX_VALUE) {
+                wait();
+            } else {
+                wait(Math.max(1, next - now));
+            }
+        }
+        throw new InterruptedException();
+    }
+
+    private void release(List<V> values) {
+        for (V value : values) {
+            try {
+                handler.handle(value);
+                released.incrementAndGet();
+            } catch (InterruptedException e) {
+                logger.debug("[{}] has been interrupted", name);
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.warn("Error while processing [{}] in [{}]: {}", value, name, e.getMessage());
+                logger.debug("Full stack trace", e);
+            } finally {
+                synchronized (this) {
+                    releasing--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of values waiting in the buffer
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * @return number of values submitted to the buffer
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * @return number of values which replaced a waiting value for the same key
+     */
+    public long getCollapsed() {
+        return collapsed.get();
+    }
+
+    /**
+     * @return number of waiting values which have been cancelled
+     */
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * @return number of values given to the handler
+     */
+    public long getReleased() {
+        return released.get();
+    }
+
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            notifyAll();
+        }
+        thread.interrupt();
+    }
+}
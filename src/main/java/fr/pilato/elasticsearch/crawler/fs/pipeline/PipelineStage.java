@@ -0,0 +1,197 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.pipeline;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A stage of the indexing pipeline: a bounded queue consumed by its own pool of worker threads.
+ * Producers block when the queue is full, which gives us backpressure between stages.
+ * @param <T> type of the items processed by this stage
+ */
+public class PipelineStage<T> {
+
+    private static final Logger logger = LogManager.getLogger(PipelineStage.class);
+
+    private static final long POLLING_WAIT_MS = 100;
+
+    @FunctionalInterface
+    public interface Handler<T> {
+        void handle(T item) throws Exception;
+    }
+
+    private final String name;
+    private final int threads;
+    private final BlockingQueue<T> queue;
+    private final ExecutorService executor;
+    private final Handler<T> handler;
+    private final Consumer<T> dropped;
+    // Items submitted to this stage which have not been fully processed yet
+    private final AtomicLong pending = new AtomicLong();
+    private final Object idle = new Object();
+    private volatile boolean closed = false;
+
+    public PipelineStage(String name, int threads, int queueSize, Handler<T> handler) {
+        this(name, threads, queueSize, handler, item -> {});
+    }
+
+    /**
+     * @param dropped called for each item still waiting in the queue when the stage is closed
+     */
+    public PipelineStage(String name, int threads, int queueSize, Handler<T> handler, Consumer<T> dropped) {
+        this.name = name;
+        this.threads = threads;
+        this.handler = handler;
+        this.dropped = dropped;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            executor.execute(this::consume);
+        }
+        logger.debug("Pipeline stage [{}] started with [{}] threads and a queue of [{}]", name, threads, queueSize);
+    }
+
+    /**
+     * Add an item to this stage. Blocks while the queue is full.
+     * @param item item to process
+     * @return false if the stage has been closed and the item has been ignored
+     * @throws InterruptedException if interrupted while waiting for some room in the queue
+     */
+    public boolean submit(T item) throws InterruptedException {
+        pending.incrementAndGet();
+        try {
+            while (!queue.offer(item, POLLING_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    logger.warn("Pipeline stage [{}] is closed. [{}] has been ignored", name, item);
+                    done();
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            done();
+            throw e;
+        }
+        // The stage has been closed meanwhile and might not have seen our item
+        if (closed && queue.remove(item)) {
+            logger.warn("Pipeline stage [{}] is closed. [{}] has been ignored", name, item);
+            done();
+            return false;
+        }
+        return true;
+    }
+
+    private void consume() {
+        while (!closed) {
+            T item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                handler.handle(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.warn("Pipeline stage [{}] failed to process [{}]: {}", name, item, e.getMessage());
+                logger.debug("Full stack trace", e);
+            } finally {
+                done();
+            }
+        }
+    }
+
+    private void done() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until all the items submitted to this stage have been processed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (idle) {
+            while (pending.get() > 0 && !closed) {
+                idle.wait(POLLING_WAIT_MS);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the number of items waiting in the queue
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        executor.shutdownNow();
+        List<T> waiting = new ArrayList<>();
+        queue.drainTo(waiting);
+        for (T item : waiting) {
+            try {
+                dropped.accept(item);
+            } catch (Exception e) {
+                logger.warn("Pipeline stage [{}] failed to release [{}]: {}", name, item, e.getMessage());
+            } finally {
+                done();
+            }
+        }
+        logger.debug("Pipeline stage [{}] is now closed. [{}] items dropped.", name, waiting.size());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.state;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Track the directories of a run which are not done yet: the ones we found but did not crawl, and the
+ * ones whose files are still being indexed. This is what we need to crawl again to resume a stopped run.
+ */
+public class CrawlFrontier {
+
+    // For each directory, 1 until it has been crawled + the number of its files still being indexed
+    private final Map<String, Long> directories = new ConcurrentHashMap<>();
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * A directory has been found and needs to be crawled
+     */
+    public void discovered(String dir) {
+        directories.merge(dir, 1L, Long::sum);
+    }
+
+    /**
+     * A file of a directory has been sent to the indexing pipeline
+     */
+    public void fileSubmitted(String dir) {
+        directories.merge(dir, 1L, Long::sum);
+    }
+
+    /**
+     * A file of a directory is done, whether it has been indexed or not
+     */
+    public void fileDone(String dir) {
+        release(dir);
+    }
+
+    /**
+     * A directory has been crawled
+     * @param dir     the directory
+     * @param subdirs the subdirectories we found in it
+     */
+    public void crawled(String dir, Collection<String> subdirs) {
+        for (String subdir : subdirs) {
+            discovered(subdir);
+        }
+        release(dir);
+    }
+
+    private void release(String dir) {
+        directories.computeIfPresent(dir, (key, count) -> {
+            if (count > 1) {
+                return count - 1;
+            }
+            completed.incrementAndGet();
+            return null;
+        });
+    }
+
+    /**
+     * @return the directories which are not done yet
+     */
+    public List<String> getPending() {
+        return new ArrayList<>(directories.keySet());
+    }
+
+    /**
+     * @return the number of directories which are done
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Forget everything
+     */
+    public void clear() {
+        directories.clear();
+        completed.set(0);
+    }
+
+    /**
+     * Remove from a list of directories the ones which are a subdirectory of another one of the list,
+     * as crawling the parent directory crawls them again anyway.
+     * @param dirs directories
+     * @return the directories we need to crawl
+     */
+    public static List<String> roots(Collection<String> dirs) {
+        Set<String> all = new HashSet<>();
+        for (String dir : dirs) {
+            all.add(withoutTrailingSeparator(dir));
+        }
+
+        List<String> roots = new ArrayList<>();
+        for (String dir : dirs) {
+            boolean hasParent = false;
+            String parent = withoutTrailingSeparator(dir);
+            int pos;
+            while (!hasParent && (pos = parent.lastIndexOf(File.separatorChar)) > 0) {
+                parent = parent.substring(0, pos);
+                hasParent = all.contains(parent);
+            }
+            if (!hasParent) {
+                roots.add(dir);
+            }
+        }
+        return roots;
+    }
+
+    private static String withoutTrailingSeparator(String dir) {
+        return dir.length() > 1 && dir.endsWith(File.separator) ? dir.substring(0, dir.length() - 1) : dir;
+    }
+}
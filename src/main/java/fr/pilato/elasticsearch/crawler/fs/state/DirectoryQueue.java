@@ -0,0 +1,241 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.state;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A FIFO queue of directories to crawl which keeps at most a given number of entries in memory.
+ * When the memory part is full, new entries are appended to a spill file and read back once the
+ * memory part is empty, so the order is preserved whatever the size of the queue.
+ * <p>
+ * The queue can be saved in the job directory and loaded again to resume a crawl.
+ */
+public class DirectoryQueue implements Closeable {
+
+    public static final String FILENAME = "_frontier";
+    private static final String SPILL_FILENAME = "_frontier.spill";
+
+    private final Path saveFile;
+    private final Path spillFile;
+    private final int maxInMemory;
+    private final Deque<String> memory = new ArrayDeque<>();
+
+    // Entries in the spill file which have not been read back yet
+    private long spilled;
+    private DataOutputStream spillOut;
+    private DataInputStream spillIn;
+    // Position of the first entry we did not read back yet
+    private long spillReadOffset;
+
+    private DirectoryQueue(Path jobDir, int maxInMemory) {
+        this.saveFile = jobDir.resolve(FILENAME);
+        this.spillFile = jobDir.resolve(SPILL_FILENAME);
+        this.maxInMemory = maxInMemory;
+    }
+
+    /**
+     * Open an empty queue
+     * @param jobDir      job directory (~/.fscrawler/{job_name})
+     * @param maxInMemory maximum number of entries kept in memory
+     * @param load        true to load the entries which have been saved in the job directory
+     */
+    public static DirectoryQueue open(Path jobDir, int maxInMemory, boolean load) throws IOException {
+        DirectoryQueue queue = new DirectoryQueue(jobDir, maxInMemory);
+        Files.createDirectories(jobDir);
+        Files.deleteIfExists(queue.spillFile);
+        if (load && Files.exists(queue.saveFile)) {
+            // The saved queue becomes our spill file
+            Files.copy(queue.saveFile, queue.spillFile);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(queue.spillFile)))) {
+                while (read(in) != null) {
+                    queue.spilled++;
+                }
+            }
+        }
+        return queue;
+    }
+
+    public synchronized void add(String dir) throws IOException {
+        if (spilled == 0 && memory.size() < maxInMemory) {
+            memory.addLast(dir);
+            return;
+        }
+        if (spillOut == null) {
+            spillOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        }
+        write(spillOut, dir);
+        spilled++;
+    }
+
+    /**
+     * @return the next directory to crawl, without removing it. Null if the queue is empty.
+     */
+    public synchronized String peek() throws IOException {
+        if (memory.isEmpty() && spilled > 0) {
+            readBack();
+        }
+        return memory.peekFirst();
+    }
+
+    /**
+     * Remove the next directory to crawl
+     */
+    public synchronized String remove() throws IOException {
+        String dir = peek();
+        memory.pollFirst();
+        return dir;
+    }
+
+    public synchronized long size() {
+        return memory.size() + spilled;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private void readBack() throws IOException {
+        if (spillOut != null) {
+            spillOut.flush();
+        }
+        if (spillIn == null) {
+            spillIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)));
+        }
+        for (int i = 0; i < maxInMemory && spilled > 0; i++) {
+            String dir = read(spillIn);
+            memory.addLast(dir);
+            spillReadOffset += recordSize(dir);
+            spilled--;
+        }
+        if (spilled == 0) {
+            // Everything has been read back. We can start again with an empty file.
+            closeSpill();
+        }
+    }
+
+    /**
+     * Save the content of the queue in the job directory so it can be loaded later
+     */
+    public synchronized void save() throws IOException {
+        Path tmp = saveFile.resolveSibling(FILENAME + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            for (String dir : memory) {
+                write(out, dir);
+            }
+            if (spilled > 0) {
+                // A loaded queue has spilled entries but nothing has been written since
+                if (spillOut != null) {
+                    spillOut.flush();
+                }
+                try (InputStream in = Files.newInputStream(spillFile)) {
+                    long skipped = 0;
+                    while (skipped < spillReadOffset) {
+                        skipped += in.skip(spillReadOffset - skipped);
+                    }
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, saveFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return true if a queue has been saved in the job directory
+     */
+    public static boolean isSaved(Path jobDir) {
+        return Files.exists(jobDir.resolve(FILENAME));
+    }
+
+    /**
+     * Remove the saved queue from the job directory
+     */
+    public static void removeSaved(Path jobDir) throws IOException {
+        Files.deleteIfExists(jobDir.resolve(FILENAME));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        memory.clear();
+        spilled = 0;
+        closeSpill();
+    }
+
+    private void closeSpill() throws IOException {
+        if (spillOut != null) {
+            spillOut.close();
+            spillOut = null;
+        }
+        if (spillIn != null) {
+            spillIn.close();
+            spillIn = null;
+        }
+        spillReadOffset = 0;
+        Files.deleteIfExists(spillFile);
+    }
+
+    private static void write(DataOutputStream out, String dir) throws IOException {
+        byte[] bytes = dir.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long recordSize(String dir) {
+        return 4 + dir.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
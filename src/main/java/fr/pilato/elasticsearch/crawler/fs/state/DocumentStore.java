@@ -0,0 +1,221 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.state;
+
+import fr.pilato.elasticsearch.crawler.fs.SignTool;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static fr.pilato.elasticsearch.crawler.fs.tika.ForkedParser.readString;
+import static fr.pilato.elasticsearch.crawler.fs.tika.ForkedParser.writeString;
+
+/**
+ * Local copy of the documents we sent to elasticsearch, kept in ~/.fscrawler/{job_name}/_documents.
+ * <p>
+ * Each document is a gzip file named after the signature of its id, in a directory named after its type.
+ * It contains the id and the JSon document, so we can index again all the documents of a job, for example
+ * in a new index with another mapping, without reading the files and extracting their content again.
+ */
+public class DocumentStore implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(DocumentStore.class);
+
+    public static final String DIRNAME = "_documents";
+
+    private static final String SUFFIX = ".gz";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int VERSION = 1;
+
+    private final Path dir;
+
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder removed = new LongAdder();
+
+    /**
+     * A document as we sent it to elasticsearch
+     */
+    public static class Document {
+        private final String type;
+        private final String id;
+        private final String json;
+
+        private Document(String type, String id, String json) {
+            this.type = type;
+            this.id = id;
+            this.json = json;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getJson() {
+            return json;
+        }
+    }
+
+    private DocumentStore(Path dir) throws IOException {
+        this.dir = dir;
+
+        // Leftovers of a previous run
+        try (Stream<Path> stream = Files.walk(dir)) {
+            for (Path file : stream.filter(file -> file.getFileName().toString().endsWith(TMP_SUFFIX))
+                    .collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+        logger.debug("Document store [{}] opened", dir);
+    }
+
+    /**
+     * Open (or create) the document store of a job
+     * @param jobDir the job directory, like ~/.fscrawler/{job_name}
+     * @return the store
+     * @throws IOException in case of error while reading or creating the store
+     */
+    public static DocumentStore open(Path jobDir) throws IOException {
+        Path dir = jobDir.resolve(DIRNAME);
+        Files.createDirectories(dir);
+        return new DocumentStore(dir);
+    }
+
+    /**
+     * Add or replace a document. Errors are logged and ignored.
+     * @param type the elasticsearch type
+     * @param id the elasticsearch id
+     * @param json the JSon document
+     */
+    public void put(String type, String id, String json) {
+        Path file = file(type, id);
+        Path tmp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tmp = Files.createTempFile(dir, "doc-", TMP_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))) {
+                out.writeInt(VERSION);
+                writeString(out, id);
+                writeString(out, json);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            stored.increment();
+        } catch (IOException e) {
+            logger.warn("Can not add [{}/{}] to the document store: {}", type, id, e.getMessage());
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // Will be removed when opening the store again
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a document if we have it. Errors are logged and ignored.
+     * @param type the elasticsearch type
+     * @param id the elasticsearch id
+     */
+    public void remove(String type, String id) {
+        try {
+            if (Files.deleteIfExists(file(type, id))) {
+                removed.increment();
+            }
+        } catch (IOException e) {
+            logger.warn("Can not remove [{}/{}] from the document store: {}", type, id, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the files of all the documents we have. They are read from the disk while the stream is consumed,
+     * so the stream must be closed.
+     */
+    public Stream<Path> list() throws IOException {
+        return Files.walk(dir).filter(file -> file.getFileName().toString().endsWith(SUFFIX));
+    }
+
+    /**
+     * Read a document
+     * @param file one of the files given by {@link #list()}
+     * @return the document
+     * @throws IOException if the file can not be read
+     */
+    public Document read(Path file) throws IOException {
+        // {type}/{2 first chars}/{md5}.gz
+        String type = dir.relativize(file).getName(0).toString();
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file))))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unknown document version [" + version + "]");
+            }
+            String id = readString(in);
+            String json = readString(in);
+            return new Document(type, id, json);
+        }
+    }
+
+    /**
+     * @return the number of documents added or replaced since the store has been opened
+     */
+    public long getStored() {
+        return stored.sum();
+    }
+
+    /**
+     * @return the number of documents removed since the store has been opened
+     */
+    public long getRemoved() {
+        return removed.sum();
+    }
+
+    @Override
+    public void close() {
+        logger.debug("Document store [{}] closed: [{}] documents stored, [{}] removed", dir, getStored(), getRemoved());
+    }
+
+    private Path file(String type, String id) {
+        String md5;
+        try {
+            md5 = SignTool.sign(id);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 is not available", e);
+        }
+        return dir.resolve(type).resolve(md5.substring(0, 2)).resolve(md5 + SUFFIX);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.state;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * What we remember about a file or a directory between two runs
+ */
+public class FileState {
+
+    private final boolean directory;
+    private final long lastModified;
+    private final long size;
+    private final long inode;
+    private final long checksum;
+
+    /**
+     * @param directory    true if this is a directory
+     * @param lastModified last modification date in milliseconds since epoch
+     * @param size         file size in bytes
+     * @param inode        inode (or any other file system key) fingerprint. 0 if unknown.
+     * @param checksum     checksum fingerprint (see {@link #fingerprint(String)}). 0 if unknown.
+     */
+    public FileState(boolean directory, long lastModified, long size, long inode, long checksum) {
+        this.directory = directory;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.inode = inode;
+        this.checksum = checksum;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getInode() {
+        return inode;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Check if a file has changed since we stored its state. Dates are compared exactly so a file restored
+     * with an older date is detected as well.
+     * @param lastModified current last modification date in milliseconds since epoch
+     * @param size         current file size
+     * @param inode        current inode fingerprint. 0 if unknown.
+     * @return true if the file needs to be indexed again
+     */
+    public boolean isModified(long lastModified, long size, long inode) {
+        return this.lastModified != lastModified
+                || this.size != size
+                || (inode != 0 && this.inode != 0 && this.inode != inode);
+    }
+
+    /**
+     * Compute a compact 64 bits fingerprint of a String like a checksum or a file key
+     * @param value the value. Can be null.
+     * @return the fingerprint or 0 if value is null
+     */
+    public static long fingerprint(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            long fingerprint = ByteBuffer.wrap(md.digest(value.getBytes(StandardCharsets.UTF_8))).getLong();
+            // 0 means unknown
+            return fingerprint == 0 ? 1 : fingerprint;
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 is not available", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        FileState fileState = (FileState) o;
+
+        if (directory != fileState.directory) return false;
+        if (lastModified != fileState.lastModified) return false;
+        if (size != fileState.size) return false;
+        if (inode != fileState.inode) return false;
+        return checksum == fileState.checksum;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (directory ? 1 : 0);
+        result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+        result = 31 * result + (int) (size ^ (size >>> 32));
+        result = 31 * result + (int) (inode ^ (inode >>> 32));
+        result = 31 * result + (int) (checksum ^ (checksum >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("FileState{");
+        sb.append("directory=").append(directory);
+        sb.append(", lastModified=").append(lastModified);
+        sb.append(", size=").append(size);
+        sb.append(", inode=").append(inode);
+        sb.append(", checksum=").append(checksum);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,625 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.state;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Persistent store of the files and directories state, kept in ~/.fscrawler/{job_name}/_state.
+ * <p>
+ * This is an open addressing hash table stored in a memory mapped file. Entries have a fixed size and are
+ * keyed by the MD5 signature of the path, so the store does not keep paths on the heap and can hold
+ * tens of millions of entries. The table doubles its capacity when it is 70% full.
+ * <p>
+ * Each entry also remembers the last run which has seen it so we can find entries which disappeared.
+ */
+public class FileStateStore implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(FileStateStore.class);
+
+    public static final String DIRNAME = "_state";
+    public static final String FILENAME = "files.idx";
+    public static final String DIRS_FILENAME = "dirs.log";
+
+    private static final long MAGIC = 0x4653435241574C52L; // FSCRAWLR
+    private static final int VERSION = 1;
+
+    // Header layout
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 8;
+    private static final int H_CAPACITY = 16;
+    private static final int H_SIZE = 24;
+    private static final int H_USED = 32;
+    private static final int H_RUN = 40;
+    private static final int H_DIRS_LIVE = 48;
+
+    // Entry layout
+    private static final int ENTRY_SIZE = 88;
+    private static final int E_KEY = 0;
+    private static final int E_PARENT = 16;
+    private static final int E_MTIME = 32;
+    private static final int E_SIZE = 40;
+    private static final int E_INODE = 48;
+    private static final int E_CHECKSUM = 56;
+    private static final int E_EXTRA = 64;
+    private static final int E_SEEN = 72;
+    private static final int E_PRUNED = 76;
+    private static final int E_FLAGS = 80;
+
+    private static final int FLAG_USED = 1;
+    private static final int FLAG_DELETED = 2;
+    private static final int FLAG_DIRECTORY = 4;
+
+    private static final long INITIAL_CAPACITY = 1024;
+    private static final long MIN_DIRS_COMPACT_SIZE = 1024 * 1024;
+    private static final double MAX_LOAD_FACTOR = 0.7;
+    // A mapped buffer can not be bigger than 2gb so we map the entries by segments of about 1gb
+    private static final int ENTRIES_PER_SEGMENT = (1 << 30) / ENTRY_SIZE;
+
+    private final Path file;
+    private final Path dirsFile;
+    private Table table;
+    // Append only log of the subdirectories of each directory
+    private FileChannel dirs;
+
+    private FileStateStore(Path file) throws IOException {
+        this.file = file;
+        this.dirsFile = file.resolveSibling(DIRS_FILENAME);
+        if (Files.notExists(file)) {
+            Table.create(file, INITIAL_CAPACITY, 0).close();
+            Files.deleteIfExists(dirsFile);
+        }
+        this.table = Table.open(file);
+        this.dirs = FileChannel.open(dirsFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logger.debug("File state store [{}] opened with [{}] entries", file, table.size);
+    }
+
+    /**
+     * Open (or create) the state store for a job
+     * @param jobDir the job directory, like ~/.fscrawler/{job_name}
+     * @return the store
+     * @throws IOException in case of error while reading or creating the store
+     */
+    public static FileStateStore open(Path jobDir) throws IOException {
+        Path dir = jobDir.resolve(DIRNAME);
+        Files.createDirectories(dir);
+        return new FileStateStore(dir.resolve(FILENAME));
+    }
+
+    /**
+     * Start a new run. Entries updated or marked as seen from now on will be flagged with this run number.
+     * @return the new run number
+     */
+    public synchronized int startRun() {
+        int run = table.header.getInt(H_RUN) + 1;
+        table.header.putInt(H_RUN, run);
+        return run;
+    }
+
+    /**
+     * @return the current run number
+     */
+    public synchronized int getRun() {
+        return table.header.getInt(H_RUN);
+    }
+
+    /**
+     * @return number of entries in the store
+     */
+    public synchronized long size() {
+        return table.size;
+    }
+
+    public synchronized FileState get(String path) {
+        long[] key = key(path);
+        long slot = table.lookup(key[0], key[1]);
+        if (slot < 0) {
+            return null;
+        }
+        return read(slot);
+    }
+
+    private FileState read(long slot) {
+        ByteBuffer segment = table.segment(slot);
+        int offset = table.offset(slot);
+        return new FileState((segment.getInt(offset + E_FLAGS) & FLAG_DIRECTORY) != 0,
+                segment.getLong(offset + E_MTIME),
+                segment.getLong(offset + E_SIZE),
+                segment.getLong(offset + E_INODE),
+                segment.getLong(offset + E_CHECKSUM));
+    }
+
+    /**
+     * Add or update the state of a path and mark it as seen during the current run
+     * @param path   the path
+     * @param parent the parent directory path. Can be null for the root directory.
+     * @param state  the state to store
+     * @throws IOException in case of error while growing the store
+     */
+    public synchronized void put(String path, String parent, FileState state) throws IOException {
+        long[] key = key(path);
+        long[] parentKey = parent == null ? new long[] {0, 0} : key(parent);
+        long slot = table.lookup(key[0], key[1]);
+        if (slot < 0) {
+            if (table.used + 1 > table.capacity * MAX_LOAD_FACTOR) {
+                grow();
+                slot = table.lookup(key[0], key[1]);
+            }
+            slot = -1 - slot;
+            table.insert(slot, key[0], key[1]);
+        }
+
+        ByteBuffer segment = table.segment(slot);
+        int offset = table.offset(slot);
+        segment.putLong(offset + E_PARENT, parentKey[0]);
+        segment.putLong(offset + E_PARENT + 8, parentKey[1]);
+        segment.putLong(offset + E_MTIME, state.getLastModified());
+        segment.putLong(offset + E_SIZE, state.getSize());
+        segment.putLong(offset + E_INODE, state.getInode());
+        segment.putLong(offset + E_CHECKSUM, state.getChecksum());
+        segment.putInt(offset + E_SEEN, getRun());
+        segment.putInt(offset + E_FLAGS, FLAG_USED | (state.isDirectory() ? FLAG_DIRECTORY : 0));
+    }
+
+    /**
+     * Mark a path as seen during the current run without changing its state
+     * @param path the path
+     * @return false if the path is unknown
+     */
+    public synchronized boolean markSeen(String path) {
+        long[] key = key(path);
+        long slot = table.lookup(key[0], key[1]);
+        if (slot < 0) {
+            return false;
+        }
+        table.segment(slot).putInt(table.offset(slot) + E_SEEN, getRun());
+        return true;
+    }
+
+    /**
+     * Store the state of a directory once all its content has been crawled and mark it as seen during
+     * the current run
+     * @param path    the directory path
+     * @param state   the directory state. Only its modification date and inode are used.
+     * @param subdirs the subdirectories we need to crawl
+     * @throws IOException in case of error while writing the subdirectories
+     */
+    public synchronized void putDirectory(String path, FileState state, Collection<String> subdirs) throws IOException {
+        long[] key = key(path);
+        long slot = table.lookup(key[0], key[1]);
+        if (slot < 0) {
+            if (table.used + 1 > table.capacity * MAX_LOAD_FACTOR) {
+                grow();
+                slot = table.lookup(key[0], key[1]);
+            }
+            slot = -1 - slot;
+            table.insert(slot, key[0], key[1]);
+        }
+
+        ByteBuffer segment = table.segment(slot);
+        int offset = table.offset(slot);
+        freeSubdirs(segment.getLong(offset + E_EXTRA));
+        segment.putLong(offset + E_EXTRA, writeSubdirs(subdirs));
+        segment.putLong(offset + E_MTIME, state.getLastModified());
+        segment.putLong(offset + E_SIZE, state.getSize());
+        segment.putLong(offset + E_INODE, state.getInode());
+        segment.putInt(offset + E_SEEN, getRun());
+        segment.putInt(offset + E_FLAGS, FLAG_USED | FLAG_DIRECTORY);
+    }
+
+    /**
+     * Check if a directory has changed since we stored its state with {@link #putDirectory(String, FileState, Collection)}.
+     * If not, the directory and everything it contains are considered as seen during the current run.
+     * @param path         the directory path
+     * @param lastModified current last modification date of the directory
+     * @param inode        current inode fingerprint. 0 if unknown.
+     * @return the subdirectories of the directory or null if it has changed
+     * @throws IOException in case of error while reading the subdirectories
+     */
+    public synchronized Collection<String> prune(String path, long lastModified, long inode) throws IOException {
+        long[] key = key(path);
+        long slot = table.lookup(key[0], key[1]);
+        if (slot < 0) {
+            return null;
+        }
+        ByteBuffer segment = table.segment(slot);
+        int offset = table.offset(slot);
+        long subdirs = segment.getLong(offset + E_EXTRA);
+        long storedInode = segment.getLong(offset + E_INODE);
+        if ((segment.getInt(offset + E_FLAGS) & FLAG_DIRECTORY) == 0 || subdirs == 0
+                || segment.getLong(offset + E_MTIME) != lastModified
+                || (storedInode != 0 && inode != 0 && storedInode != inode)) {
+            return null;
+        }
+        segment.putInt(offset + E_SEEN, getRun());
+        segment.putInt(offset + E_PRUNED, getRun());
+        return readSubdirs(dirs, subdirs);
+    }
+
+    /**
+     * Remove a path from the store
+     * @param path the path
+     * @return false if the path was unknown
+     * @throws IOException in case of error while updating the subdirectories log
+     */
+    public synchronized boolean remove(String path) throws IOException {
+        long[] key = key(path);
+        long slot = table.lookup(key[0], key[1]);
+        if (slot < 0) {
+            return false;
+        }
+        freeSubdirs(table.segment(slot).getLong(table.offset(slot) + E_EXTRA));
+        table.delete(slot);
+        return true;
+    }
+
+    /**
+     * Remove all the entries which have not been seen during the current run
+     * @param consumer called for each removed entry with the MD5 signature of its path and its last state.
+     *                 It is called once the entries have been removed, without holding the store lock, so it
+     *                 can wait for something which updates the store.
+     * @return the number of removed entries
+     * @throws IOException in case of error while updating the subdirectories log
+     */
+    public long removeUnseen(BiConsumer<byte[], FileState> consumer) throws IOException {
+        List<Map.Entry<byte[], FileState>> removed = new ArrayList<>();
+        synchronized (this) {
+            collectUnseen(removed);
+        }
+        for (Map.Entry<byte[], FileState> entry : removed) {
+            consumer.accept(entry.getKey(), entry.getValue());
+        }
+        return removed.size();
+    }
+
+    private void collectUnseen(List<Map.Entry<byte[], FileState>> removed) throws IOException {
+        int run = getRun();
+        for (long slot = 0; slot < table.capacity; slot++) {
+            ByteBuffer segment = table.segment(slot);
+            int offset = table.offset(slot);
+            if ((segment.getInt(offset + E_FLAGS) & FLAG_USED) == 0 || segment.getInt(offset + E_SEEN) == run) {
+                continue;
+            }
+            // The content of a pruned directory has not been crawled but it still exists
+            long parent = table.lookup(segment.getLong(offset + E_PARENT), segment.getLong(offset + E_PARENT + 8));
+            if (parent >= 0 && table.segment(parent).getInt(table.offset(parent) + E_PRUNED) == run) {
+                continue;
+            }
+            byte[] key = ByteBuffer.allocate(16)
+                    .putLong(segment.getLong(offset + E_KEY))
+                    .putLong(segment.getLong(offset + E_KEY + 8))
+                    .array();
+            removed.add(new AbstractMap.SimpleImmutableEntry<>(key, read(slot)));
+            freeSubdirs(segment.getLong(offset + E_EXTRA));
+            table.delete(slot);
+        }
+    }
+
+    /**
+     * Write all changes to the disk
+     */
+    public synchronized void flush() throws IOException {
+        table.force();
+        dirs.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        // We rewrite the subdirectories log when most of it is not used anymore
+        if (dirs.size() > MIN_DIRS_COMPACT_SIZE && dirs.size() > 2 * table.header.getLong(H_DIRS_LIVE)) {
+            compactSubdirs();
+        }
+        dirs.force(false);
+        dirs.close();
+        table.force();
+        table.close();
+        logger.debug("File state store [{}] closed", file);
+    }
+
+    /**
+     * Double the capacity of the table. We write a new file and then replace the current one.
+     */
+    private void grow() throws IOException {
+        long newCapacity = table.capacity * 2;
+        logger.debug("Growing file state store [{}] from [{}] to [{}] entries", file, table.capacity, newCapacity);
+        Path tmp = file.resolveSibling(FILENAME + ".tmp");
+        try (Table bigger = Table.create(tmp, newCapacity, table.header.getInt(H_RUN))) {
+            bigger.header.putLong(H_DIRS_LIVE, table.header.getLong(H_DIRS_LIVE));
+            byte[] entry = new byte[ENTRY_SIZE];
+            for (long slot = 0; slot < table.capacity; slot++) {
+                ByteBuffer segment = table.segment(slot);
+                int offset = table.offset(slot);
+                if ((segment.getInt(offset + E_FLAGS) & FLAG_USED) == 0) {
+                    continue;
+                }
+                long hi = segment.getLong(offset + E_KEY);
+                long lo = segment.getLong(offset + E_KEY + 8);
+                long newSlot = -1 - bigger.lookup(hi, lo);
+                bigger.insert(newSlot, hi, lo);
+
+                ByteBuffer source = segment.duplicate();
+                source.position(offset);
+                source.get(entry);
+                ByteBuffer target = bigger.segment(newSlot).duplicate();
+                target.position(bigger.offset(newSlot));
+                target.put(entry);
+            }
+            bigger.force();
+        }
+        table.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        table = Table.open(file);
+    }
+
+    /**
+     * Append a list of subdirectories to the log. A record is its length, the number of subdirectories
+     * and for each of them its length and its UTF-8 bytes.
+     * @return the position of the record in the log + 1, so 0 means no record
+     */
+    private long writeSubdirs(Collection<String> subdirs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(subdirs.size());
+        for (String subdir : subdirs) {
+            byte[] b = subdir.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        out.flush();
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        record.putInt(0, record.remaining());
+
+        long position = dirs.size();
+        int length = record.remaining();
+        while (record.hasRemaining()) {
+            dirs.write(record, position + record.position());
+        }
+        table.header.putLong(H_DIRS_LIVE, table.header.getLong(H_DIRS_LIVE) + length);
+        return position + 1;
+    }
+
+    private Collection<String> readSubdirs(FileChannel channel, long pointer) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length, pointer - 1);
+        ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+        readFully(channel, record, pointer - 1);
+        record.position(4);
+        int count = record.getInt();
+        List<String> subdirs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] b = new byte[record.getInt()];
+            record.get(b);
+            subdirs.add(new String(b, StandardCharsets.UTF_8));
+        }
+        return subdirs;
+    }
+
+    private void freeSubdirs(long pointer) throws IOException {
+        if (pointer == 0) {
+            return;
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(dirs, length, pointer - 1);
+        table.header.putLong(H_DIRS_LIVE, table.header.getLong(H_DIRS_LIVE) - length.getInt(0));
+    }
+
+    private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file in [" + dirsFile + "]");
+            }
+        }
+    }
+
+    /**
+     * Rewrite the subdirectories log with only the records which are still used
+     */
+    private void compactSubdirs() throws IOException {
+        logger.debug("Compacting [{}]", dirsFile);
+        Path tmp = dirsFile.resolveSibling(DIRS_FILENAME + ".tmp");
+        FileChannel old = dirs;
+        dirs = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        table.header.putLong(H_DIRS_LIVE, 0);
+        for (long slot = 0; slot < table.capacity; slot++) {
+            ByteBuffer segment = table.segment(slot);
+            int offset = table.offset(slot);
+            long pointer = segment.getLong(offset + E_EXTRA);
+            if ((segment.getInt(offset + E_FLAGS) & FLAG_USED) == 0 || pointer == 0) {
+                continue;
+            }
+            segment.putLong(offset + E_EXTRA, writeSubdirs(readSubdirs(old, pointer)));
+        }
+        dirs.force(false);
+        table.force();
+        old.close();
+        dirs.close();
+        Files.move(tmp, dirsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirs = FileChannel.open(dirsFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Compute the key of a path. This is the MD5 signature of the path, like the one
+     * {@link fr.pilato.elasticsearch.crawler.fs.SignTool} generates for document ids.
+     */
+    static long[] key(String path) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            ByteBuffer digest = ByteBuffer.wrap(md.digest(path.getBytes()));
+            long hi = digest.getLong();
+            long lo = digest.getLong();
+            // A 0 key is very unlikely but would break our lookups
+            if (hi == 0 && lo == 0) {
+                lo = 1;
+            }
+            return new long[] {hi, lo};
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 is not available", e);
+        }
+    }
+
+    /**
+     * The hash table itself, mapped in memory
+     */
+    private static class Table implements Closeable {
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private final MappedByteBuffer[] segments;
+        private final long capacity;
+        private long size;
+        private long used;
+
+        private Table(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (header.getLong(H_MAGIC) != MAGIC || header.getInt(H_VERSION) != VERSION) {
+                channel.close();
+                throw new IOException("Unsupported file state store format");
+            }
+            this.capacity = header.getLong(H_CAPACITY);
+            this.size = header.getLong(H_SIZE);
+            this.used = header.getLong(H_USED);
+
+            int nbSegments = (int) ((capacity + ENTRIES_PER_SEGMENT - 1) / ENTRIES_PER_SEGMENT);
+            this.segments = new MappedByteBuffer[nbSegments];
+            for (int i = 0; i < nbSegments; i++) {
+                long first = (long) i * ENTRIES_PER_SEGMENT;
+                long entries = Math.min(ENTRIES_PER_SEGMENT, capacity - first);
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + first * ENTRY_SIZE,
+                        entries * ENTRY_SIZE);
+            }
+        }
+
+        static Table open(Path file) throws IOException {
+            return new Table(FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+
+        static Table create(Path file, long capacity, int run) throws IOException {
+            // The file is created with zeros, which means empty slots
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.setLength(0);
+                raf.setLength(HEADER_SIZE + capacity * ENTRY_SIZE);
+                raf.seek(H_MAGIC);
+                raf.writeLong(MAGIC);
+                raf.seek(H_VERSION);
+                raf.writeInt(VERSION);
+                raf.seek(H_CAPACITY);
+                raf.writeLong(capacity);
+                raf.seek(H_RUN);
+                raf.writeInt(run);
+            }
+            return open(file);
+        }
+
+        ByteBuffer segment(long slot) {
+            return segments[(int) (slot / ENTRIES_PER_SEGMENT)];
+        }
+
+        int offset(long slot) {
+            return (int) (slot % ENTRIES_PER_SEGMENT) * ENTRY_SIZE;
+        }
+
+        /**
+         * Find a key with linear probing
+         * @return the slot if found or -1 - the slot where it can be inserted
+         */
+        long lookup(long hi, long lo) {
+            long slot = Long.remainderUnsigned(hi, capacity);
+            long firstDeleted = -1;
+            while (true) {
+                ByteBuffer segment = segment(slot);
+                int offset = offset(slot);
+                int flags = segment.getInt(offset + E_FLAGS);
+                if (flags == 0) {
+                    return -1 - (firstDeleted >= 0 ? firstDeleted : slot);
+                }
+                if ((flags & FLAG_DELETED) != 0) {
+                    if (firstDeleted < 0) {
+                        firstDeleted = slot;
+                    }
+                } else if (segment.getLong(offset + E_KEY) == hi && segment.getLong(offset + E_KEY + 8) == lo) {
+                    return slot;
+                }
+                slot = (slot + 1) % capacity;
+            }
+        }
+
+        void insert(long slot, long hi, long lo) {
+            ByteBuffer segment = segment(slot);
+            int offset = offset(slot);
+            if (segment.getInt(offset + E_FLAGS) == 0) {
+                used++;
+                header.putLong(H_USED, used);
+            }
+            for (int i = 0; i < ENTRY_SIZE; i += 4) {
+                segment.putInt(offset + i, 0);
+            }
+            segment.putLong(offset + E_KEY, hi);
+            segment.putLong(offset + E_KEY + 8, lo);
+            segment.putInt(offset + E_FLAGS, FLAG_USED);
+            size++;
+            header.putLong(H_SIZE, size);
+        }
+
+        void delete(long slot) {
+            segment(slot).putInt(offset(slot) + E_FLAGS, FLAG_DELETED);
+            size--;
+            header.putLong(H_SIZE, size);
+        }
+
+        void force() {
+            header.force();
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.tika;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.tika.metadata.Metadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static fr.pilato.elasticsearch.crawler.fs.tika.ForkedParser.readMetadata;
+import static fr.pilato.elasticsearch.crawler.fs.tika.ForkedParser.readString;
+import static fr.pilato.elasticsearch.crawler.fs.tika.ForkedParser.writeMetadata;
+import static fr.pilato.elasticsearch.crawler.fs.tika.ForkedParser.writeString;
+
+/**
+ * Cache of the text and metadata extracted from the documents, kept in ~/.fscrawler/{job_name}/_extraction_cache.
+ * <p>
+ * Entries are keyed by the checksum of the document content, so a document which has only been touched, moved
+ * or which needs to be indexed again is not parsed again. Each entry is a gzip file named after the checksum.
+ * When the cache is bigger than its maximum size, the least recently used entries are removed. The last
+ * modification date of the entries is their last access date so we keep this order between runs.
+ */
+public class ExtractionCache implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(ExtractionCache.class);
+
+    public static final String DIRNAME = "_extraction_cache";
+
+    private static final String SUFFIX = ".gz";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int VERSION = 1;
+
+    private final Path dir;
+    private final long maxSize;
+
+    // Entries from the least to the most recently used, with their size on disk
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * The text and metadata of a document
+     */
+    public static class Entry {
+        private final String content;
+        private final Metadata metadata;
+
+        private Entry(String content, Metadata metadata) {
+            this.content = content;
+            this.metadata = metadata;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public Metadata getMetadata() {
+            return metadata;
+        }
+    }
+
+    private ExtractionCache(Path dir, long maxSize) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        List<Path> cached = new ArrayList<>();
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(SUFFIX)) {
+                cached.add(file);
+            } else {
+                // Leftovers of a previous run
+                Files.deleteIfExists(file);
+            }
+        }
+        cached.sort(Comparator.comparing(ExtractionCache::lastModified));
+        for (Path file : cached) {
+            long length = Files.size(file);
+            entries.put(key(file), length);
+            size += length;
+        }
+        evict();
+        logger.debug("Extraction cache [{}] opened with [{}] entries, [{}] bytes", dir, entries.size(), size);
+    }
+
+    /**
+     * Open (or create) the extraction cache of a job
+     * @param jobDir the job directory, like ~/.fscrawler/{job_name}
+     * @param maxSize the maximum size of the cache on disk, in bytes
+     * @return the cache
+     * @throws IOException in case of error while reading or creating the cache
+     */
+    public static ExtractionCache open(Path jobDir, long maxSize) throws IOException {
+        Path dir = jobDir.resolve(DIRNAME);
+        Files.createDirectories(dir);
+        return new ExtractionCache(dir, maxSize);
+    }
+
+    /**
+     * Read the text and metadata of a document
+     * @param algorithm the algorithm of the checksum, like MD5
+     * @param checksum the checksum of the document content, in hexadecimal
+     * @param maxLength the maximum length of the text we want
+     * @return null if we did not extract this content with the same maximum length before
+     */
+    public Entry get(String algorithm, String checksum, int maxLength) {
+        String key = key(algorithm, checksum);
+        Long length;
+        synchronized (this) {
+            length = entries.get(key);
+            if (length == null) {
+                misses.increment();
+                return null;
+            }
+        }
+
+        // The file is read without holding the lock so it can be evicted or replaced meanwhile
+        Path file = file(key);
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != VERSION || in.readInt() != maxLength) {
+                misses.increment();
+                return null;
+            }
+            String content = readString(in);
+            Metadata metadata = new Metadata();
+            readMetadata(in, metadata);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.increment();
+            return new Entry(content, metadata);
+        } catch (NoSuchFileException e) {
+            logger.trace("[{}] has been removed from the extraction cache while we were reading it", key);
+            misses.increment();
+            return null;
+        } catch (IOException e) {
+            logger.debug("Can not read [{}] from the extraction cache: {}", key, e.getMessage());
+            remove(key, length);
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Add the text and metadata of a document. Errors are logged and ignored.
+     * @param algorithm the algorithm of the checksum, like MD5
+     * @param checksum the checksum of the document content, in hexadecimal
+     * @param maxLength the maximum length of the text which has been extracted
+     */
+    public void put(String algorithm, String checksum, int maxLength, String content, Metadata metadata) {
+        String key = key(algorithm, checksum);
+        Path file = file(key);
+        Path tmp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tmp = Files.createTempFile(dir, "entry-", TMP_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))) {
+                out.writeInt(VERSION);
+                out.writeInt(maxLength);
+                writeString(out, content);
+                writeMetadata(out, metadata);
+            }
+            long length = Files.size(tmp);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                Long previous = entries.put(key, length);
+                size += length - (previous == null ? 0 : previous);
+                evict();
+            }
+        } catch (IOException e) {
+            logger.warn("Can not add [{}] to the extraction cache: {}", key, e.getMessage());
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // Will be removed when opening the cache again
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy a stream to a temporary file of the cache directory so we can compute its checksum
+     * before parsing it. The caller has to remove the file.
+     */
+    public Path spool(InputStream inputStream) throws IOException {
+        Path tmp = Files.createTempFile(dir, "spool-", TMP_SUFFIX);
+        Files.copy(inputStream, tmp, StandardCopyOption.REPLACE_EXISTING);
+        return tmp;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of entries in the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the size of the cache on disk, in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() {
+        logger.debug("Extraction cache [{}] closed: [{}] hits, [{}] misses, [{}] evictions", dir, getHits(), getMisses(),
+                getEvictions());
+    }
+
+    /**
+     * Remove an entry unless it has been replaced by another one
+     * @param length the length of the entry we want to remove
+     */
+    private synchronized void remove(String key, long length) {
+        if (entries.remove(key, length)) {
+            size -= length;
+            delete(key);
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.getValue();
+            evictions.increment();
+            delete(eldest.getKey());
+        }
+    }
+
+    private void delete(String key) {
+        try {
+            Files.deleteIfExists(file(key));
+        } catch (IOException e) {
+            logger.debug("Can not remove [{}] from the extraction cache: {}", key, e.getMessage());
+        }
+    }
+
+    private static String key(String algorithm, String checksum) {
+        return algorithm.toLowerCase(Locale.ROOT) + "/" + checksum;
+    }
+
+    private String key(Path file) {
+        String name = file.getFileName().toString();
+        // {algorithm}/{2 first chars}/{checksum}.gz
+        return dir.relativize(file).getName(0) + "/" + name.substring(0, name.length() - SUFFIX.length());
+    }
+
+    private Path file(String key) {
+        int separator = key.indexOf('/');
+        String checksum = key.substring(separator + 1);
+        return dir.resolve(key.substring(0, separator)).resolve(checksum.substring(0, 2)).resolve(checksum + SUFFIX);
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
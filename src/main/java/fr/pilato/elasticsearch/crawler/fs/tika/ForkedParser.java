@@ -0,0 +1,217 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.tika;
+
+import org.apache.tika.metadata.Metadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static fr.pilato.elasticsearch.crawler.fs.tika.TikaInstance.tika;
+
+/**
+ * Main class of the parser processes started by {@link ForkedParserPool}. It reads documents from its
+ * standard input and writes the extracted text and metadata to its standard output.
+ *
+ * For each document, the crawler sends the maximum length of the text, then the content as chunks (a length
+ * followed by the bytes) and an empty chunk. The process answers with a status byte followed by the text and
+ * the metadata, or by the error message.
+ */
+public class ForkedParser {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    public static void main(String[] args) throws IOException {
+        // Our standard output is the channel with the crawler. What the parsers print goes to the error output.
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in), CHUNK_SIZE));
+
+        while (true) {
+            int maxLength;
+            try {
+                maxLength = in.readInt();
+            } catch (EOFException e) {
+                // The crawler closed the pool
+                return;
+            }
+
+            ChunkedInputStream content = new ChunkedInputStream(in);
+            Metadata metadata = new Metadata();
+            String text = null;
+            String error = null;
+            try {
+                text = tika().parseToString(content, metadata, maxLength);
+            } catch (Exception e) {
+                error = e.getClass().getName() + ": " + e.getMessage();
+            }
+            // Tika might not have read the whole document
+            content.drain();
+
+            if (error == null) {
+                out.writeByte(OK);
+                writeString(out, text);
+                writeMetadata(out, metadata);
+            } else {
+                out.writeByte(ERROR);
+                writeString(out, error);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Send the content of a document as chunks, ending with an empty chunk
+     */
+    static void writeChunks(InputStream stream, DataOutputStream out) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            if (read > 0) {
+                out.writeInt(read);
+                out.write(buffer, 0, read);
+            }
+        }
+        out.writeInt(0);
+    }
+
+    /**
+     * Write a string, which can be null, so it can be read with {@link #readString(DataInputStream)}
+     */
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeMetadata(DataOutputStream out, Metadata metadata) throws IOException {
+        String[] names = metadata.names();
+        out.writeInt(names.length);
+        for (String name : names) {
+            writeString(out, name);
+            String[] values = metadata.getValues(name);
+            out.writeInt(values.length);
+            for (String value : values) {
+                writeString(out, value);
+            }
+        }
+    }
+
+    static void readMetadata(DataInputStream in, Metadata metadata) throws IOException {
+        int names = in.readInt();
+        for (int i = 0; i < names; i++) {
+            String name = readString(in);
+            int values = in.readInt();
+            for (int j = 0; j < values; j++) {
+                metadata.add(name, readString(in));
+            }
+        }
+    }
+
+    /**
+     * Reads the chunks of a document. Closing it does not close the underlying stream.
+     */
+    static class ChunkedInputStream extends InputStream {
+        private final DataInputStream in;
+        private int remaining;
+        private boolean eof;
+
+        ChunkedInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        private boolean nextChunk() throws IOException {
+            while (!eof && remaining == 0) {
+                remaining = in.readInt();
+                if (remaining == 0) {
+                    eof = true;
+                }
+            }
+            return !eof;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            remaining--;
+            return in.readUnsignedByte();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int read = in.read(b, off, Math.min(len, remaining));
+            if (read == -1) {
+                throw new EOFException("Unexpected end of document");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        /**
+         * Skip what has not been read so we can read the next document
+         */
+        void drain() throws IOException {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // Skipping
+            }
+        }
+
+        @Override
+        public void close() {
+            // The stream stays open for the next documents
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.tika;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static fr.pilato.elasticsearch.crawler.fs.tika.ForkedParser.ERROR;
+import static fr.pilato.elasticsearch.crawler.fs.tika.ForkedParser.OK;
+import static fr.pilato.elasticsearch.crawler.fs.tika.ForkedParser.readMetadata;
+import static fr.pilato.elasticsearch.crawler.fs.tika.ForkedParser.readString;
+import static fr.pilato.elasticsearch.crawler.fs.tika.ForkedParser.writeChunks;
+
+/**
+ * A pool of JVM processes which extract the documents with Tika, so a parser which runs out of memory
+ * or crashes does not kill the crawler. Each process parses one document at a time. A process which
+ * died is started again when it is needed.
+ */
+public class ForkedParserPool implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(ForkedParserPool.class);
+
+    private final String heap;
+    private final List<ParserProcess> processes = new ArrayList<>();
+    private final BlockingQueue<ParserProcess> idle;
+    private final ScheduledExecutorService watchdog;
+    private final LongAdder restarts = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param size number of processes. They are started when they are first needed.
+     * @param heap maximum heap size of each process, like 512m
+     */
+    public ForkedParserPool(int size, String heap) {
+        this.heap = heap;
+        this.idle = new ArrayBlockingQueue<>(size);
+        for (int i = 1; i <= size; i++) {
+            ParserProcess process = new ParserProcess(i);
+            processes.add(process);
+            idle.add(process);
+        }
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fs-parser-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Extract the text of a document in one of the processes. Waits for a process to be available.
+     * @param metadata filled with the document metadata
+     * @param timeoutMillis when greater than 0, the process is killed if it did not answer within this delay
+     * @throws TimeoutException when the process has been killed after timeoutMillis
+     */
+    public String parseToString(InputStream stream, Metadata metadata, int maxLength, long timeoutMillis)
+            throws IOException, TikaException, TimeoutException, InterruptedException {
+        if (closed) {
+            throw new IOException("Parser processes have been stopped");
+        }
+        ParserProcess process = idle.take();
+        try {
+            return process.parse(stream, metadata, maxLength, timeoutMillis);
+        } finally {
+            idle.add(process);
+        }
+    }
+
+    /**
+     * @return the number of processes which have been started again after they died
+     */
+    public long getRestarts() {
+        return restarts.sum();
+    }
+
+    /**
+     * @return the number of processes which have been killed because they took more than the timeout
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        watchdog.shutdownNow();
+        for (ParserProcess process : processes) {
+            process.stop();
+        }
+    }
+
+    private class ParserProcess {
+        private final int id;
+        private Process process;
+        private DataOutputStream out;
+        private DataInputStream in;
+
+        private ParserProcess(int id) {
+            this.id = id;
+        }
+
+        private void start() throws IOException {
+            if (process != null) {
+                if (process.isAlive()) {
+                    return;
+                }
+                restarts.increment();
+                logger.debug("Starting parser process [{}] again", id);
+            }
+
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-Xmx" + heap);
+            // Let the process die instead of running in a broken state
+            command.add("-XX:+ExitOnOutOfMemoryError");
+            String log4jConfiguration = System.getProperty("log4j.configurationFile");
+            if (log4jConfiguration != null) {
+                command.add("-Dlog4j.configurationFile=" + log4jConfiguration);
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ForkedParser.class.getName());
+
+            logger.debug("Starting parser process [{}]: {}", id, command);
+            process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), ForkedParser.CHUNK_SIZE));
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        private String parse(InputStream stream, Metadata metadata, int maxLength, long timeoutMillis)
+                throws IOException, TikaException, TimeoutException, InterruptedException {
+            start();
+
+            final Process current = process;
+            final AtomicBoolean killed = new AtomicBoolean();
+            ScheduledFuture<?> kill = null;
+            if (timeoutMillis > 0) {
+                kill = watchdog.schedule(() -> {
+                    killed.set(true);
+                    current.destroyForcibly();
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+
+            try {
+                out.writeInt(maxLength);
+                writeChunks(stream, out);
+                out.flush();
+
+                byte status = in.readByte();
+                if (status == OK) {
+                    String text = readString(in);
+                    readMetadata(in, metadata);
+                    return text;
+                }
+                if (status == ERROR) {
+                    throw new TikaException(readString(in));
+                }
+                throw new IOException("Unexpected answer [" + status + "] from parser process [" + id + "]");
+            } catch (IOException e) {
+                // We don't know where we are in the exchange anymore. The next document will start a new process.
+                current.destroyForcibly().waitFor();
+                if (killed.get()) {
+                    timeouts.increment();
+                    throw new TimeoutException("Parser process [" + id + "] killed after [" + timeoutMillis + "] ms");
+                }
+                logger.warn("Parser process [{}] exited with code [{}] while parsing a document: {}", id,
+                        current.exitValue(), e.getMessage());
+                throw new IOException("Parser process [" + id + "] failed: " + e.getMessage(), e);
+            } finally {
+                if (kill != null) {
+                    kill.cancel(false);
+                }
+            }
+        }
+
+        private void stop() {
+            if (process == null) {
+                return;
+            }
+            try {
+                // The process ends when its input is closed
+                out.close();
+                if (!process.waitFor(1, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (IOException e) {
+                process.destroyForcibly();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.tika;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static fr.pilato.elasticsearch.crawler.fs.tika.TikaInstance.tika;
+
+/**
+ * Runs the Tika extractions under a deadline. Each extraction thread gives its documents to its own worker
+ * thread and waits for the result. When a document takes too long to parse, the worker is abandoned and
+ * the next document is parsed by a new worker, with its own Tika instance.
+ * Abandoned workers can not be stopped. When too many of them are still running, we stop parsing documents
+ * in this JVM: {@code fs.parser_processes} should be used instead so stuck parsers can be killed.
+ */
+public class ParseWatchdog {
+
+    private static final Logger logger = LogManager.getLogger(ParseWatchdog.class);
+
+    // Idle workers are stopped after this delay
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    // Maximum number of abandoned workers which can still be running before we refuse to parse documents
+    public static final int MAX_ABANDONED_WORKERS = 16;
+
+    private static final int RUNNING = 0;
+    private static final int DONE = 1;
+    private static final int ABANDONED = 2;
+
+    private static final AtomicInteger workerId = new AtomicInteger();
+    private static final LongAdder timeouts = new LongAdder();
+    private static final AtomicInteger abandonedWorkers = new AtomicInteger();
+    private static final AtomicBoolean saturated = new AtomicBoolean();
+
+    private static final ThreadLocal<ExecutorService> worker = ThreadLocal.withInitial(ParseWatchdog::newWorker);
+
+    private static ExecutorService newWorker() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "fs-tika-" + workerId.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Extract the text of a document with Tika, giving up after the given timeout.
+     * @param metadata filled with the document metadata, only when the extraction succeeded
+     * @throws TimeoutException when the extraction took more than timeoutMillis. The extraction is abandoned.
+     * @throws TikaException when too many abandoned extractions are still running
+     */
+    public static String parseToString(InputStream stream, Metadata metadata, int maxLength, long timeoutMillis)
+            throws IOException, TikaException, TimeoutException, InterruptedException {
+        int stuck = abandonedWorkers.get();
+        if (stuck >= MAX_ABANDONED_WORKERS) {
+            if (saturated.compareAndSet(false, true)) {
+                logger.warn("[{}] Tika workers are still running documents which took more than the parse timeout. " +
+                        "Documents are indexed without their content until they end. Set fs.parser_processes to parse " +
+                        "documents in separate processes which can be killed.", stuck);
+            }
+            throw new TikaException("Too many abandoned Tika workers [" + stuck + "]. Use fs.parser_processes.");
+        }
+        saturated.set(false);
+
+        // The worker fills its own metadata so an abandoned worker can not modify the one we return
+        Metadata parsed = new Metadata();
+        AtomicInteger state = new AtomicInteger(RUNNING);
+        Future<String> future = worker.get().submit(() -> {
+            try {
+                return tika().parseToString(stream, parsed, maxLength);
+            } finally {
+                if (!state.compareAndSet(RUNNING, DONE)) {
+                    abandonedWorkers.decrementAndGet();
+                }
+            }
+        });
+        String content;
+        try {
+            content = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            // We can not stop Tika. We interrupt the worker and forget it: it will end with the document or
+            // when its stream is closed.
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                abandonedWorkers.incrementAndGet();
+            }
+            future.cancel(true);
+            worker.get().shutdown();
+            worker.remove();
+            logger.debug("Tika worker abandoned after [{}] ms", timeoutMillis);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof TikaException) {
+                throw (TikaException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new TikaException("Failed to extract text", cause);
+        }
+
+        for (String name : parsed.names()) {
+            for (String value : parsed.getValues(name)) {
+                metadata.add(name, value);
+            }
+        }
+        return content;
+    }
+
+    /**
+     * @return the number of extractions which have been abandoned since the start
+     */
+    public static long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return the number of abandoned extractions which are still running
+     */
+    public static int getAbandonedWorkers() {
+        return abandonedWorkers.get();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.tika;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.tika.metadata.Metadata;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import static fr.pilato.elasticsearch.crawler.fs.tika.TikaInstance.tika;
+
+/**
+ * Extract the text of plain text files (text, logs, CSV, markdown, JSon, source code...) without Tika.
+ * <p>
+ * For these files, Tika detects the type of the document, looks up its parser and sends the text through
+ * SAX handlers when we only need to decode it. We guess the charset from the first bytes of the file and
+ * decode it like the Tika text parser does. The content type is the one Tika guesses from the file name,
+ * like {@code text/csv; charset=UTF-8} for a CSV file. Files which look binary are left to Tika.
+ */
+public class PlainTextExtractor {
+
+    // Number of bytes we read to guess the charset
+    public static final int SAMPLE_SIZE = 8192;
+
+    // Extensions Tika parses with its text parser
+    private static final Set<String> EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "txt", "text", "log", "csv", "tsv", "md", "markdown", "json", "properties", "yml", "yaml", "sql",
+            "py", "js", "sh", "c", "h", "rb")));
+
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    private static final char BOM = '\uFEFF';
+
+    /**
+     * @return true if we can extract this file without Tika
+     */
+    public static boolean supports(String filename) {
+        return EXTENSIONS.contains(FilenameUtils.getExtension(filename).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Guess the charset of a local file
+     * @return null if the file looks binary
+     */
+    public static Charset detectCharset(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return detectCharset(in);
+        }
+    }
+
+    /**
+     * Guess the charset of a stream from its first bytes. The stream is reset to its beginning.
+     * @param in a stream which supports {@link InputStream#mark(int)}
+     * @return null if the stream looks binary
+     */
+    public static Charset detectCharset(InputStream in) throws IOException {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int length = 0;
+        if (in.markSupported()) {
+            in.mark(SAMPLE_SIZE);
+        }
+        int read;
+        while (length < SAMPLE_SIZE && (read = in.read(sample, length, SAMPLE_SIZE - length)) != -1) {
+            length += read;
+        }
+        if (in.markSupported()) {
+            in.reset();
+        }
+        return detectCharset(sample, length, length < SAMPLE_SIZE);
+    }
+
+    /**
+     * Guess the charset from the first bytes of a document
+     * @param complete true if these are all the bytes of the document
+     * @return null if the content looks binary
+     */
+    static Charset detectCharset(byte[] sample, int length, boolean complete) {
+        if (length >= 3 && (sample[0] & 0xff) == 0xEF && (sample[1] & 0xff) == 0xBB && (sample[2] & 0xff) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if (length >= 2 && (sample[0] & 0xff) == 0xFE && (sample[1] & 0xff) == 0xFF) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (length >= 2 && (sample[0] & 0xff) == 0xFF && (sample[1] & 0xff) == 0xFE) {
+            return StandardCharsets.UTF_16LE;
+        }
+
+        boolean ascii = true;
+        boolean c1 = false;
+        for (int i = 0; i < length; i++) {
+            int b = sample[i] & 0xff;
+            if (b == 0) {
+                return null;
+            }
+            if (b >= 0x80) {
+                ascii = false;
+                c1 |= b <= 0x9F;
+            }
+        }
+        // Like Tika, we report ISO-8859-1 for plain ASCII text
+        if (ascii) {
+            return StandardCharsets.ISO_8859_1;
+        }
+        if (isUtf8(sample, length, complete)) {
+            return StandardCharsets.UTF_8;
+        }
+        return c1 ? WINDOWS_1252 : StandardCharsets.ISO_8859_1;
+    }
+
+    /**
+     * Decode the text of a document. The content type and encoding are set in the metadata as Tika does.
+     * @param filename the name of the document, used to guess its content type
+     * @param maxLength the maximum length of the text, -1 sets no limit
+     * @return the text
+     */
+    public static String extract(InputStream in, String filename, Charset charset, Metadata metadata, int maxLength)
+            throws IOException {
+        metadata.set(Metadata.CONTENT_TYPE, contentType(filename) + "; charset=" + charset.name());
+        metadata.set(Metadata.CONTENT_ENCODING, charset.name());
+
+        StringBuilder text = new StringBuilder();
+        // Closing the reader would close the stream which belongs to the caller
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, charset));
+        char[] buffer = new char[SAMPLE_SIZE];
+        boolean first = true;
+        int read;
+        while ((maxLength < 0 || text.length() < maxLength) && (read = reader.read(buffer)) != -1) {
+            int offset = 0;
+            if (first && read > 0 && buffer[0] == BOM) {
+                offset = 1;
+            }
+            first = false;
+            int count = read - offset;
+            if (maxLength >= 0) {
+                count = Math.min(count, maxLength - text.length());
+            }
+            text.append(buffer, offset, count);
+        }
+        // Tika ends the paragraph with a new line
+        if (maxLength < 0 || text.length() < maxLength) {
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Tika only uses the file name to detect the type of a text file, so we don't need to read it
+     */
+    static String contentType(String filename) {
+        String type = tika().detect(filename);
+        return type == null ? "text/plain" : type;
+    }
+
+    private static boolean isUtf8(byte[] sample, int length, boolean complete) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer out = CharBuffer.allocate(length);
+        // When the sample is truncated, its last character might be incomplete
+        return !decoder.decode(ByteBuffer.wrap(sample, 0, length), out, complete).isError();
+    }
+}
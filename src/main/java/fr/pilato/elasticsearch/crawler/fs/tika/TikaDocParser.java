@@ -21,24 +21,34 @@ package fr.pilato.elasticsearch.crawler.fs.tika;
 
 import fr.pilato.elasticsearch.crawler.fs.meta.doc.Doc;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.input.TeeInputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.metadata.TikaCoreProperties;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.TimeoutException;
 
 import static fr.pilato.elasticsearch.crawler.fs.tika.TikaInstance.tika;
 
@@ -49,8 +59,40 @@ public class TikaDocParser {
 
     private final static Logger logger = LogManager.getLogger(TikaDocParser.class);
 
-    public static void generate(FsSettings fsSettings, InputStream inputStream, String filename, Doc doc, MessageDigest messageDigest,
-                                long filesize) throws IOException {
+    // Size of the blocks we map in memory to compute the checksum of a local file
+    private final static long CHECKSUM_BLOCK_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Generate the document from its content, parsing it in the current JVM
+     * @return false if the extraction has been abandoned because it took more than fs.parse_timeout.
+     * The document then only contains the file metadata.
+     */
+    public static boolean generate(FsSettings fsSettings, InputStream inputStream, String filename, Doc doc, MessageDigest messageDigest,
+                                   long filesize) throws IOException {
+        return generate(fsSettings, inputStream, filename, doc, messageDigest, filesize, null, null);
+    }
+
+    /**
+     * Generate the document from its content
+     * @param parserProcesses when not null, the document is parsed by one of these processes
+     * @param extractionCache when not null (and with a messageDigest), the text and metadata of the document are
+     *                        read from this cache if we already extracted the same content
+     * @return false if the extraction has been abandoned because it took more than fs.parse_timeout.
+     * The document then only contains the file metadata.
+     */
+    public static boolean generate(FsSettings fsSettings, InputStream inputStream, String filename, Doc doc, MessageDigest messageDigest,
+                                   long filesize, ForkedParserPool parserProcesses, ExtractionCache extractionCache) throws IOException {
+        // The cache is keyed by the checksum of the content which we need to know before parsing it.
+        // When the content does not come from a local file, we first copy it to a temporary file.
+        if (extractionCache != null && messageDigest != null && localPath(inputStream) == null) {
+            Path spooled = extractionCache.spool(inputStream);
+            try (InputStream local = TikaInputStream.get(spooled)) {
+                return generate(fsSettings, local, filename, doc, messageDigest, filesize, parserProcesses, extractionCache);
+            } finally {
+                Files.deleteIfExists(spooled);
+            }
+        }
+
         logger.trace("Generating document [{}]", filename);
         // Extracting content with Tika
         // See #38: https://github.com/dadoonet/fscrawler/issues/38
@@ -67,28 +109,99 @@ public class TikaDocParser {
             }
         }
         Metadata metadata = new Metadata();
+        TimeValue parseTimeout = fsSettings.getFs().getParseTimeout();
 
         String parsedContent = null;
 
+        // When the stream comes from a local file, we read the file again from the disk when we need its
+        // content so Tika gets the file itself and does not have to spool it for random access
+        Path path = localPath(inputStream);
+
+        String checksum = null;
         if (messageDigest != null) {
             logger.trace("Generating hash with [{}]", messageDigest.getAlgorithm());
-            inputStream = new DigestInputStream(inputStream, messageDigest);
+            if (path != null) {
+                digest(path, messageDigest);
+                checksum = toHex(messageDigest.digest());
+            } else {
+                if (parseTimeout != null) {
+                    // An abandoned extraction might still read the stream. It must not update the digest of the next documents.
+                    messageDigest = newMessageDigest(messageDigest.getAlgorithm());
+                }
+                inputStream = new DigestInputStream(inputStream, messageDigest);
+            }
         }
 
+        byte[] source = null;
         ByteArrayOutputStream bos = null;
         if (fsSettings.getFs().isStoreSource()) {
-            logger.debug("Using a TeeInputStream as we need to store the source");
-            bos = new ByteArrayOutputStream();
-            inputStream = new TeeInputStream(inputStream, bos);
+            if (path != null) {
+                source = Files.readAllBytes(path);
+            } else {
+                logger.debug("Using a TeeInputStream as we need to store the source");
+                bos = new ByteArrayOutputStream();
+                inputStream = new TeeInputStream(inputStream, bos);
+            }
         }
 
-        try {
-            // Set the maximum length of strings returned by the parseToString method, -1 sets no limit
-            logger.trace("Beginning Tika extraction");
-            parsedContent = tika().parseToString(inputStream, metadata, indexedChars);
-            logger.trace("End of Tika extraction");
-        } catch (Throwable e) {
-            logger.debug("Failed to extract [" + indexedChars + "] characters of text for [" + filename + "]", e);
+        // Plain text files are decoded without Tika
+        Charset charset = null;
+        if (fsSettings.getFs().isFastTextExtraction() && PlainTextExtractor.supports(filename)) {
+            if (path != null) {
+                charset = PlainTextExtractor.detectCharset(path);
+            } else {
+                // We need to read the first bytes again if the content is binary
+                inputStream = new BufferedInputStream(inputStream, PlainTextExtractor.SAMPLE_SIZE);
+                charset = PlainTextExtractor.detectCharset(inputStream);
+            }
+        }
+
+        ExtractionCache.Entry cached = null;
+        if (charset == null && extractionCache != null && checksum != null) {
+            cached = extractionCache.get(messageDigest.getAlgorithm(), checksum, indexedChars);
+        }
+
+        boolean timedOut = false;
+        if (charset != null) {
+            logger.trace("Decoding [{}] as [{}] text", filename, charset);
+            try {
+                parsedContent = PlainTextExtractor.extract(inputStream, filename, charset, metadata, indexedChars);
+                // The checksum and the source need the whole content
+                if (path == null && (messageDigest != null || bos != null)) {
+                    drain(inputStream);
+                }
+            } catch (IOException e) {
+                logger.debug("Failed to extract [" + indexedChars + "] characters of text for [" + filename + "]", e);
+            }
+        } else if (cached != null) {
+            logger.trace("Text of [{}] found in the extraction cache", filename);
+            parsedContent = cached.getContent();
+            metadata = cached.getMetadata();
+        } else {
+            try {
+                // Set the maximum length of strings returned by the parseToString method, -1 sets no limit
+                logger.trace("Beginning Tika extraction");
+                if (parserProcesses != null) {
+                    parsedContent = parserProcesses.parseToString(inputStream, metadata, indexedChars,
+                            parseTimeout == null ? 0 : parseTimeout.millis());
+                } else if (parseTimeout == null) {
+                    parsedContent = tika().parseToString(inputStream, metadata, indexedChars);
+                } else {
+                    parsedContent = ParseWatchdog.parseToString(inputStream, metadata, indexedChars, parseTimeout.millis());
+                }
+                logger.trace("End of Tika extraction");
+                if (extractionCache != null && checksum != null) {
+                    extractionCache.put(messageDigest.getAlgorithm(), checksum, indexedChars, parsedContent, metadata);
+                }
+            } catch (TimeoutException e) {
+                logger.debug("Extraction of [{}] took more than [{}]", filename, parseTimeout);
+                timedOut = true;
+            } catch (InterruptedException e) {
+                logger.debug("Extraction of [{}] has been interrupted", filename);
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                logger.debug("Failed to extract [" + indexedChars + "] characters of text for [" + filename + "]", e);
+            }
         }
 
         // Adding what we found to the document we want to index
@@ -108,14 +221,12 @@ public class TikaDocParser {
                 doc.getFile().setFilesize(Long.parseLong(metadata.get(Metadata.CONTENT_LENGTH)));
             }
         }
-        if (messageDigest != null) {
-            byte[] digest = messageDigest.digest();
-            String result = "";
-            // Convert to Hexa
-            for (int i=0; i < digest.length; i++) {
-                result += Integer.toString( ( digest[i] & 0xff ) + 0x100, 16).substring( 1 );
-            }
-            doc.getFile().setChecksum(result);
+        // When the stream has not been read until the end, we don't know its checksum
+        if (checksum == null && messageDigest != null && !timedOut) {
+            checksum = toHex(messageDigest.digest());
+        }
+        if (checksum != null) {
+            doc.getFile().setChecksum(checksum);
         }
         // File
 
@@ -149,11 +260,61 @@ public class TikaDocParser {
         doc.setContent(parsedContent);
 
         // Doc as binary attachment
-        if (fsSettings.getFs().isStoreSource()) {
-            doc.setAttachment(Base64.getEncoder().encodeToString(bos.toByteArray()));
+        if (fsSettings.getFs().isStoreSource() && (source != null || !timedOut)) {
+            doc.setAttachment(Base64.getEncoder().encodeToString(source != null ? source : bos.toByteArray()));
         }
         logger.trace("End document generation");
         // End of our document
+        return !timedOut;
+    }
+
+    /**
+     * @return the local file behind this stream, or null if we don't have it
+     */
+    private static Path localPath(InputStream inputStream) throws IOException {
+        if (inputStream instanceof TikaInputStream && ((TikaInputStream) inputStream).hasFile()) {
+            return ((TikaInputStream) inputStream).getPath();
+        }
+        return null;
+    }
+
+    private static void drain(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[PlainTextExtractor.SAMPLE_SIZE];
+        while (inputStream.read(buffer) != -1) {
+            // We just need to read the stream
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        String result = "";
+        // Convert to Hexa
+        for (int i=0; i < digest.length; i++) {
+            result += Integer.toString( ( digest[i] & 0xff ) + 0x100, 16).substring( 1 );
+        }
+        return result;
+    }
+
+    private static MessageDigest newMessageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // We already have an instance for this algorithm
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compute the checksum of a local file. The file is mapped in memory by large blocks so
+     * its content does not need to be copied in the heap.
+     */
+    private static void digest(Path path, MessageDigest messageDigest) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += CHECKSUM_BLOCK_SIZE) {
+                messageDigest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(CHECKSUM_BLOCK_SIZE, size - position)));
+            }
+        }
     }
 
     public static List<String> commaDelimitedListToStringArray(String str) {
@@ -17,19 +17,28 @@
  * under the License.
  */
 
+
 package fr.pilato.elasticsearch.crawler.fs.tika;
 
 
 import org.apache.tika.Tika;
+import org.apache.tika.parser.AutoDetectParser;
 
 /**
- *
+ * Gives to each extraction thread its own Tika instance, backed by its own AutoDetectParser,
+ * so parsing documents from several threads does not share any parser state.
  */
 public class TikaInstance {
 
-    private static final Tika tika = new Tika();
+    private static final ThreadLocal<Tika> tika = ThreadLocal.withInitial(() -> {
+        AutoDetectParser parser = new AutoDetectParser();
+        return new Tika(parser.getDetector(), parser);
+    });
 
+    /**
+     * @return the Tika instance owned by the current thread
+     */
     public static Tika tika() {
-        return tika;
+        return tika.get();
     }
 }
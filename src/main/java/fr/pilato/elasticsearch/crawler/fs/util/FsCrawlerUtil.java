@@ -37,15 +37,8 @@ import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileOwnerAttributeView;
-import java.nio.file.attribute.PosixFileAttributeView;
-import java.nio.file.attribute.PosixFileAttributes;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -280,54 +273,6 @@ public class FsCrawlerUtil extends MetaParser {
                 .replace("\\", "/");
     }
 
-    public static LocalDateTime getCreationTime(File file) {
-        LocalDateTime time;
-        try  {
-            Path path = Paths.get(file.getAbsolutePath());
-            BasicFileAttributes fileattr = Files
-                    .getFileAttributeView(path, BasicFileAttributeView.class)
-                    .readAttributes();
-            time = LocalDateTime.ofInstant(fileattr.creationTime().toInstant(), ZoneId.systemDefault());
-        } catch (Exception e) {
-            time = null;
-        }
-        return time;
-    }
-
-    /**
-     * Determines the 'owner' of the file.
-     */
-    public static String getOwnerName(final File file) {
-        try {
-            final Path path = Paths.get(file.getAbsolutePath());
-            final FileOwnerAttributeView ownerAttributeView = Files.getFileAttributeView(path, FileOwnerAttributeView.class);
-            return ownerAttributeView != null ? ownerAttributeView.getOwner().getName() : null;
-        }
-        catch(Exception e) {
-            logger.warn("Failed to determine 'owner' of {}: {}", file, e.getMessage());
-            return null;
-        }
-    }
-
-    /**
-     * Determines the 'group' of the file. Please note that 'group' is not
-     * available of Windows OS.
-     */
-    public static String getGroupName(final File file) {
-        if (OsValidator.windows) {
-            logger.trace("Determining 'group' is skipped for file [{}] on [{}]", file, OsValidator.OS);
-            return null;
-        }
-        try {
-            final Path path = Paths.get(file.getAbsolutePath());
-            final PosixFileAttributes posixFileAttributes = Files.getFileAttributeView(path, PosixFileAttributeView.class).readAttributes();
-            return posixFileAttributes != null ? posixFileAttributes.group().getName() : null;
-        } catch (Exception e) {
-            logger.warn("Failed to determine 'group' of {}: {}", file, e.getMessage());
-            return null;
-        }
-    }
-
     /**
      * Extracts the major digits from a version string
      * @param version A version like x.y.z-WHATEVER
@@ -0,0 +1,220 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.watcher;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watch a local directory and all its subdirectories for changes, using the file system
+ * notifications (inotify on Linux). Events are sent to a {@link Listener} from the "fs-watcher" thread.
+ */
+public class DirectoryWatcher implements Runnable, Closeable {
+
+    private static final Logger logger = LogManager.getLogger(DirectoryWatcher.class);
+
+    /**
+     * Receives the changes found by the watcher
+     */
+    public interface Listener {
+        /**
+         * A file has been created or modified
+         */
+        void onFileChanged(Path file) throws Exception;
+
+        /**
+         * A directory has been created. Its files might have been created before we started watching it.
+         */
+        void onDirectoryCreated(Path dir) throws Exception;
+
+        /**
+         * A file or a directory has been removed
+         * @param directory true if this was a watched directory
+         */
+        void onDeleted(Path path, boolean directory) throws Exception;
+
+        /**
+         * Some events have been lost
+         */
+        void onOverflow() throws Exception;
+    }
+
+    private final Path root;
+    private final Predicate<Path> directoryFilter;
+    private final Listener listener;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+
+    private Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * @param root            the directory to watch
+     * @param directoryFilter the subdirectories we want to watch
+     * @param listener        the listener to call for each change
+     */
+    public DirectoryWatcher(Path root, Predicate<Path> directoryFilter, Listener listener) throws IOException {
+        this.root = root;
+        this.directoryFilter = directoryFilter;
+        this.listener = listener;
+        this.watchService = root.getFileSystem().newWatchService();
+    }
+
+    /**
+     * Register all the directories and start watching them
+     */
+    public void start() throws IOException {
+        registerAll(root);
+        logger.debug("Watching [{}] directories in [{}]", directories.size(), root);
+        thread = new Thread(this, "fs-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the number of directories we are watching
+     */
+    public int getWatchedDirectories() {
+        return directories.size();
+    }
+
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(root) && !directoryFilter.test(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                logger.debug("Can not read [{}]: {}", file, e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path dir) {
+        try {
+            WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            keys.put(key, dir);
+            directories.add(dir);
+        } catch (IOException e) {
+            // Typically when we reach the max number of inotify watches
+            logger.warn("Can not watch [{}]: {}. Changes will be detected by the next scan.", dir, e.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                logger.debug("Watcher for [{}] is now stopped", root);
+                return;
+            }
+
+            Path dir = keys.get(key);
+            if (dir != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    try {
+                        handle(dir, event);
+                    } catch (Exception e) {
+                        logger.warn("Error while processing event [{}] on [{}]: {}", event.kind(), dir, e.getMessage());
+                        logger.debug("Full stack trace", e);
+                    }
+                }
+            }
+
+            // The directory is not accessible anymore. Its parent will tell us it has been deleted,
+            // so we remember it was a directory until then.
+            if (!key.reset()) {
+                keys.remove(key);
+                if (root.equals(dir)) {
+                    directories.remove(dir);
+                }
+            }
+        }
+    }
+
+    private void handle(Path dir, WatchEvent<?> event) throws Exception {
+        if (event.kind() == OVERFLOW) {
+            logger.debug("Some events have been lost in [{}]", dir);
+            listener.onOverflow();
+            return;
+        }
+
+        Path child = dir.resolve((Path) event.context());
+        logger.trace("Event [{}] on [{}]", event.kind(), child);
+        if (event.kind() == ENTRY_DELETE) {
+            listener.onDeleted(child, directories.remove(child));
+        } else if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+            // Modifications of a directory are the changes of its content which we already get
+            if (event.kind() == ENTRY_CREATE && directoryFilter.test(child)) {
+                registerAll(child);
+                listener.onDirectoryCreated(child);
+            }
+        } else {
+            listener.onFileChanged(child);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        if (thread != null) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
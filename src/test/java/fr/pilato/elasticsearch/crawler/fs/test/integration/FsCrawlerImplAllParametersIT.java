@@ -347,6 +347,25 @@ public class FsCrawlerImplAllParametersIT extends AbstractITCase {
         countTestHelper(getCrawlerName(), null, 1, currentTestResourceDir);
     }
 
+    @Test
+    public void test_remove_deleted_with_file_state() throws Exception {
+        Fs fs = startCrawlerDefinition()
+                .setRemoveDeleted(true)
+                .setFileState(true)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We should have two docs first
+        countTestHelper(getCrawlerName(), null, 2, currentTestResourceDir);
+
+        // We remove a file
+        logger.info("  ---> Removing file deleted_roottxtfile.txt");
+        Files.delete(currentTestResourceDir.resolve("deleted_roottxtfile.txt"));
+
+        // We expect to have one file
+        countTestHelper(getCrawlerName(), null, 1, currentTestResourceDir);
+    }
+
     @Test
     public void test_remove_deleted_disabled() throws Exception {
         Fs fs = startCrawlerDefinition()
@@ -535,6 +554,43 @@ public class FsCrawlerImplAllParametersIT extends AbstractITCase {
         countTestHelper(getCrawlerName(), null, 2);
     }
 
+    @Test
+    public void test_walker_threads() throws Exception {
+        Fs fs = startCrawlerDefinition()
+                .setWalkerThreads(4)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We expect to have seven files
+        countTestHelper(getCrawlerName(), null, 7);
+    }
+
+    @Test
+    public void test_pipeline() throws Exception {
+        Fs fs = startCrawlerDefinition()
+                .setPipeline(true)
+                .setQueueSize(2)
+                .setFetchThreads(2)
+                .setSerializeThreads(2)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We expect to have seven files
+        countTestHelper(getCrawlerName(), null, 7);
+    }
+
+    @Test
+    public void test_parser_threads() throws Exception {
+        Fs fs = startCrawlerDefinition()
+                .setParserThreads(4)
+                .setChecksum("MD5")
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We expect to have seven files
+        countTestHelper(getCrawlerName(), null, 7);
+    }
+
     @Test
     public void test_subdirs_with_patterns() throws Exception {
         Fs fs = startCrawlerDefinition()
@@ -593,6 +649,28 @@ public class FsCrawlerImplAllParametersIT extends AbstractITCase {
     }
 
 
+    @Test
+    public void test_watch() throws Exception {
+        Fs fs = startCrawlerDefinition(TimeValue.timeValueHours(1))
+                .setWatch(true)
+                .setRemoveDeleted(true)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We expect to have one file
+        countTestHelper(getCrawlerName(), null, 1, currentTestResourceDir);
+
+        // We add a file. It should be indexed without waiting for the next scan.
+        logger.info(" ---> Creating a new file new_roottxtfile.txt");
+        Files.write(currentTestResourceDir.resolve("new_roottxtfile.txt"), "This is a new file".getBytes());
+        countTestHelper(getCrawlerName(), null, 2, currentTestResourceDir);
+
+        // We remove it
+        logger.info(" ---> Removing file new_roottxtfile.txt");
+        Files.delete(currentTestResourceDir.resolve("new_roottxtfile.txt"));
+        countTestHelper(getCrawlerName(), null, 1, currentTestResourceDir);
+    }
+
     /**
      * You have to adapt this test to your own system (login / password and SSH connexion)
      * So this test is disabled by default
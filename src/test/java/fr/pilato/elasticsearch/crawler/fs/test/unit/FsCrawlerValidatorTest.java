@@ -21,10 +21,12 @@ package fr.pilato.elasticsearch.crawler.fs.test.unit;
 
 import fr.pilato.elasticsearch.crawler.fs.FsCrawlerImpl;
 import fr.pilato.elasticsearch.crawler.fs.FsCrawlerValidator;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.ByteSizeValue;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Elasticsearch;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Server;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
 import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
 import org.junit.Test;
 
@@ -66,6 +68,101 @@ public class FsCrawlerValidatorTest extends AbstractFSCrawlerTestCase {
         settings = buildSettings(null, null, Server.builder().setProtocol(FsCrawlerImpl.PROTOCOL.SSH).build());
         assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(true));
 
+        // Checking that we don't use more than one walker thread when SSH
+        settings = buildSettings(Fs.builder().setWalkerThreads(4).setWatch(true).build(), null,
+                Server.builder().setProtocol(FsCrawlerImpl.PROTOCOL.SSH).setUsername("username").build());
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getFs().getWalkerThreads(), is(1));
+        assertThat(settings.getFs().isWatch(), is(false));
+
+        // Checking that we don't use more walker threads than SSH channels
+        settings = buildSettings(Fs.builder().setWalkerThreads(8).build(), null,
+                Server.builder().setProtocol(FsCrawlerImpl.PROTOCOL.SSH).setUsername("username").setMaxChannels(4).build());
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getFs().getWalkerThreads(), is(4));
+
+        // Checking that we fall back to sftp listing with an unknown listing
+        settings = buildSettings(null, null,
+                Server.builder().setProtocol(FsCrawlerImpl.PROTOCOL.SSH).setUsername("username").setListing("ls").build());
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getServer().getListing(), is(FsCrawlerImpl.LISTING.SFTP));
+
+        // Checking that remote checksums need a checksum the server can compute and the file state
+        settings = buildSettings(Fs.builder().setChecksum("SHA-256").build(), null,
+                Server.builder().setProtocol(FsCrawlerImpl.PROTOCOL.SSH).setUsername("username").setRemoteChecksum(true).build());
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getServer().isRemoteChecksum(), is(true));
+        assertThat(settings.getFs().isFileState(), is(true));
+        settings = buildSettings(null, null,
+                Server.builder().setProtocol(FsCrawlerImpl.PROTOCOL.SSH).setUsername("username").setRemoteChecksum(true).build());
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getServer().isRemoteChecksum(), is(false));
+
+        // Checking that max_channels is at least 1
+        settings = buildSettings(null, null,
+                Server.builder().setProtocol(FsCrawlerImpl.PROTOCOL.SSH).setUsername("username").setMaxChannels(0).build());
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getServer().getMaxChannels(), is(1));
+
+        // Checking that we need a bucket when using S3
+        settings = buildSettings(Fs.builder().setUrl("/").build(), null,
+                Server.builder().setProtocol(FsCrawlerImpl.PROTOCOL.S3).build());
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(true));
+        settings = buildSettings(Fs.builder().setUrl("/bucket/prefix").setWatch(true).build(), null,
+                Server.builder().setProtocol(FsCrawlerImpl.PROTOCOL.S3).build());
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getFs().isWatch(), is(false));
+
+        // Checking that we don't watch changes when expanding archives
+        settings = buildSettings(Fs.builder().setWatch(true).setExpandArchives(true).build(), null, null);
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getFs().isWatch(), is(false));
+
+        // Checking parse timeout
+        settings = buildSettings(Fs.builder().setParseTimeout(TimeValue.timeValueSeconds(0)).build(), null, null);
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getFs().getParseTimeout(), nullValue());
+
+        // Checking parser processes
+        settings = buildSettings(Fs.builder().setParserProcesses(4).setParserProcessHeap("1 GB").build(), null, null);
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getFs().getParserProcessHeap(), is(Fs.DEFAULT_PARSER_PROCESS_HEAP));
+        assertThat(settings.getFs().getParserThreads(), is(4));
+        settings = buildSettings(Fs.builder().setParserProcesses(-1).build(), null, null);
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getFs().getParserProcesses(), is(0));
+
+        // Checking extraction cache
+        settings = buildSettings(Fs.builder().setExtractionCache(true).setExtractionCacheSize(new ByteSizeValue(0)).build(), null, null);
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getFs().getChecksum(), is("SHA-256"));
+        assertThat(settings.getFs().getExtractionCacheSize(), is(Fs.DEFAULT_EXTRACTION_CACHE_SIZE));
+
+        // Checking pipeline settings
+        settings = buildSettings(Fs.builder().setPipeline(true).setQueueSize(0).setFetchThreads(-1).build(), null, null);
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getFs().getQueueSize(), is(Fs.DEFAULT_QUEUE_SIZE));
+        assertThat(settings.getFs().getFetchThreads(), is(1));
+        assertThat(settings.getFs().getFetchQueueSize(), is(Fs.DEFAULT_QUEUE_SIZE));
+        assertThat(settings.getFs().getExtractQueueSize(), is(Fs.DEFAULT_QUEUE_SIZE));
+
+        // Each stage can have its own queue size
+        settings = buildSettings(Fs.builder().setPipeline(true).setQueueSize(10).setExtractQueueSize(2).build(), null, null);
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getFs().getExtractQueueSize(), is(2));
+        assertThat(settings.getFs().getSerializeQueueSize(), is(10));
+        assertThat(settings.getFs().getBulkQueueSize(), is(10));
+
+        // Checking that the breadth first walker uses a single thread
+        settings = buildSettings(Fs.builder().setBreadthFirst(true).setWalkerThreads(4).build(), null, null);
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getFs().getWalkerThreads(), is(1));
+
+        // Checking that pruning directories enables the file state
+        settings = buildSettings(Fs.builder().setPruneDirectories(true).build(), null, null);
+        assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(false));
+        assertThat(settings.getFs().isFileState(), is(true));
+
         // Checking That we don't try to do both xml and json
         settings = buildSettings(Fs.builder().setJsonSupport(true).setXmlSupport(true).build(), null, null);
         assertThat(FsCrawlerValidator.validateSettings(logger, settings), is(true));
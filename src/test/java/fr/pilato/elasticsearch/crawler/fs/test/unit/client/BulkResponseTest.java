@@ -28,6 +28,10 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
 
 public class BulkResponseTest  extends AbstractFSCrawlerTestCase {
 
@@ -74,41 +78,37 @@ public class BulkResponseTest  extends AbstractFSCrawlerTestCase {
         logger.info("asObject -> {}", response);
     }
 
-    /*
-    {
-  "took" : 141,
-  "errors" : true,
-  "items" : [
-    {
-      "index" : {
-        "_index" : "fscrawler_test_bulk_with_time",
-        "_type" : "doc",
-        "_id" : "id1",
-        "status" : 400,
-        "error" : {
-          "type" : "illegal_argument_exception",
-          "reason" : "mapper [int] of different type, current_type [text], merged_type [long]"
-        }
-      }
-    },
-    {
-      "index" : {
-        "_index" : "fscrawler_test_bulk_with_time",
-        "_type" : "doc",
-        "_id" : "id2",
-        "_version" : 3,
-        "forced_refresh" : false,
-        "_shards" : {
-          "total" : 2,
-          "successful" : 1,
-          "failed" : 0
-        },
-        "created" : false,
-        "status" : 200
-      }
+    @Test
+    public void testDeserializeFailures() {
+        String json = "{\"took\":141,\"errors\":true,\"items\":[{\"index\":{\"_index\":\"fscrawler_test_bulk_with_time\"," +
+                "\"_type\":\"doc\",\"_id\":\"id1\",\"status\":400,\"error\":{\"type\":\"illegal_argument_exception\"," +
+                "\"reason\":\"mapper [int] of different type, current_type [text], merged_type [long]\"}}}," +
+                "{\"index\":{\"_index\":\"fscrawler_test_bulk_with_time\",\"_type\":\"doc\",\"_id\":\"id2\",\"_version\":3," +
+                "\"forced_refresh\":false,\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"created\":false," +
+                "\"status\":200}}]}";
+
+        InputStream stream = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+        BulkResponse response = JsonUtil.deserialize(stream, BulkResponse.class);
+        logger.info("asObject -> {}", response);
+        assertThat(response.hasFailures(), is(true));
+        assertThat(response.getItems()[0].getItemContent().isFailed(), is(true));
+        assertThat(response.getItems()[0].getItemContent().getFailureMessage(), startsWith("illegal_argument_exception"));
+        assertThat(response.getItems()[0].getItemContent().getStatus(), is(400));
+        assertThat(response.getItems()[0].getItemContent().isRetryable(), is(false));
+        assertThat(response.getItems()[1].getItemContent().isFailed(), is(false));
     }
-  ]
-}
 
-     */
+    @Test
+    public void testDeserializeRetryableFailures() {
+        String json = "{\"took\":3,\"errors\":true,\"items\":[{\"index\":{\"_index\":\"fscrawler_test_bulk_with_time\"," +
+                "\"_type\":\"doc\",\"_id\":\"id1\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\"," +
+                "\"reason\":\"rejected execution of coordinating operation\"}}}," +
+                "{\"index\":{\"_index\":\"fscrawler_test_bulk_with_time\",\"_type\":\"doc\",\"_id\":\"id2\",\"status\":503," +
+                "\"error\":{\"type\":\"unavailable_shards_exception\",\"reason\":\"primary shard is not active\"}}}]}";
+
+        InputStream stream = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+        BulkResponse response = JsonUtil.deserialize(stream, BulkResponse.class);
+        assertThat(response.getItems()[0].getItemContent().isRetryable(), is(true));
+        assertThat(response.getItems()[1].getItemContent().isRetryable(), is(true));
+    }
 }
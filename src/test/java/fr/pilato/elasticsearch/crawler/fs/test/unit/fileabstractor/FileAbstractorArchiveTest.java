@@ -0,0 +1,296 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.fileabstractor;
+
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractModel;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractor;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractorArchive;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractorFile;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+/**
+ * We want to test that archives are seen as directories containing their entries
+ */
+public class FileAbstractorArchiveTest extends AbstractFSCrawlerTestCase {
+
+    private final FsSettings fsSettings = FsSettings.builder("test").setFs(Fs.builder().build()).build();
+    private final FileAbstractorArchive abstractor = new FileAbstractorArchive(fsSettings, new FileAbstractorFile(fsSettings));
+
+    @Test
+    public void testArchivesAreDirectories() throws Exception {
+        Path dir = rootTmpDir.resolve("archive-list");
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("foo.txt"), "foo".getBytes(StandardCharsets.UTF_8));
+        writeZip(dir.resolve("bar.zip"));
+
+        List<FileAbstractModel> files = list(dir.toString());
+        assertThat(files.size(), is(2));
+        for (FileAbstractModel file : files) {
+            assertThat(file.directory, is("bar.zip".equals(file.name)));
+            assertThat(file.file, is("foo.txt".equals(file.name)));
+        }
+        assertThat(abstractor.getFile(dir.resolve("bar.zip").toString()).directory, is(true));
+    }
+
+    @Test
+    public void testZip() throws Exception {
+        Path zip = rootTmpDir.resolve("test.zip");
+        writeZip(zip);
+        checkEntries(zip);
+    }
+
+    @Test
+    public void testTarGz() throws Exception {
+        Path tgz = rootTmpDir.resolve("test.tar.gz");
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(Files.newOutputStream(tgz)))) {
+            TarArchiveEntry dirEntry = new TarArchiveEntry("subdir/");
+            tar.putArchiveEntry(dirEntry);
+            tar.closeArchiveEntry();
+            addTarEntry(tar, "first.txt", "first entry");
+            addTarEntry(tar, "subdir/second.txt", "second entry");
+        }
+        checkEntries(tgz);
+    }
+
+    @Test
+    public void testGz() throws Exception {
+        Path gz = rootTmpDir.resolve("single.txt.gz");
+        try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            os.write("single entry".getBytes(StandardCharsets.UTF_8));
+        }
+
+        Map<String, String> entries = readEntries(gz.toString() + "/");
+        assertThat(entries.size(), is(1));
+        assertThat(entries.get("single.txt"), is("single entry"));
+    }
+
+    @Test
+    public void testEntriesAreOnlyReadableWhileListed() throws Exception {
+        Path zip = rootTmpDir.resolve("listed.zip");
+        writeZip(zip);
+
+        // We don't read the first entry before asking for the next one so it is skipped
+        try (Stream<FileAbstractModel> stream = abstractor.getFiles(zip.toString() + "/")) {
+            Iterator<FileAbstractModel> it = stream.iterator();
+            FileAbstractModel first = it.next();
+            FileAbstractModel second = it.next();
+            assertNotReadable(first);
+            assertThat(read(second), is("second entry"));
+            // An entry can only be read once
+            assertNotReadable(second);
+        }
+    }
+
+    @Test
+    public void testArchiveDirectory() throws Exception {
+        Path dir = rootTmpDir.resolve("archive-dir");
+        Files.createDirectories(dir.resolve("not-an-archive.zip"));
+        writeZip(dir.resolve("bar.zip"));
+
+        assertThat(abstractor.isArchiveDirectory(dir.resolve("bar.zip").toString() + "/"), is(true));
+        assertThat(abstractor.isArchiveDirectory(dir.resolve("not-an-archive.zip").toString() + "/"), is(false));
+        assertThat(abstractor.isArchiveDirectory(dir.toString()), is(false));
+    }
+
+    @Test
+    public void testCorruptedArchive() throws Exception {
+        Path zip = rootTmpDir.resolve("corrupted.zip");
+        Files.write(zip, "this is not a zip file".getBytes(StandardCharsets.UTF_8));
+        assertThat(list(zip.toString()), empty());
+    }
+
+    @Test
+    public void testRemoteArchivesAreCopied() throws Exception {
+        Path zip = rootTmpDir.resolve("remote.zip");
+        writeZip(zip);
+        RemoteAbstractor remote = new RemoteAbstractor(fsSettings);
+        FileAbstractorArchive archives = new FileAbstractorArchive(fsSettings, remote);
+
+        try (Stream<FileAbstractModel> stream = archives.getFiles(zip.toString() + "/")) {
+            Iterator<FileAbstractModel> it = stream.iterator();
+            FileAbstractModel first = it.next();
+            // We don't keep the server busy while the entries are read
+            assertThat(remote.openStreams.get(), is(0));
+            try (InputStream is = archives.getInputStream(first)) {
+                assertThat(IOUtils.toString(is, StandardCharsets.UTF_8), is("first entry"));
+            }
+            assertThat(it.next().name, is("subdir/second.txt"));
+        }
+        assertThat(remote.openStreams.get(), is(0));
+    }
+
+    private void checkEntries(Path archive) throws Exception {
+        FileAbstractModel archiveModel = abstractor.getFile(archive.toString());
+        try (Stream<FileAbstractModel> stream = abstractor.getFiles(archive.toString() + "/")) {
+            List<String> names = new ArrayList<>();
+            for (Iterator<FileAbstractModel> it = stream.iterator(); it.hasNext(); ) {
+                FileAbstractModel entry = it.next();
+                names.add(entry.name);
+                assertThat(entry.file, is(true));
+                assertThat(entry.path, is(archive.toString()));
+                assertThat(entry.fullpath, is(archive.toString() + "/" + entry.name));
+                assertThat(entry.lastModifiedDate, is(archiveModel.lastModifiedDate));
+                // Entries have to be read before the next one is listed
+                assertThat(read(entry), is("first.txt".equals(entry.name) ? "first entry" : "second entry"));
+            }
+            assertThat(names, containsInAnyOrder("first.txt", "subdir/second.txt"));
+        }
+    }
+
+    private void assertNotReadable(FileAbstractModel entry) throws Exception {
+        try {
+            abstractor.getInputStream(entry);
+            fail("we should not be able to read [" + entry.name + "]");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString(entry.name));
+        }
+    }
+
+    private Map<String, String> readEntries(String dir) throws Exception {
+        Map<String, String> entries = new HashMap<>();
+        try (Stream<FileAbstractModel> stream = abstractor.getFiles(dir)) {
+            for (Iterator<FileAbstractModel> it = stream.iterator(); it.hasNext(); ) {
+                FileAbstractModel entry = it.next();
+                entries.put(entry.name, read(entry));
+            }
+        }
+        return entries;
+    }
+
+    private List<FileAbstractModel> list(String dir) throws Exception {
+        try (Stream<FileAbstractModel> stream = abstractor.getFiles(dir)) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    private String read(FileAbstractModel entry) throws Exception {
+        try (InputStream is = abstractor.getInputStream(entry)) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void writeZip(Path zip) throws Exception {
+        try (ZipOutputStream os = new ZipOutputStream(Files.newOutputStream(zip))) {
+            os.putNextEntry(new ZipEntry("subdir/"));
+            os.closeEntry();
+            os.putNextEntry(new ZipEntry("first.txt"));
+            os.write("first entry".getBytes(StandardCharsets.UTF_8));
+            os.closeEntry();
+            os.putNextEntry(new ZipEntry("subdir/second.txt"));
+            os.write("second entry".getBytes(StandardCharsets.UTF_8));
+            os.closeEntry();
+        }
+    }
+
+    /**
+     * Reads local files like a server would, counting the streams which are still open
+     */
+    private static class RemoteAbstractor extends FileAbstractor<FileAbstractModel> {
+        private final FileAbstractorFile local;
+        private final AtomicInteger openStreams = new AtomicInteger();
+
+        private RemoteAbstractor(FsSettings fsSettings) {
+            super(fsSettings);
+            this.local = new FileAbstractorFile(fsSettings);
+        }
+
+        @Override
+        public FileAbstractModel toFileAbstractModel(String path, FileAbstractModel file) {
+            return file;
+        }
+
+        @Override
+        public InputStream getInputStream(FileAbstractModel file) throws Exception {
+            openStreams.incrementAndGet();
+            return new FilterInputStream(local.getInputStream(file)) {
+                @Override
+                public void close() throws IOException {
+                    openStreams.decrementAndGet();
+                    super.close();
+                }
+            };
+        }
+
+        @Override
+        public Stream<FileAbstractModel> getFiles(String dir) throws Exception {
+            return local.getFiles(dir);
+        }
+
+        @Override
+        public FileAbstractModel getFile(String path) throws Exception {
+            return local.getFile(path);
+        }
+
+        @Override
+        public boolean exists(String dir) throws Exception {
+            return local.exists(dir);
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void addTarEntry(TarArchiveOutputStream tar, String name, String content) throws Exception {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(bytes.length);
+        tar.putArchiveEntry(entry);
+        tar.write(bytes);
+        tar.closeArchiveEntry();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.fileabstractor;
+
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractModel;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractorFile;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * We want to test the local file abstractor
+ */
+public class FileAbstractorFileTest extends AbstractFSCrawlerTestCase {
+
+    private final FileAbstractorFile abstractor = new FileAbstractorFile(FsSettings.builder("test")
+            .setFs(Fs.builder().build()).build());
+
+    @Test
+    public void testGetFiles() throws IOException {
+        Path dir = rootTmpDir.resolve("abstractor-list");
+        Files.createDirectories(dir.resolve("subdir"));
+        Files.write(dir.resolve("foo.txt"), "foo".getBytes());
+        Files.write(dir.resolve("bar.txt"), "barbar".getBytes());
+
+        List<FileAbstractModel> files;
+        try (Stream<FileAbstractModel> stream = abstractor.getFiles(dir.toString())) {
+            files = stream.collect(Collectors.toList());
+        }
+        assertThat(files.stream().map(file -> file.name).collect(Collectors.toList()),
+                containsInAnyOrder("foo.txt", "bar.txt", "subdir"));
+        for (FileAbstractModel file : files) {
+            assertThat(file.path, is(dir.toString()));
+            assertThat(file.fullpath, is(dir.resolve(file.name).toString()));
+            assertThat(file.lastModifiedDate, notNullValue());
+            assertThat(file.directory, is("subdir".equals(file.name)));
+            if ("bar.txt".equals(file.name)) {
+                assertThat(file.size, is(6L));
+            }
+        }
+    }
+
+    @Test
+    public void testGetFilesParallel() throws IOException {
+        Path dir = rootTmpDir.resolve("abstractor-parallel");
+        Files.createDirectories(dir);
+        int count = between(1000, 5000);
+        for (int i = 0; i < count; i++) {
+            Files.createFile(dir.resolve("file" + i));
+        }
+
+        try (Stream<FileAbstractModel> stream = abstractor.getFiles(dir.toString())) {
+            assertThat(stream.parallel().filter(file -> file.file).count(), is((long) count));
+        }
+    }
+
+    @Test
+    public void testNoAttributes() throws IOException {
+        Path dir = rootTmpDir.resolve("abstractor-no-attributes");
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("foo.txt"), "foo".getBytes());
+
+        FileAbstractModel file = abstractor.getFile(dir.resolve("foo.txt").toString());
+        assertThat(file.owner, nullValue());
+        assertThat(file.group, nullValue());
+    }
+
+    @Test
+    public void testOwnerLookedUpOncePerUid() throws IOException {
+        assumeTrue("uid and gid are only available with the unix view",
+                FileSystems.getDefault().supportedFileAttributeViews().contains("unix"));
+        Path dir = rootTmpDir.resolve("abstractor-owners");
+        Files.createDirectories(dir);
+        int count = between(10, 100);
+        for (int i = 0; i < count; i++) {
+            Files.createFile(dir.resolve("file" + i));
+        }
+
+        AtomicInteger ownerLookups = new AtomicInteger();
+        AtomicInteger groupLookups = new AtomicInteger();
+        FileAbstractorFile withAttributes = new FileAbstractorFile(FsSettings.builder("test")
+                .setFs(Fs.builder().setAttributesSupport(true).build()).build()) {
+            @Override
+            protected String getOwnerName(Path file) {
+                ownerLookups.incrementAndGet();
+                return super.getOwnerName(file);
+            }
+
+            @Override
+            protected String getGroupName(Path file) {
+                groupLookups.incrementAndGet();
+                return super.getGroupName(file);
+            }
+        };
+
+        String owner = Files.getOwner(dir.resolve("file0")).getName();
+        try (Stream<FileAbstractModel> stream = withAttributes.getFiles(dir.toString())) {
+            stream.forEach(file -> {
+                assertThat(file.owner, is(owner));
+                assertThat(file.group, notNullValue());
+            });
+        }
+        // All the files have the same uid and gid
+        assertThat(ownerLookups.get(), is(1));
+        assertThat(groupLookups.get(), is(1));
+    }
+
+    @Test
+    public void testMissingDir() throws IOException {
+        Path dir = rootTmpDir.resolve("abstractor-missing");
+        try (Stream<FileAbstractModel> stream = abstractor.getFiles(dir.toString())) {
+            assertThat(stream.count(), is(0L));
+        }
+        assertThat(abstractor.getFile(dir.toString()), nullValue());
+    }
+}
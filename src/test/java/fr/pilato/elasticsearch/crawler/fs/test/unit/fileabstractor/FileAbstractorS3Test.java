@@ -0,0 +1,266 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.fileabstractor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import fr.pilato.elasticsearch.crawler.fs.FsCrawlerImpl;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractModel;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractorS3;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Server;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+
+/**
+ * We test the S3 abstractor against a minimal S3 compatible server running in the JVM
+ */
+public class FileAbstractorS3Test extends AbstractFSCrawlerTestCase {
+
+    private HttpServer server;
+    private final Map<String, byte[]> objects = new TreeMap<>();
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private volatile String authorization;
+    private FileAbstractorS3 abstractor;
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+
+        objects.put("docs/", new byte[0]);
+        objects.put("docs/a.txt", "a content".getBytes(StandardCharsets.UTF_8));
+        objects.put("docs/b c.txt", "b content".getBytes(StandardCharsets.UTF_8));
+        objects.put("docs/sub/c.txt", "c content".getBytes(StandardCharsets.UTF_8));
+        objects.put("docs/sub/d/e.txt", "e content".getBytes(StandardCharsets.UTF_8));
+        objects.put("other.txt", "other content".getBytes(StandardCharsets.UTF_8));
+
+        abstractor = new FileAbstractorS3(FsSettings.builder("test")
+                .setFs(Fs.builder().setUrl("/bucket/docs").build())
+                .setServer(Server.builder()
+                        .setProtocol(FsCrawlerImpl.PROTOCOL.S3)
+                        .setEndpoint("http://127.0.0.1:" + server.getAddress().getPort())
+                        .setUsername("access")
+                        .setPassword("secret")
+                        .setMaxChannels(3)
+                        .build())
+                .build());
+        abstractor.open();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        if (abstractor != null) {
+            abstractor.close();
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testListing() throws Exception {
+        List<FileAbstractModel> files;
+        try (Stream<FileAbstractModel> stream = abstractor.getFiles("/bucket/docs/")) {
+            files = stream.collect(Collectors.toList());
+        }
+        assertThat(files.stream().map(file -> file.name).collect(Collectors.toList()),
+                containsInAnyOrder("a.txt", "b c.txt", "sub"));
+        for (FileAbstractModel file : files) {
+            assertThat(file.path, is("/bucket/docs"));
+            assertThat(file.fullpath, is("/bucket/docs/" + file.name));
+            assertThat(file.directory, is("sub".equals(file.name)));
+            if (file.file) {
+                assertThat(file.size, is(9L));
+                assertThat(file.inode, not(0L));
+                try (InputStream is = abstractor.getInputStream(file)) {
+                    assertThat(IOUtils.toString(is, StandardCharsets.UTF_8), is(file.name.charAt(0) + " content"));
+                }
+            }
+        }
+        assertThat(authorization, startsWith("AWS4-HMAC-SHA256 Credential=access/"));
+    }
+
+    @Test
+    public void testGetFileAndExists() throws Exception {
+        FileAbstractModel file = abstractor.getFile("/bucket/docs/a.txt");
+        assertThat(file, notNullValue());
+        assertThat(file.file, is(true));
+        assertThat(file.size, is(9L));
+        assertThat(file.path, is("/bucket/docs"));
+
+        FileAbstractModel dir = abstractor.getFile("/bucket/docs/sub/");
+        assertThat(dir, notNullValue());
+        assertThat(dir.directory, is(true));
+        assertThat(dir.name, is("sub"));
+
+        assertThat(abstractor.getFile("/bucket/docs/nothing"), nullValue());
+
+        assertThat(abstractor.exists("/bucket"), is(true));
+        assertThat(abstractor.exists("/bucket/docs"), is(true));
+        assertThat(abstractor.exists("/bucket/nothing"), is(false));
+        assertThat(abstractor.exists("/other-bucket"), is(false));
+    }
+
+    @Test
+    public void testRangedDownload() throws Exception {
+        byte[] content = new byte[8 * 1024 * 1024 * 2 + 1000];
+        new Random(0).nextBytes(content);
+        objects.put("docs/big.bin", content);
+
+        FileAbstractModel file = abstractor.getFile("/bucket/docs/big.bin");
+        try (InputStream is = abstractor.getInputStream(file)) {
+            assertThat(Arrays.equals(IOUtils.toByteArray(is), content), is(true));
+        }
+        assertThat(rangeRequests.get(), greaterThan(1));
+    }
+
+    /**
+     * A very small subset of the S3 API: HEAD bucket, ListObjectsV2 with 2 entries per page,
+     * HEAD object and GET object with ranges
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        String path = exchange.getRequestURI().getPath().substring(1);
+        int pos = path.indexOf('/');
+        String bucket = pos < 0 ? path : path.substring(0, pos);
+        String key = pos < 0 ? "" : path.substring(pos + 1);
+        boolean head = "HEAD".equals(exchange.getRequestMethod());
+
+        if (!"bucket".equals(bucket)) {
+            send(exchange, 404, new byte[0]);
+        } else if (key.isEmpty() && head) {
+            send(exchange, 200, new byte[0]);
+        } else if (key.isEmpty()) {
+            send(exchange, 200, list(query(exchange.getRequestURI().getRawQuery())).getBytes(StandardCharsets.UTF_8));
+        } else if (!objects.containsKey(key)) {
+            send(exchange, 404, new byte[0]);
+        } else {
+            byte[] content = objects.get(key);
+            exchange.getResponseHeaders().add("ETag", "\"" + Arrays.hashCode(content) + "\"");
+            exchange.getResponseHeaders().add("Last-Modified",
+                    DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.of(2017, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC)));
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (head) {
+                exchange.getResponseHeaders().add("Content-Length", Integer.toString(content.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            } else if (range != null) {
+                rangeRequests.incrementAndGet();
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                send(exchange, 206, Arrays.copyOfRange(content, Integer.parseInt(bounds[0]), Integer.parseInt(bounds[1]) + 1));
+            } else {
+                send(exchange, 200, content);
+            }
+        }
+    }
+
+    private String list(Map<String, String> query) {
+        String prefix = query.getOrDefault("prefix", "");
+        TreeSet<String> entries = new TreeSet<>();
+        for (String key : objects.keySet()) {
+            if (key.startsWith(prefix)) {
+                int pos = key.indexOf('/', prefix.length());
+                entries.add(pos < 0 ? key : key.substring(0, pos + 1));
+            }
+        }
+        List<String> all = new ArrayList<>(entries);
+        int from = Integer.parseInt(query.getOrDefault("continuation-token", "0"));
+        int to = Math.min(all.size(), from + Math.min(2, Integer.parseInt(query.get("max-keys"))));
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                .append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">")
+                .append("<Name>bucket</Name><Prefix>").append(prefix).append("</Prefix>")
+                .append("<IsTruncated>").append(to < all.size()).append("</IsTruncated>");
+        if (to < all.size()) {
+            xml.append("<NextContinuationToken>").append(to).append("</NextContinuationToken>");
+        }
+        for (String entry : all.subList(from, to)) {
+            if (entry.endsWith("/") && !entry.equals(prefix)) {
+                xml.append("<CommonPrefixes><Prefix>").append(entry).append("</Prefix></CommonPrefixes>");
+            } else {
+                byte[] content = objects.get(entry);
+                xml.append("<Contents><Key>").append(entry).append("</Key>")
+                        .append("<LastModified>2017-01-01T00:00:00.000Z</LastModified>")
+                        .append("<ETag>&quot;").append(Arrays.hashCode(content)).append("&quot;</ETag>")
+                        .append("<Size>").append(content.length).append("</Size>")
+                        .append("<StorageClass>STANDARD</StorageClass></Contents>");
+            }
+        }
+        return xml.append("</ListBucketResult>").toString();
+    }
+
+    private static Map<String, String> query(String rawQuery) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (String param : rawQuery.split("&")) {
+                String[] kv = param.split("=", 2);
+                query.put(URLDecoder.decode(kv[0], "UTF-8"), kv.length > 1 ? URLDecoder.decode(kv[1], "UTF-8") : "");
+            }
+        }
+        return query;
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+        exchange.close();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.fileabstractor;
+
+import fr.pilato.elasticsearch.crawler.fs.FsCrawlerImpl;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractModel;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractorSSH;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FindListingParser;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Server;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * We test the find listing of the SSH abstractor without any server: find is run by the test
+ */
+public class FileAbstractorSSHTest extends AbstractFSCrawlerTestCase {
+
+    private static final String OUTPUT = "f\t3\t1500000000.0000000000\t1000\t1000\tfoo.txt\0" +
+            "d\t4096\t1500000000.0000000000\t1000\t1000\tsubdir\0" +
+            "f\t12\t1500000001.2500000000\t1000\t100\tsubdir/bar.txt\0" +
+            "d\t4096\t1500000000.0000000000\t1000\t1000\tsubdir/empty\0";
+
+    private final List<String> commands = new ArrayList<>();
+
+    private FileAbstractorSSH abstractor() {
+        return new FileAbstractorSSH(FsSettings.builder("test")
+                .setFs(Fs.builder().setUrl("/data").build())
+                .setServer(Server.builder()
+                        .setProtocol(FsCrawlerImpl.PROTOCOL.SSH)
+                        .setListing(FsCrawlerImpl.LISTING.FIND)
+                        .build())
+                .build()) {
+            @Override
+            protected int exec(String command, ByteArrayOutputStream errors, OutputReader reader) throws Exception {
+                commands.add(command);
+                reader.read(new ByteArrayInputStream(OUTPUT.getBytes(StandardCharsets.UTF_8)));
+                return 0;
+            }
+        };
+    }
+
+    @Test
+    public void testFindRunsOncePerTree() throws Exception {
+        FileAbstractorSSH abstractor = abstractor();
+        // The crawler gives the directories with a trailing slash
+        List<FileAbstractModel> root = list(abstractor, "/data/");
+        assertThat(names(root), contains("foo.txt", "subdir"));
+        assertThat(root.get(1).fullpath, is("/data/subdir"));
+
+        List<FileAbstractModel> subdir = list(abstractor, root.get(1).fullpath.concat("/"));
+        assertThat(names(subdir), contains("bar.txt", "empty"));
+        assertThat(subdir.get(0).path, is("/data/subdir"));
+        assertThat(subdir.get(0).fullpath, is("/data/subdir/bar.txt"));
+        assertThat(list(abstractor, "/data/subdir/empty/"), empty());
+
+        assertThat(commands, contains(FindListingParser.command("/data")));
+        abstractor.close();
+    }
+
+    @Test
+    public void testListingDone() throws Exception {
+        FileAbstractorSSH abstractor = abstractor();
+        list(abstractor, "/data/");
+        // The subdirectory has been pruned: it is never listed during this run
+        abstractor.listingDone();
+
+        // What find listed has been forgotten
+        list(abstractor, "/data/subdir/");
+        assertThat(commands, contains(FindListingParser.command("/data"), FindListingParser.command("/data/subdir")));
+        abstractor.close();
+    }
+
+    private static List<FileAbstractModel> list(FileAbstractorSSH abstractor, String dir) throws Exception {
+        try (Stream<FileAbstractModel> stream = abstractor.getFiles(dir)) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> names(List<FileAbstractModel> models) {
+        return models.stream().map(model -> model.name).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.fileabstractor;
+
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractModel;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FindListingParser;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * We want to test that we read correctly the output of the find command
+ */
+public class FindListingParserTest extends AbstractFSCrawlerTestCase {
+
+    @Test
+    public void testCommand() {
+        assertThat(FindListingParser.command("/data/it's mine"),
+                is("find '/data/it'\\''s mine' -mindepth 1 -printf '%y\\t%s\\t%T@\\t%U\\t%G\\t%P\\0'"));
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        String output = "d\t4096\t1500000000.0000000000\t1000\t1000\tsubdir\0" +
+                "f\t12\t1500000001.2500000000\t1000\t100\tsubdir/foo.txt\0" +
+                "f\t0\t1500000002.0000000000\t0\t0\twith\ttab\nand new line.txt\0" +
+                "l\t7\t1500000003.0000000000\t1000\t1000\tlink\0";
+
+        List<FileAbstractModel> models = new ArrayList<>();
+        long entries = FindListingParser.parse("/data", new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)),
+                models::add);
+        assertThat(entries, is(4L));
+        assertThat(models.size(), is(4));
+
+        FileAbstractModel dir = models.get(0);
+        assertThat(dir.name, is("subdir"));
+        assertThat(dir.directory, is(true));
+        assertThat(dir.file, is(false));
+        assertThat(dir.path, is("/data"));
+        assertThat(dir.fullpath, is("/data/subdir"));
+
+        FileAbstractModel file = models.get(1);
+        assertThat(file.name, is("foo.txt"));
+        assertThat(file.directory, is(false));
+        assertThat(file.file, is(true));
+        assertThat(file.size, is(12L));
+        assertThat(file.owner, is("1000"));
+        assertThat(file.group, is("100"));
+        assertThat(file.path, is("/data/subdir"));
+        assertThat(file.fullpath, is("/data/subdir/foo.txt"));
+        assertThat(file.lastModifiedDate, is(LocalDateTime.ofInstant(Instant.ofEpochMilli(1500000001250L), ZoneId.systemDefault())));
+
+        assertThat(models.get(2).name, is("with\ttab\nand new line.txt"));
+        assertThat(models.get(2).path, is("/data"));
+
+        // Symbolic links are seen as files like with sftp
+        assertThat(models.get(3).file, is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseUnexpectedOutput() throws IOException {
+        FindListingParser.parse("/data", new ByteArrayInputStream("find: unknown predicate\0".getBytes(StandardCharsets.UTF_8)),
+                model -> {});
+    }
+}
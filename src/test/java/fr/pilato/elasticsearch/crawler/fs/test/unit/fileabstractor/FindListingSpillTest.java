@@ -0,0 +1,152 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.fileabstractor;
+
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractModel;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FindListingParser;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FindListingSpill;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * We want to test that the entries listed by find are read back by directory
+ */
+public class FindListingSpillTest extends AbstractFSCrawlerTestCase {
+
+    private static final String OUTPUT = "f\t3\t1500000000.0000000000\t1000\t1000\tfoo.txt\0" +
+            "d\t4096\t1500000000.0000000000\t1000\t1000\tsubdir\0" +
+            "f\t12\t1500000001.2500000000\t1000\t100\tsubdir/with\ttab.txt\0" +
+            "d\t4096\t1500000000.0000000000\t1000\t1000\tsubdir/empty\0" +
+            "f\t5\t1500000002.0000000000\t0\t0\tbar.txt\0";
+
+    @Test
+    public void testReadByDirectory() throws IOException {
+        try (FindListingSpill spill = FindListingSpill.create()) {
+            List<FileAbstractModel> listed = list(spill, "/data");
+            assertThat(spill.directories(), is(3));
+
+            List<FileAbstractModel> root = spill.remove("/data");
+            assertThat(names(root), contains("foo.txt", "subdir", "bar.txt"));
+            assertThat(root.get(1).directory, is(true));
+            assertThat(root.get(2).fullpath, is("/data/bar.txt"));
+            assertThat(root.get(2).owner, is("0"));
+
+            List<FileAbstractModel> subdir = spill.remove("/data/subdir");
+            assertThat(names(subdir), contains("with\ttab.txt", "empty"));
+            FileAbstractModel file = subdir.get(0);
+            FileAbstractModel expected = listed.get(2);
+            assertThat(file.file, is(true));
+            assertThat(file.size, is(expected.size));
+            assertThat(file.lastModifiedDate, is(expected.lastModifiedDate));
+            assertThat(file.group, is("100"));
+            assertThat(file.path, is("/data/subdir"));
+            assertThat(file.fullpath, is("/data/subdir/with\ttab.txt"));
+
+            assertThat(spill.remove("/data/subdir/empty"), empty());
+            assertThat(spill.directories(), is(0));
+            // Each directory is only given once
+            assertThat(spill.remove("/data"), nullValue());
+
+            // The spill can be used again once everything has been read
+            list(spill, "/other");
+            assertThat(names(spill.remove("/other")), contains("foo.txt", "subdir", "bar.txt"));
+        }
+    }
+
+    @Test
+    public void testRemoveTree() throws IOException {
+        try (FindListingSpill spill = FindListingSpill.create()) {
+            list(spill, "/data");
+            spill.removeTree("/data/subdir");
+            assertThat(spill.directories(), is(1));
+            assertThat(spill.remove("/data/subdir"), nullValue());
+            assertThat(names(spill.remove("/data")), contains("foo.txt", "subdir", "bar.txt"));
+        }
+    }
+
+    @Test
+    public void testTrailingSlash() throws IOException {
+        try (FindListingSpill spill = FindListingSpill.create()) {
+            list(spill, "/data");
+            // The crawler gives the directories with a trailing slash
+            List<FileAbstractModel> subdir = spill.remove("/data/subdir/");
+            assertThat(names(subdir), contains("with\ttab.txt", "empty"));
+            assertThat(subdir.get(0).path, is("/data/subdir"));
+            assertThat(subdir.get(0).fullpath, is("/data/subdir/with\ttab.txt"));
+            spill.removeTree("/data/subdir/empty/");
+            assertThat(spill.directories(), is(1));
+        }
+
+        try (FindListingSpill spill = FindListingSpill.create()) {
+            list(spill, "/");
+            assertThat(names(spill.remove("/")), contains("foo.txt", "subdir", "bar.txt"));
+            List<FileAbstractModel> subdir = spill.remove("/subdir/");
+            assertThat(subdir.get(0).fullpath, is("/subdir/with\ttab.txt"));
+        }
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        try (FindListingSpill spill = FindListingSpill.create()) {
+            list(spill, "/data");
+            spill.remove("/data");
+            // The other directories will never be read
+            spill.clear();
+            assertThat(spill.directories(), is(0));
+            assertThat(spill.remove("/data/subdir"), nullValue());
+
+            list(spill, "/other");
+            assertThat(names(spill.remove("/other/subdir")), contains("with\ttab.txt", "empty"));
+        }
+    }
+
+    private static List<FileAbstractModel> list(FindListingSpill spill, String dir) throws IOException {
+        spill.addDirectory(dir);
+        List<FileAbstractModel> models = new ArrayList<>();
+        FindListingParser.parse(dir, new ByteArrayInputStream(OUTPUT.getBytes(StandardCharsets.UTF_8)), model -> {
+            models.add(model);
+            try {
+                spill.add(model);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return models;
+    }
+
+    private static List<String> names(List<FileAbstractModel> models) {
+        return models.stream().map(model -> model.name).collect(Collectors.toList());
+    }
+}
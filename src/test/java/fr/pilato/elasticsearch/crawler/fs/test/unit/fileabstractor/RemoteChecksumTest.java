@@ -0,0 +1,72 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.fileabstractor;
+
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.RemoteChecksum;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * We want to test the commands we run to compute checksums remotely and how we read their output
+ */
+public class RemoteChecksumTest extends AbstractFSCrawlerTestCase {
+
+    @Test
+    public void testProgram() {
+        assertThat(RemoteChecksum.program("MD5"), is("md5sum"));
+        assertThat(RemoteChecksum.program("SHA-1"), is("sha1sum"));
+        assertThat(RemoteChecksum.program("SHA-256"), is("sha256sum"));
+        assertThat(RemoteChecksum.program("sha-512"), is("sha512sum"));
+        assertThat(RemoteChecksum.program("MD2"), nullValue());
+        assertThat(RemoteChecksum.program(null), nullValue());
+    }
+
+    @Test
+    public void testCommand() {
+        assertThat(RemoteChecksum.command("SHA-256", Arrays.asList("/data/foo.txt", "/data/it's mine.txt")),
+                is("sha256sum -- '/data/foo.txt' '/data/it'\\''s mine.txt'"));
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        String output = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855  /data/foo.txt\n" +
+                "7e18f737311b2dc3b2f269dd78396b0351f14fb66efa879f768cb23181883c78 */data/binary mode.bin\n" +
+                "\\2d711642b726b04401627ca9fbac32f5c8530fb1903cc4db02258717921a4881  /data/back\\\\slash\\nnew line.txt\n";
+
+        Map<String, String> checksums = new HashMap<>();
+        RemoteChecksum.parse(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)), checksums::put);
+        assertThat(checksums.size(), is(3));
+        assertThat(checksums.get("/data/foo.txt"), is("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855"));
+        assertThat(checksums.get("/data/binary mode.bin"), is("7e18f737311b2dc3b2f269dd78396b0351f14fb66efa879f768cb23181883c78"));
+        assertThat(checksums.get("/data/back\\slash\nnew line.txt"), is("2d711642b726b04401627ca9fbac32f5c8530fb1903cc4db02258717921a4881"));
+    }
+}
@@ -19,6 +19,8 @@
 
 package fr.pilato.elasticsearch.crawler.fs.test.unit.meta.settings;
 
+import fr.pilato.elasticsearch.crawler.fs.meta.job.FsCheckpoint;
+import fr.pilato.elasticsearch.crawler.fs.meta.job.FsCheckpointParser;
 import fr.pilato.elasticsearch.crawler.fs.meta.job.FsJob;
 import fr.pilato.elasticsearch.crawler.fs.meta.job.FsJobParser;
 import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
@@ -26,6 +28,7 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
@@ -58,4 +61,21 @@ public class FsJobParserTest extends AbstractFSCrawlerTestCase {
                         .build()
         );
     }
+
+    @Test
+    public void testParseCheckpoint() throws IOException {
+        FsCheckpoint source = FsCheckpoint.builder()
+                .setUrl("/tmp/es")
+                .setScanDate(LocalDateTime.now())
+                .setLastrun(LocalDateTime.now().minusHours(1))
+                .setStateRun(3)
+                .setPending(Arrays.asList("/tmp/es/foo/", "/tmp/es/bar/"))
+                .setCompleted(12)
+                .build();
+        String json = FsCheckpointParser.toJson(source);
+
+        logger.info("-> generated checkpoint: [{}]", json);
+        FsCheckpoint generated = FsCheckpointParser.fromJson(json);
+        assertThat(generated, is(source));
+    }
 }
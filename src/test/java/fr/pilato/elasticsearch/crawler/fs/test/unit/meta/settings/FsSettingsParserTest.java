@@ -19,6 +19,7 @@
 
 package fr.pilato.elasticsearch.crawler.fs.test.unit.meta.settings;
 
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.ByteSizeValue;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Elasticsearch;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
@@ -49,6 +50,31 @@ public class FsSettingsParserTest extends AbstractFSCrawlerTestCase {
             .setRemoveDeleted(true)
             .setUpdateRate(TimeValue.timeValueMinutes(5))
             .setIndexContent(true)
+            .setWalkerThreads(4)
+            .setPipeline(true)
+            .setQueueSize(500)
+            .setFetchQueueSize(10)
+            .setExtractQueueSize(200)
+            .setSerializeQueueSize(20)
+            .setBulkQueueSize(50)
+            .setFetchThreads(2)
+            .setSerializeThreads(2)
+            .setParserThreads(4)
+            .setFileState(true)
+            .setPruneDirectories(true)
+            .setWatch(true)
+            .setDebounce(TimeValue.timeValueSeconds(2))
+            .setDebounceMaxDelay(TimeValue.timeValueSeconds(10))
+            .setCheckpointInterval(TimeValue.timeValueMinutes(1))
+            .setBreadthFirst(true)
+            .setExpandArchives(true)
+            .setParseTimeout(TimeValue.timeValueMinutes(5))
+            .setParserProcesses(2)
+            .setParserProcessHeap("1g")
+            .setExtractionCache(true)
+            .setExtractionCacheSize(ByteSizeValue.ofMb(512))
+            .setDocumentStore(true)
+            .setFastTextExtraction(true)
             .build();
     private static final Elasticsearch ELASTICSEARCH_EMPTY = Elasticsearch.builder().build();
     private static final Elasticsearch ELASTICSEARCH_FULL = Elasticsearch.builder()
@@ -71,6 +97,14 @@ public class FsSettingsParserTest extends AbstractFSCrawlerTestCase {
             .setPort(22)
             .setProtocol("SSH")
             .setPemPath("/path/to/pemfile")
+            .setMaxChannels(4)
+            .setReadAhead(64)
+            .setBufferSize(256 * 1024)
+            .setCompression(true)
+            .setListing("find")
+            .setRemoteChecksum(true)
+            .setEndpoint("http://localhost:9000")
+            .setRegion("eu-west-1")
             .build();
 
 
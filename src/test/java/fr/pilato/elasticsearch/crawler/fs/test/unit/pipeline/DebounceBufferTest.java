@@ -0,0 +1,97 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.pipeline;
+
+import fr.pilato.elasticsearch.crawler.fs.pipeline.DebounceBuffer;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * We want to test the debounce buffer
+ */
+public class DebounceBufferTest extends AbstractFSCrawlerTestCase {
+
+    @Test
+    public void testOnlyLastChangeIsReleased() throws InterruptedException {
+        List<String> released = new CopyOnWriteArrayList<>();
+        DebounceBuffer<String, String> buffer = new DebounceBuffer<>("test", 200, 10000, released::add);
+
+        int changes = between(2, 100);
+        for (int i = 0; i < changes; i++) {
+            buffer.submit("foo", "foo-" + i);
+        }
+        buffer.submit("bar", "bar-0");
+
+        assertThat(awaitBusy(() -> released.size() == 2), is(true));
+        assertThat(released, containsInAnyOrder("foo-" + (changes - 1), "bar-0"));
+        assertThat(buffer.getReceived(), is((long) changes + 1));
+        assertThat(buffer.getCollapsed(), is((long) changes - 1));
+        assertThat(buffer.getReleased(), is(2L));
+
+        buffer.close();
+    }
+
+    @Test
+    public void testMaxDelay() throws InterruptedException {
+        List<String> released = new CopyOnWriteArrayList<>();
+        DebounceBuffer<String, String> buffer = new DebounceBuffer<>("test", 500, 1000, released::add);
+
+        // The file keeps changing more often than the quiet period
+        long start = System.currentTimeMillis();
+        int i = 0;
+        while (released.isEmpty() && System.currentTimeMillis() - start < 5000) {
+            buffer.submit("foo", "foo-" + i++);
+            Thread.sleep(100);
+        }
+        assertThat(released.size(), is(1));
+
+        buffer.close();
+    }
+
+    @Test
+    public void testCancelAndFlush() throws InterruptedException {
+        List<String> released = new CopyOnWriteArrayList<>();
+        DebounceBuffer<String, String> buffer = new DebounceBuffer<>("test", 60000, 60000, released::add);
+
+        buffer.submit("foo", "foo-0");
+        buffer.submit("bar", "bar-0");
+        assertThat(buffer.cancel("bar"), is("bar-0"));
+        assertThat(buffer.cancel("baz"), nullValue());
+        assertThat(released, is(empty()));
+
+        buffer.flush();
+        assertThat(released, contains("foo-0"));
+        assertThat(buffer.size(), is(0));
+        assertThat(buffer.getCancelled(), is(1L));
+
+        buffer.close();
+    }
+}
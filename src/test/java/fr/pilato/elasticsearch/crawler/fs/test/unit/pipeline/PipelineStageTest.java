@@ -0,0 +1,158 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.pipeline;
+
+import fr.pilato.elasticsearch.crawler.fs.pipeline.PipelineStage;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * We want to test the pipeline stages
+ */
+public class PipelineStageTest extends AbstractFSCrawlerTestCase {
+
+    @Test
+    public void testAllItemsAreProcessed() throws InterruptedException {
+        AtomicInteger sum = new AtomicInteger();
+        PipelineStage<Integer> last = new PipelineStage<>("last", 2, 5, sum::addAndGet);
+        PipelineStage<Integer> first = new PipelineStage<>("first", 3, 5, item -> last.submit(item * 2));
+
+        int items = between(1, 1000);
+        for (int i = 1; i <= items; i++) {
+            assertThat(first.submit(i), is(true));
+        }
+
+        first.awaitIdle();
+        last.awaitIdle();
+        assertThat(sum.get(), is(items * (items + 1)));
+
+        first.close();
+        last.close();
+    }
+
+    @Test
+    public void testBackpressure() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        PipelineStage<Integer> stage = new PipelineStage<>("slow", 1, 2, item -> release.await());
+
+        // One item is being processed and two are waiting in the queue
+        assertThat(stage.submit(1), is(true));
+        assertThat(awaitBusy(() -> stage.getQueueDepth() == 0, 10, TimeUnit.SECONDS), is(true));
+        assertThat(stage.submit(2), is(true));
+        assertThat(stage.submit(3), is(true));
+
+        // The next one must wait until we have some room in the queue
+        AtomicBoolean submitted = new AtomicBoolean(false);
+        Thread producer = new Thread(() -> {
+            try {
+                submitted.set(stage.submit(4));
+            } catch (InterruptedException ignored) {
+            }
+        });
+        producer.start();
+        producer.join(500);
+        assertThat(submitted.get(), is(false));
+
+        release.countDown();
+        producer.join();
+        assertThat(submitted.get(), is(true));
+        stage.awaitIdle();
+        stage.close();
+    }
+
+    @Test
+    public void testFailuresDoNotStopTheStage() throws InterruptedException {
+        AtomicInteger processed = new AtomicInteger();
+        PipelineStage<Integer> stage = new PipelineStage<>("failing", 1, 10, item -> {
+            if (item % 2 == 0) {
+                throw new IllegalArgumentException("even numbers are not welcome");
+            }
+            processed.incrementAndGet();
+        });
+
+        for (int i = 0; i < 10; i++) {
+            stage.submit(i);
+        }
+        stage.awaitIdle();
+        assertThat(processed.get(), is(5));
+        stage.close();
+    }
+
+    @Test
+    public void testCloseReleasesWaitingItems() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> dropped = new CopyOnWriteArrayList<>();
+        PipelineStage<Integer> stage = new PipelineStage<>("close", 1, 10, item -> {
+            started.countDown();
+            release.await();
+        }, dropped::add);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(stage.submit(i), is(true));
+        }
+        // The first item is being processed, the others are waiting in the queue
+        assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+        stage.close();
+        assertThat(dropped, contains(1, 2, 3, 4));
+        assertThat(stage.getQueueDepth(), is(0));
+        release.countDown();
+    }
+
+    @Test
+    public void testInterruptedSubmit() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        PipelineStage<Integer> stage = new PipelineStage<>("slow", 1, 1, item -> release.await());
+        assertThat(stage.submit(1), is(true));
+        assertThat(awaitBusy(() -> stage.getQueueDepth() == 0, 10, TimeUnit.SECONDS), is(true));
+        assertThat(stage.submit(2), is(true));
+
+        // A producer interrupted while waiting for some room did not add its item
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        Thread producer = new Thread(() -> {
+            try {
+                stage.submit(3);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        producer.start();
+        producer.interrupt();
+        producer.join();
+        assertThat(interrupted.get(), is(true));
+
+        // So we don't wait for it
+        release.countDown();
+        stage.awaitIdle();
+        stage.close();
+    }
+}
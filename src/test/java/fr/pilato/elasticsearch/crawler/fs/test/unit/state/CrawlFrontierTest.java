@@ -0,0 +1,77 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.state;
+
+import fr.pilato.elasticsearch.crawler.fs.state.CrawlFrontier;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * We want to test what the crawl frontier keeps as pending
+ */
+public class CrawlFrontierTest extends AbstractFSCrawlerTestCase {
+
+    private static final String ROOT = File.separator + "tmp" + File.separator + "es";
+    private static final String FOO = ROOT + File.separator + "foo" + File.separator;
+    private static final String BAR = ROOT + File.separator + "bar" + File.separator;
+
+    @Test
+    public void testPending() {
+        CrawlFrontier frontier = new CrawlFrontier();
+        frontier.discovered(ROOT);
+        assertThat(frontier.getPending(), containsInAnyOrder(ROOT));
+
+        // The root directory has one file being indexed
+        frontier.fileSubmitted(ROOT);
+        frontier.crawled(ROOT, Arrays.asList(FOO, BAR));
+        assertThat(frontier.getPending(), containsInAnyOrder(ROOT, FOO, BAR));
+
+        frontier.fileDone(ROOT);
+        assertThat(frontier.getPending(), containsInAnyOrder(FOO, BAR));
+        assertThat(frontier.getCompleted(), is(1L));
+
+        frontier.crawled(FOO, Collections.emptyList());
+        frontier.crawled(BAR, Collections.emptyList());
+        assertThat(frontier.getPending(), empty());
+        assertThat(frontier.getCompleted(), is(3L));
+
+        frontier.clear();
+        assertThat(frontier.getCompleted(), is(0L));
+    }
+
+    @Test
+    public void testRoots() {
+        String foobar = FOO + "bar" + File.separator;
+        assertThat(CrawlFrontier.roots(Arrays.asList(ROOT, FOO, foobar)), containsInAnyOrder(ROOT));
+        assertThat(CrawlFrontier.roots(Arrays.asList(foobar, FOO, BAR)), containsInAnyOrder(FOO, BAR));
+        assertThat(CrawlFrontier.roots(Collections.singletonList(foobar)), containsInAnyOrder(foobar));
+        assertThat(CrawlFrontier.roots(Collections.emptyList()), empty());
+    }
+}
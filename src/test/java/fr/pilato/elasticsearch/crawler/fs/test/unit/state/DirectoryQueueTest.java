@@ -0,0 +1,102 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.state;
+
+import fr.pilato.elasticsearch.crawler.fs.state.DirectoryQueue;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.carrotsearch.randomizedtesting.RandomizedTest.randomBoolean;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * We want to test the queue of directories used by the breadth first walker
+ */
+public class DirectoryQueueTest extends AbstractFSCrawlerTestCase {
+
+    @Test
+    public void testSpillKeepsOrder() throws IOException {
+        Path jobDir = rootTmpDir.resolve("queue-spill");
+        int maxInMemory = between(1, 50);
+        int added = 0, removed = 0;
+        try (DirectoryQueue queue = DirectoryQueue.open(jobDir, maxInMemory, false)) {
+            for (int i = 0; i < 10000; i++) {
+                if (randomBoolean() || randomBoolean()) {
+                    queue.add("/tmp/dir" + added++ + "/");
+                } else if (removed < added) {
+                    assertThat(queue.remove(), is("/tmp/dir" + removed++ + "/"));
+                }
+                assertThat(queue.size(), is((long) (added - removed)));
+            }
+            while (removed < added) {
+                assertThat(queue.remove(), is("/tmp/dir" + removed++ + "/"));
+            }
+            assertThat(queue.peek(), nullValue());
+            assertThat(queue.isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        Path jobDir = rootTmpDir.resolve("queue-save");
+        int dirs = between(100, 1000);
+        try (DirectoryQueue queue = DirectoryQueue.open(jobDir, 10, false)) {
+            for (int i = 0; i < dirs; i++) {
+                queue.add("/tmp/dir" + i + "/");
+            }
+            // We crawled some of them
+            for (int i = 0; i < 25; i++) {
+                queue.remove();
+            }
+            queue.save();
+        }
+        assertThat(DirectoryQueue.isSaved(jobDir), is(true));
+
+        // The run is stopped again before anything has been added
+        try (DirectoryQueue queue = DirectoryQueue.open(jobDir, 10, true)) {
+            assertThat(queue.size(), is((long) dirs - 25));
+            queue.save();
+        }
+
+        try (DirectoryQueue queue = DirectoryQueue.open(jobDir, 10, true)) {
+            assertThat(queue.size(), is((long) dirs - 25));
+            for (int i = 25; i < dirs; i++) {
+                assertThat(queue.remove(), is("/tmp/dir" + i + "/"));
+            }
+            assertThat(queue.remove(), nullValue());
+        }
+
+        // Loading is optional
+        try (DirectoryQueue queue = DirectoryQueue.open(jobDir, 10, false)) {
+            assertThat(queue.isEmpty(), is(true));
+        }
+
+        DirectoryQueue.removeSaved(jobDir);
+        assertThat(DirectoryQueue.isSaved(jobDir), is(false));
+        assertThat(Files.list(jobDir).count(), is(0L));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.state;
+
+import fr.pilato.elasticsearch.crawler.fs.state.DocumentStore;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * We want to test the local copy of the documents we use to replay a job
+ */
+public class DocumentStoreTest extends AbstractFSCrawlerTestCase {
+
+    @Test
+    public void testPutAndRead() throws IOException {
+        Path jobDir = rootTmpDir.resolve("documents-put");
+        try (DocumentStore store = DocumentStore.open(jobDir)) {
+            store.put("doc", "id1", "{\"content\":\"foo\"}");
+            store.put("doc", "/tmp/with some/chars é", "{\"content\":\"bar\"}");
+            store.put("folder", "id1", "{\"real\":\"/tmp\"}");
+            // Documents are replaced
+            store.put("doc", "id1", "{\"content\":\"foo bar\"}");
+            assertThat(store.getStored(), is(4L));
+        }
+
+        // Documents are kept on disk
+        try (DocumentStore store = DocumentStore.open(jobDir)) {
+            Map<String, String> documents = readAll(store);
+            assertThat(documents.size(), is(3));
+            assertThat(documents.get("doc/id1"), is("{\"content\":\"foo bar\"}"));
+            assertThat(documents.get("doc//tmp/with some/chars é"), is("{\"content\":\"bar\"}"));
+            assertThat(documents.get("folder/id1"), is("{\"real\":\"/tmp\"}"));
+        }
+    }
+
+    @Test
+    public void testRemove() throws IOException {
+        try (DocumentStore store = DocumentStore.open(rootTmpDir.resolve("documents-remove"))) {
+            store.put("doc", "id1", "{}");
+            store.put("doc", "id2", "{}");
+            store.remove("doc", "id1");
+            // Removing a document we don't have is fine
+            store.remove("doc", "id3");
+            assertThat(store.getRemoved(), is(1L));
+
+            List<Path> files;
+            try (Stream<Path> stream = store.list()) {
+                files = stream.collect(Collectors.toList());
+            }
+            assertThat(files, hasSize(1));
+            assertThat(store.read(files.get(0)).getId(), is("id2"));
+        }
+    }
+
+    private static Map<String, String> readAll(DocumentStore store) throws IOException {
+        Map<String, String> documents = new HashMap<>();
+        try (Stream<Path> files = store.list()) {
+            for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+                DocumentStore.Document doc = store.read(it.next());
+                documents.put(doc.getType() + "/" + doc.getId(), doc.getJson());
+            }
+        }
+        return documents;
+    }
+}
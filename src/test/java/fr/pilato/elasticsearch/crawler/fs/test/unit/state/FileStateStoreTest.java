@@ -0,0 +1,157 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.state;
+
+import fr.pilato.elasticsearch.crawler.fs.SignTool;
+import fr.pilato.elasticsearch.crawler.fs.state.FileState;
+import fr.pilato.elasticsearch.crawler.fs.state.FileStateStore;
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * We want to test the file state store
+ */
+public class FileStateStoreTest extends AbstractFSCrawlerTestCase {
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        Path jobDir = rootTmpDir.resolve("state-put-get");
+        try (FileStateStore store = FileStateStore.open(jobDir)) {
+            store.startRun();
+            assertThat(store.get("/tmp/foo.txt"), nullValue());
+
+            store.put("/tmp/foo.txt", "/tmp", new FileState(false, 1000L, 12L, 42L, FileState.fingerprint("abc")));
+            FileState state = store.get("/tmp/foo.txt");
+            assertThat(state, notNullValue());
+            assertThat(state.isDirectory(), is(false));
+            assertThat(state.isModified(1000L, 12L, 42L), is(false));
+            assertThat(state.isModified(999L, 12L, 42L), is(true));
+            assertThat(state.isModified(1000L, 13L, 42L), is(true));
+            assertThat(state.isModified(1000L, 12L, 43L), is(true));
+            assertThat(state.isModified(1000L, 12L, 0L), is(false));
+            assertThat(state.getChecksum(), is(FileState.fingerprint("abc")));
+
+            assertThat(store.remove("/tmp/foo.txt"), is(true));
+            assertThat(store.get("/tmp/foo.txt"), nullValue());
+            assertThat(store.size(), is(0L));
+        }
+    }
+
+    @Test
+    public void testGrowAndReopen() throws IOException {
+        Path jobDir = rootTmpDir.resolve("state-grow");
+        int files = between(5000, 20000);
+        try (FileStateStore store = FileStateStore.open(jobDir)) {
+            assertThat(store.startRun(), is(1));
+            for (int i = 0; i < files; i++) {
+                store.put("/tmp/dir/file" + i, "/tmp/dir/", new FileState(false, i, i * 2, 0, 0));
+            }
+            assertThat(store.size(), is((long) files));
+        }
+
+        // We open the store again and check that nothing has been lost
+        try (FileStateStore store = FileStateStore.open(jobDir)) {
+            assertThat(store.getRun(), is(1));
+            assertThat(store.startRun(), is(2));
+            assertThat(store.size(), is((long) files));
+            for (int i = 0; i < files; i++) {
+                FileState state = store.get("/tmp/dir/file" + i);
+                assertThat(state, notNullValue());
+                assertThat(state.getLastModified(), is((long) i));
+                assertThat(state.getSize(), is((long) i * 2));
+            }
+        }
+    }
+
+    @Test
+    public void testRemoveUnseen() throws IOException, NoSuchAlgorithmException {
+        Path jobDir = rootTmpDir.resolve("state-remove-unseen");
+        try (FileStateStore store = FileStateStore.open(jobDir)) {
+            store.startRun();
+            store.put("/tmp/dir/", "/tmp", new FileState(true, 1000L, 0L, 0L, 0L));
+            store.put("/tmp/dir/foo.txt", "/tmp/dir/", new FileState(false, 1000L, 12L, 0L, 0L));
+            store.put("/tmp/dir/bar.txt", "/tmp/dir/", new FileState(false, 1000L, 12L, 0L, 0L));
+            store.put("/tmp/baz.txt", "/tmp", new FileState(false, 1000L, 12L, 0L, 0L));
+
+            // Second run: the dir has been removed
+            store.startRun();
+            assertThat(store.markSeen("/tmp/baz.txt"), is(true));
+            assertThat(store.markSeen("/tmp/unknown.txt"), is(false));
+
+            List<String> ids = new ArrayList<>();
+            // The consumer sends deletes which can wait for a bulk whose listener updates the store
+            assertThat(store.removeUnseen((key, state) -> {
+                assertThat(Thread.holdsLock(store), is(false));
+                ids.add(SignTool.toHex(key));
+            }), is(3L));
+            assertThat(ids, containsInAnyOrder(SignTool.sign("/tmp/dir/"), SignTool.sign("/tmp/dir/foo.txt"),
+                    SignTool.sign("/tmp/dir/bar.txt")));
+            assertThat(store.size(), is(1L));
+            assertThat(store.get("/tmp/baz.txt"), notNullValue());
+        }
+    }
+
+    @Test
+    public void testPruneDirectories() throws IOException {
+        Path jobDir = rootTmpDir.resolve("state-prune");
+        try (FileStateStore store = FileStateStore.open(jobDir)) {
+            store.startRun();
+            store.put("/tmp/dir/foo.txt", "/tmp/dir/", new FileState(false, 1000L, 12L, 0L, 0L));
+            // A directory we never crawled can not be pruned
+            assertThat(store.prune("/tmp/dir/", 2000L, 10L), nullValue());
+            store.putDirectory("/tmp/dir/", new FileState(true, 2000L, 2L, 10L, 0L), Arrays.asList("/tmp/dir/a/", "/tmp/dir/b/"));
+            store.putDirectory("/tmp/dir/b/", new FileState(true, 3000L, 0L, 11L, 0L), new ArrayList<>());
+        }
+
+        try (FileStateStore store = FileStateStore.open(jobDir)) {
+            store.startRun();
+            // The directory changed
+            assertThat(store.prune("/tmp/dir/", 2001L, 10L), nullValue());
+            assertThat(store.prune("/tmp/dir/", 2000L, 12L), nullValue());
+
+            // It did not change
+            assertThat(store.prune("/tmp/dir/", 2000L, 10L), containsInAnyOrder("/tmp/dir/a/", "/tmp/dir/b/"));
+            assertThat(store.prune("/tmp/dir/b/", 3000L, 11L), is(empty()));
+
+            // Files in a pruned directory have not been seen but they still exist
+            assertThat(store.removeUnseen((key, state) -> {}), is(0L));
+            assertThat(store.get("/tmp/dir/foo.txt"), notNullValue());
+
+            // We update the directory
+            store.putDirectory("/tmp/dir/", new FileState(true, 4000L, 1L, 10L, 0L), Arrays.asList("/tmp/dir/c/"));
+            assertThat(store.prune("/tmp/dir/", 4000L, 10L), containsInAnyOrder("/tmp/dir/c/"));
+        }
+    }
+}
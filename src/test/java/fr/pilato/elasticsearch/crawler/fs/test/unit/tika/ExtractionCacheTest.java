@@ -0,0 +1,132 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.tika;
+
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import fr.pilato.elasticsearch.crawler.fs.tika.ExtractionCache;
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * We want to test the cache of the extracted text and its eviction
+ */
+public class ExtractionCacheTest extends AbstractFSCrawlerTestCase {
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        Path jobDir = rootTmpDir.resolve("cache-put");
+        try (ExtractionCache cache = ExtractionCache.open(jobDir, 1024 * 1024)) {
+            assertThat(cache.get("MD5", "0123456789abcdef", 100), nullValue());
+
+            Metadata metadata = new Metadata();
+            metadata.set(Metadata.CONTENT_TYPE, "text/plain");
+            metadata.add("keywords", "foo");
+            metadata.add("keywords", "bar");
+            cache.put("MD5", "0123456789abcdef", 100, "This file contains some words.", metadata);
+
+            ExtractionCache.Entry entry = cache.get("MD5", "0123456789abcdef", 100);
+            assertThat(entry, notNullValue());
+            assertThat(entry.getContent(), is("This file contains some words."));
+            assertThat(entry.getMetadata().get(Metadata.CONTENT_TYPE), is("text/plain"));
+            assertThat(entry.getMetadata().getValues("keywords"), arrayContaining("foo", "bar"));
+
+            // The text has been extracted with another maximum length or another checksum algorithm
+            assertThat(cache.get("MD5", "0123456789abcdef", 1000), nullValue());
+            assertThat(cache.get("SHA-1", "0123456789abcdef", 100), nullValue());
+
+            assertThat(cache.getHits(), is(1L));
+            assertThat(cache.getMisses(), is(3L));
+        }
+
+        // Entries are kept on disk
+        try (ExtractionCache cache = ExtractionCache.open(jobDir, 1024 * 1024)) {
+            assertThat(cache.size(), is(1));
+            assertThat(cache.get("MD5", "0123456789abcdef", 100).getContent(), is("This file contains some words."));
+        }
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        // Each entry is about 3kb once compressed
+        try (ExtractionCache cache = ExtractionCache.open(rootTmpDir.resolve("cache-eviction"), 8000)) {
+            cache.put("MD5", "aaaa", -1, randomText(4000), new Metadata());
+            cache.put("MD5", "bbbb", -1, randomText(4000), new Metadata());
+            assertThat(cache.size(), is(2));
+
+            // aaaa is now more recently used than bbbb
+            assertThat(cache.get("MD5", "aaaa", -1), notNullValue());
+            cache.put("MD5", "cccc", -1, randomText(4000), new Metadata());
+
+            assertThat(cache.getEvictions(), is(1L));
+            assertThat(cache.get("MD5", "bbbb", -1), nullValue());
+            assertThat(cache.get("MD5", "aaaa", -1), notNullValue());
+            assertThat(cache.get("MD5", "cccc", -1), notNullValue());
+        }
+    }
+
+    @Test
+    public void testMissingOrCorruptedFile() throws IOException {
+        Path jobDir = rootTmpDir.resolve("cache-missing");
+        try (ExtractionCache cache = ExtractionCache.open(jobDir, 1024 * 1024)) {
+            cache.put("MD5", "dddd", 100, "This file contains some words.", new Metadata());
+            Path file = entryFile(jobDir, "dddd");
+
+            // Another thread evicted or replaced the entry: this is a simple miss
+            Files.delete(file);
+            assertThat(cache.get("MD5", "dddd", 100), nullValue());
+            assertThat(cache.size(), is(1));
+
+            // A corrupted entry is removed
+            Files.write(file, "not a gzip file".getBytes(StandardCharsets.UTF_8));
+            assertThat(cache.get("MD5", "dddd", 100), nullValue());
+            assertThat(cache.size(), is(0));
+            assertThat(Files.exists(file), is(false));
+        }
+    }
+
+    private static Path entryFile(Path jobDir, String checksum) throws IOException {
+        try (Stream<Path> files = Files.walk(jobDir.resolve(ExtractionCache.DIRNAME))) {
+            return files.filter(file -> file.getFileName().toString().equals(checksum + ".gz")).findFirst().get();
+        }
+    }
+
+    private static String randomText(int length) {
+        Random random = new Random();
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('!' + random.nextInt(94)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.tika;
+
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import fr.pilato.elasticsearch.crawler.fs.tika.ForkedParserPool;
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.fail;
+
+/**
+ * We want to test that documents are parsed in other processes and that a process which dies is replaced
+ */
+public class ForkedParserPoolTest extends AbstractFSCrawlerTestCase {
+
+    @Test
+    public void testParse() throws Exception {
+        try (ForkedParserPool pool = new ForkedParserPool(1, "128m")) {
+            Metadata metadata = new Metadata();
+            String content = pool.parseToString(text("This file contains some words."), metadata, -1, 0);
+            assertThat(content, containsString("This file contains some words."));
+            assertThat(metadata.get(Metadata.CONTENT_TYPE), notNullValue());
+
+            // The same process parses the next documents
+            content = pool.parseToString(text("Another document."), new Metadata(), -1, 0);
+            assertThat(content, containsString("Another document."));
+            assertThat(pool.getRestarts(), is(0L));
+        }
+    }
+
+    @Test
+    public void testParseFromSeveralThreads() throws Exception {
+        int threads = between(2, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (ForkedParserPool pool = new ForkedParserPool(threads, "128m")) {
+            List<Future<String>> docs = new ArrayList<>();
+            for (int i = 0; i < threads * 4; i++) {
+                final String text = "Document number " + i;
+                docs.add(executor.submit(() -> pool.parseToString(text(text), new Metadata(), -1, 0)));
+            }
+            for (int i = 0; i < docs.size(); i++) {
+                assertThat(docs.get(i).get(), containsString("Document number " + i));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testProcessOutOfMemory() throws Exception {
+        try (ForkedParserPool pool = new ForkedParserPool(1, "64m")) {
+            // The text of this document does not fit in the heap of the parser process
+            try {
+                pool.parseToString(new RepeatInputStream((byte) 'a', 256 * 1024 * 1024), new Metadata(), -1, 0);
+                fail("The parser process should have run out of memory");
+            } catch (IOException e) {
+                logger.debug("Parser process died as expected: {}", e.getMessage());
+            }
+
+            // The next document is parsed by a new process
+            String content = pool.parseToString(text("This file contains some words."), new Metadata(), -1, 0);
+            assertThat(content, containsString("This file contains some words."));
+            assertThat(pool.getRestarts(), is(1L));
+        }
+    }
+
+    private static InputStream text(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A large document which does not need to be in memory
+     */
+    private static class RepeatInputStream extends InputStream {
+        private final byte value;
+        private long remaining;
+
+        private RepeatInputStream(byte value, long size) {
+            this.value = value;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = (int) Math.min(len, remaining);
+            for (int i = off; i < off + read; i++) {
+                b[i] = value;
+            }
+            remaining -= read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.tika;
+
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import fr.pilato.elasticsearch.crawler.fs.tika.ParseWatchdog;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+/**
+ * We want to test that we stop parsing documents in the JVM when too many parsings are stuck
+ */
+public class ParseWatchdogTest extends AbstractFSCrawlerTestCase {
+
+    @Test
+    public void testMaxAbandonedWorkers() throws Exception {
+        CountDownLatch released = new CountDownLatch(1);
+        int abandoned = ParseWatchdog.getAbandonedWorkers();
+        try {
+            while (abandoned < ParseWatchdog.MAX_ABANDONED_WORKERS) {
+                try {
+                    ParseWatchdog.parseToString(stuck(released), new Metadata(), -1, 50);
+                    fail("the parsing should have timed out");
+                } catch (TimeoutException e) {
+                    assertThat(ParseWatchdog.getAbandonedWorkers(), is(++abandoned));
+                }
+            }
+
+            try {
+                ParseWatchdog.parseToString(text("This file contains some words."), new Metadata(), -1, 10000);
+                fail("we should refuse to parse while too many workers are stuck");
+            } catch (TikaException e) {
+                assertThat(e.getMessage(), containsString("fs.parser_processes"));
+            }
+        } finally {
+            released.countDown();
+        }
+
+        // Workers end with their document
+        assertThat(awaitBusy(() -> ParseWatchdog.getAbandonedWorkers() == 0), is(true));
+        assertThat(ParseWatchdog.parseToString(text("This file contains some words."), new Metadata(), -1, 10000),
+                containsString("This file contains some words."));
+    }
+
+    private static InputStream text(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A stream which does not give its content until released, even when interrupted
+     */
+    private static InputStream stuck(CountDownLatch released) {
+        return new InputStream() {
+            @Override
+            public int read() {
+                boolean interrupted = false;
+                while (released.getCount() > 0) {
+                    try {
+                        released.await();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return -1;
+            }
+        };
+    }
+}
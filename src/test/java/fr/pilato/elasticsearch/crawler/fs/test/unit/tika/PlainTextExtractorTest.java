@@ -0,0 +1,97 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.tika;
+
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import fr.pilato.elasticsearch.crawler.fs.tika.PlainTextExtractor;
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * We want to test the extraction of plain text files without Tika
+ */
+public class PlainTextExtractorTest extends AbstractFSCrawlerTestCase {
+
+    @Test
+    public void testSupports() {
+        assertThat(PlainTextExtractor.supports("test.txt"), is(true));
+        assertThat(PlainTextExtractor.supports("/var/log/SYSLOG.LOG"), is(true));
+        assertThat(PlainTextExtractor.supports("data.csv"), is(true));
+        assertThat(PlainTextExtractor.supports("test.pdf"), is(false));
+        assertThat(PlainTextExtractor.supports("README"), is(false));
+    }
+
+    @Test
+    public void testDetectCharset() throws IOException {
+        assertThat(detect("This file contains some words.".getBytes(StandardCharsets.US_ASCII)), is(StandardCharsets.ISO_8859_1));
+        assertThat(detect("Ce fichier contient des mots accentués.".getBytes(StandardCharsets.UTF_8)), is(StandardCharsets.UTF_8));
+        assertThat(detect("Ce fichier contient des mots accentués.".getBytes(StandardCharsets.ISO_8859_1)), is(StandardCharsets.ISO_8859_1));
+        assertThat(detect("It costs 10€.".getBytes("windows-1252")), is(Charset.forName("windows-1252")));
+        assertThat(detect(new byte[] {(byte) 0xFF, (byte) 0xFE, 'a', 0}), is(StandardCharsets.UTF_16LE));
+        // Binary content is left to Tika
+        assertThat(detect(new byte[] {'R', 'I', 'F', 'F', 0, 0, 0, 0}), nullValue());
+    }
+
+    @Test
+    public void testDetectCharsetResetsTheStream() throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream("Some words.".getBytes(StandardCharsets.UTF_8)));
+        PlainTextExtractor.detectCharset(in);
+        assertThat(PlainTextExtractor.extract(in, "words.txt", StandardCharsets.UTF_8, new Metadata(), -1), is("Some words.\n"));
+    }
+
+    @Test
+    public void testExtract() throws IOException {
+        byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        byte[] text = "Ce fichier contient des mots accentués.".getBytes(StandardCharsets.UTF_8);
+        byte[] content = new byte[bom.length + text.length];
+        System.arraycopy(bom, 0, content, 0, bom.length);
+        System.arraycopy(text, 0, content, bom.length, text.length);
+
+        Metadata metadata = new Metadata();
+        assertThat(PlainTextExtractor.extract(new ByteArrayInputStream(content), "accents.txt", StandardCharsets.UTF_8,
+                metadata, -1), is("Ce fichier contient des mots accentués.\n"));
+        assertThat(metadata.get(Metadata.CONTENT_TYPE), is("text/plain; charset=UTF-8"));
+        assertThat(metadata.get(Metadata.CONTENT_ENCODING), is("UTF-8"));
+
+        // The content type is guessed from the name like Tika does
+        metadata = new Metadata();
+        PlainTextExtractor.extract(new ByteArrayInputStream(content), "accents.csv", StandardCharsets.UTF_8, metadata, -1);
+        assertThat(metadata.get(Metadata.CONTENT_TYPE), is("text/csv; charset=UTF-8"));
+
+        // indexed_chars is respected
+        assertThat(PlainTextExtractor.extract(new ByteArrayInputStream(content), "accents.txt", StandardCharsets.UTF_8,
+                new Metadata(), 10), is("Ce fichier"));
+    }
+
+    private static Charset detect(byte[] content) throws IOException {
+        return PlainTextExtractor.detectCharset(new ByteArrayInputStream(content));
+    }
+}
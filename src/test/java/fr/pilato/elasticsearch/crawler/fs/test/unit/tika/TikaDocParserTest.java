@@ -22,18 +22,30 @@ package fr.pilato.elasticsearch.crawler.fs.test.unit.tika;
 import fr.pilato.elasticsearch.crawler.fs.meta.doc.Doc;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
 import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import fr.pilato.elasticsearch.crawler.fs.tika.ExtractionCache;
+import fr.pilato.elasticsearch.crawler.fs.tika.ForkedParserPool;
+import fr.pilato.elasticsearch.crawler.fs.tika.ParseWatchdog;
 import fr.pilato.elasticsearch.crawler.fs.tika.TikaDocParser;
+import org.apache.tika.io.TikaInputStream;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
@@ -586,6 +598,189 @@ public class TikaDocParserTest extends AbstractFSCrawlerTestCase {
         assertThat(doc.getFile().getChecksum(), notNullValue());
     }
 
+    @Test
+    public void testExtractFromLocalFileWithDigest() throws IOException, NoSuchAlgorithmException {
+        try {
+            MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            assumeNoException(e);
+        }
+
+        FsSettings fsSettings = FsSettings.builder(getCurrentTestName())
+                .setFs(Fs.builder().setStoreSource(true).setChecksum("MD5").build())
+                .build();
+        Doc fromStream = extractFromFile("test.txt", fsSettings);
+
+        // A stream which knows its file must give the same document
+        Doc fromFile = new Doc();
+        try (InputStream data = TikaInputStream.get(Paths.get(getUrl("documents", "test.txt")))) {
+            TikaDocParser.generate(fsSettings, data, "test.txt", fromFile, MessageDigest.getInstance("MD5"), 0);
+        }
+        assertThat(fromFile.getContent(), is(fromStream.getContent()));
+        assertThat(fromFile.getAttachment(), is(fromStream.getAttachment()));
+        assertThat(fromFile.getFile().getChecksum(), is(fromStream.getFile().getChecksum()));
+    }
+
+    @Test
+    public void testExtractFromSeveralThreads() throws Exception {
+        int threads = between(2, 8);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Doc>> docs = new ArrayList<>();
+            for (int i = 0; i < threads * 4; i++) {
+                docs.add(executor.submit(() -> extractFromFile("test.txt",
+                        FsSettings.builder(getCurrentTestName())
+                                .setFs(Fs.builder().setChecksum("MD5").build())
+                                .build())));
+            }
+
+            String checksum = null;
+            for (Future<Doc> future : docs) {
+                Doc doc = future.get();
+                assertThat(doc.getContent(), containsString("This file contains some words."));
+                // Each thread must compute the same checksum
+                if (checksum == null) {
+                    checksum = doc.getFile().getChecksum();
+                }
+                assertThat(doc.getFile().getChecksum(), is(checksum));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExtractWithParseTimeout() throws IOException {
+        FsSettings fsSettings = FsSettings.builder(getCurrentTestName())
+                .setFs(Fs.builder().setChecksum("MD5").setParseTimeout(TimeValue.timeValueSeconds(10)).build())
+                .build();
+        Doc doc = extractFromFile("test.txt", fsSettings);
+        assertThat(doc.getContent(), containsString("This file contains some words."));
+        assertThat(doc.getFile().getChecksum(), is(extractFromFile("test.txt", FsSettings.builder(getCurrentTestName())
+                .setFs(Fs.builder().setChecksum("MD5").build())
+                .build()).getFile().getChecksum()));
+    }
+
+    @Test
+    public void testParseTimeout() throws Exception {
+        FsSettings fsSettings = FsSettings.builder(getCurrentTestName())
+                .setFs(Fs.builder().setChecksum("MD5").setStoreSource(true)
+                        .setParseTimeout(TimeValue.timeValueMillis(200)).build())
+                .build();
+        long timeouts = ParseWatchdog.getTimeouts();
+
+        // A stream which never gives its content
+        CountDownLatch released = new CountDownLatch(1);
+        InputStream stuck = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return -1;
+            }
+        };
+
+        Doc doc = new Doc();
+        try {
+            assertThat(TikaDocParser.generate(fsSettings, stuck, "stuck.txt", doc, MessageDigest.getInstance("MD5"), 0), is(false));
+        } finally {
+            released.countDown();
+        }
+        assertThat(ParseWatchdog.getTimeouts(), is(timeouts + 1));
+        assertThat(doc.getContent(), nullValue());
+        assertThat(doc.getFile().getChecksum(), nullValue());
+        assertThat(doc.getAttachment(), nullValue());
+        assertThat(doc.getFile().getExtension(), is("txt"));
+
+        // The next document is extracted by a new worker
+        doc = extractFromFile("test.txt", fsSettings);
+        assertThat(doc.getContent(), containsString("This file contains some words."));
+        assertThat(doc.getFile().getChecksum(), notNullValue());
+    }
+
+    @Test
+    public void testExtractWithParserProcesses() throws IOException {
+        FsSettings fsSettings = FsSettings.builder(getCurrentTestName())
+                .setFs(Fs.builder().setChecksum("MD5").build())
+                .build();
+        Doc doc = new Doc();
+        try (ForkedParserPool parserProcesses = new ForkedParserPool(1, "128m");
+             InputStream data = getBinaryContent("test.txt")) {
+            assertThat(TikaDocParser.generate(fsSettings, data, "test.txt", doc, MessageDigest.getInstance("MD5"), 0,
+                    parserProcesses, null), is(true));
+        } catch (NoSuchAlgorithmException e) {
+            assumeNoException(e);
+        }
+        Doc inProcess = extractFromFile("test.txt", fsSettings);
+        assertThat(doc.getContent(), is(inProcess.getContent()));
+        assertThat(doc.getFile().getContentType(), is(inProcess.getFile().getContentType()));
+        assertThat(doc.getFile().getChecksum(), is(inProcess.getFile().getChecksum()));
+    }
+
+    @Test
+    public void testExtractionCache() throws IOException, NoSuchAlgorithmException {
+        FsSettings fsSettings = FsSettings.builder(getCurrentTestName())
+                .setFs(Fs.builder().setChecksum("MD5").build())
+                .build();
+        try (ExtractionCache cache = ExtractionCache.open(rootTmpDir.resolve("extraction-cache"), 1024 * 1024)) {
+            // The first time, we parse the document
+            Doc fromStream = new Doc();
+            try (InputStream data = getBinaryContent("test.txt")) {
+                TikaDocParser.generate(fsSettings, data, "test.txt", fromStream, MessageDigest.getInstance("MD5"), 0, null, cache);
+            }
+            assertThat(fromStream.getContent(), containsString("This file contains some words."));
+            assertThat(fromStream.getFile().getChecksum(), notNullValue());
+            assertThat(cache.getMisses(), is(1L));
+            assertThat(cache.size(), is(1));
+
+            // Then we find the same content in the cache
+            Doc fromCache = new Doc();
+            try (InputStream data = TikaInputStream.get(Paths.get(getUrl("documents", "test.txt")))) {
+                TikaDocParser.generate(fsSettings, data, "test.txt", fromCache, MessageDigest.getInstance("MD5"), 0, null, cache);
+            }
+            assertThat(cache.getHits(), is(1L));
+            assertThat(fromCache.getContent(), is(fromStream.getContent()));
+            assertThat(fromCache.getFile().getContentType(), is(fromStream.getFile().getContentType()));
+            assertThat(fromCache.getFile().getChecksum(), is(fromStream.getFile().getChecksum()));
+        }
+    }
+
+    @Test
+    public void testFastTextExtraction() throws IOException, NoSuchAlgorithmException {
+        FsSettings fsSettings = FsSettings.builder(getCurrentTestName())
+                .setFs(Fs.builder().setStoreSource(true).setChecksum("MD5").setFastTextExtraction(true).build())
+                .build();
+        Doc withTika = extractFromFile("test.txt", FsSettings.builder(getCurrentTestName())
+                .setFs(Fs.builder().setStoreSource(true).setChecksum("MD5").build())
+                .build());
+
+        Doc fromStream = extractFromFile("test.txt", fsSettings);
+        assertThat(fromStream.getContent(), is("This file contains some words.\n"));
+        assertThat(fromStream.getFile().getContentType(), is("text/plain; charset=ISO-8859-1"));
+        assertThat(fromStream.getMeta().getRaw(), hasEntry("Content-Encoding", "ISO-8859-1"));
+        // The checksum and the source are computed from the whole content
+        assertThat(fromStream.getFile().getChecksum(), is(withTika.getFile().getChecksum()));
+        assertThat(fromStream.getAttachment(), is(withTika.getAttachment()));
+
+        Doc fromFile = new Doc();
+        try (InputStream data = TikaInputStream.get(Paths.get(getUrl("documents", "test.txt")))) {
+            TikaDocParser.generate(fsSettings, data, "test.txt", fromFile, MessageDigest.getInstance("MD5"), 0);
+        }
+        assertThat(fromFile.getContent(), is(fromStream.getContent()));
+        assertThat(fromFile.getFile().getChecksum(), is(fromStream.getFile().getChecksum()));
+
+        // Binary content is still parsed by Tika
+        Doc binary = new Doc();
+        try (InputStream data = getBinaryContent("test.wav")) {
+            TikaDocParser.generate(fsSettings, data, "test.txt", binary, MessageDigest.getInstance("MD5"), 0);
+        }
+        assertThat(binary.getFile().getContentType(), is(extractFromFile("test.wav").getFile().getContentType()));
+        assertThat(binary.getFile().getChecksum(), is(extractFromFile("test.wav", fsSettings).getFile().getChecksum()));
+    }
+
     private InputStream getBinaryContent(String filename) throws IOException {
         return Files.newInputStream(Paths.get(getUrl("documents", filename)));
     }
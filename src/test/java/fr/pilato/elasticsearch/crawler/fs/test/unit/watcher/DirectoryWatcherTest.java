@@ -0,0 +1,91 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package fr.pilato.elasticsearch.crawler.fs.test.unit.watcher;
+
+import fr.pilato.elasticsearch.crawler.fs.test.AbstractFSCrawlerTestCase;
+import fr.pilato.elasticsearch.crawler.fs.watcher.DirectoryWatcher;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * We want to test the directory watcher
+ */
+public class DirectoryWatcherTest extends AbstractFSCrawlerTestCase {
+
+    @Test
+    public void testWatchDirectories() throws IOException, InterruptedException {
+        Path root = rootTmpDir.resolve("watcher");
+        Files.createDirectories(root.resolve("subdir"));
+        Files.createDirectories(root.resolve(".ignore"));
+
+        Set<String> events = ConcurrentHashMap.newKeySet();
+        DirectoryWatcher.Listener listener = new DirectoryWatcher.Listener() {
+            @Override
+            public void onFileChanged(Path file) {
+                events.add("changed " + root.relativize(file));
+            }
+
+            @Override
+            public void onDirectoryCreated(Path dir) {
+                events.add("created " + root.relativize(dir));
+            }
+
+            @Override
+            public void onDeleted(Path path, boolean directory) {
+                events.add("deleted " + root.relativize(path) + (directory ? "/" : ""));
+            }
+
+            @Override
+            public void onOverflow() {
+            }
+        };
+
+        try (DirectoryWatcher watcher = new DirectoryWatcher(root, dir -> !dir.getFileName().toString().startsWith("."), listener)) {
+            watcher.start();
+            assertThat(watcher.getWatchedDirectories(), is(2));
+
+            Files.write(root.resolve("subdir").resolve("foo.txt"), "foo".getBytes());
+            assertThat(awaitBusy(() -> events.contains("changed subdir/foo.txt")), is(true));
+
+            Files.createDirectory(root.resolve("newdir"));
+            assertThat(awaitBusy(() -> events.contains("created newdir")), is(true));
+            Files.write(root.resolve("newdir").resolve("bar.txt"), "bar".getBytes());
+            assertThat(awaitBusy(() -> events.contains("changed newdir/bar.txt")), is(true));
+
+            Files.delete(root.resolve("subdir").resolve("foo.txt"));
+            Files.delete(root.resolve("subdir"));
+            assertThat(awaitBusy(() -> events.contains("deleted subdir/foo.txt") && events.contains("deleted subdir/")), is(true));
+
+            // Excluded directories are not watched
+            Files.write(root.resolve(".ignore").resolve("baz.txt"), "baz".getBytes());
+            Thread.sleep(500);
+            assertThat(events.contains("changed .ignore/baz.txt"), is(false));
+        }
+    }
+}